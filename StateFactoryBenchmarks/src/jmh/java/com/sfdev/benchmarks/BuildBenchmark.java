@@ -0,0 +1,61 @@
+package com.sfdev.benchmarks;
+
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineBuilder;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to declare and build large machine definitions.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Thread)
+public class BuildBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    public int stateCount;
+
+    @Param({"1", "4"})
+    public int transitionsPerState;
+
+    private final Machines.Driver driver = new Machines.Driver();
+    private StateMachineBuilder builder;
+
+    @Setup(Level.Invocation)
+    public void declare() {
+        builder = Machines.ring(stateCount, transitionsPerState, 1, 1, driver);
+    }
+
+    /**
+     * Only build(), with the builder chain already declared.
+     */
+    @Benchmark
+    public StateMachine build() {
+        return builder.build();
+    }
+
+    /**
+     * The builder chain and build() together, as paid at startup.
+     */
+    @Benchmark
+    public StateMachine declareAndBuild() {
+        return Machines.ring(stateCount, transitionsPerState, 1, 1, driver).build();
+    }
+
+    /**
+     * The builder chain plus a states() selection of every tenth group of three states, and build().
+     * Each selection only touches the states it names, so this stays linear in the number of states.
+     */
+    @Benchmark
+    public StateMachine declareWithSelectionsAndBuild() {
+        StateMachineBuilder builder = Machines.ring(stateCount, transitionsPerState, 1, 1, driver);
+        for (int i = 0; i + 2 < stateCount; i += 10) {
+            builder.states(Machines.name(i), Machines.name(i + 1), Machines.name(i + 2)).loop(driver::looped);
+        }
+        return builder.build();
+    }
+}
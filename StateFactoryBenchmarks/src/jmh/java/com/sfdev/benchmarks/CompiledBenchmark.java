@@ -0,0 +1,47 @@
+package com.sfdev.benchmarks;
+
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineBuilder;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares StateMachine.update() on a compiled definition (StateMachineBuilder.compiled()) with the general transition loop.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class CompiledBenchmark {
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    @Param({"1", "8"})
+    public int transitionsPerState;
+
+    private final Machines.Driver driver = new Machines.Driver();
+    private StateMachine machine;
+
+    @Setup
+    public void setup() {
+        StateMachineBuilder builder = Machines.ring(100, transitionsPerState, 0, 0, driver);
+        if (compiled) builder.compiled();
+        machine = builder.build();
+        machine.start();
+    }
+
+    @Benchmark
+    public int steadyState() {
+        driver.fire = false;
+        machine.update();
+        return driver.entries;
+    }
+
+    @Benchmark
+    public int transitionEveryTick() {
+        driver.fire = true;
+        machine.update();
+        return driver.entries;
+    }
+}
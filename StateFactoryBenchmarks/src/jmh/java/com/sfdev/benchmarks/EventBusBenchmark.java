@@ -0,0 +1,74 @@
+package com.sfdev.benchmarks;
+
+import com.sfdev.assembly.bus.EventBus;
+import com.sfdev.assembly.fleet.StateMachineFleet;
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineBuilder;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a fleet tick in which one leader machine tells every follower to act once per cycle, either through a shared
+ * field that every follower polls in a TransitionCondition or through an EventBus that only wakes the followers up when it delivers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class EventBusBenchmark {
+    private enum Signal { GO }
+
+    @Param({"false", "true"})
+    public boolean bus;
+
+    @Param({"64", "1024"})
+    public int followers;
+
+    // bumped by the leader on every cycle when the followers poll
+    private volatile int generation = 0;
+
+    private StateMachineFleet fleet;
+
+    @Setup
+    public void setup() {
+        fleet = new StateMachineFleet();
+        EventBus eventBus = new EventBus();
+        EventBus.Publisher publisher = eventBus.publisher();
+        if (bus) fleet.setEventBus(eventBus);
+
+        StateMachineBuilder leader = new StateMachineBuilder()
+                .state("IDLE").transitionTimed(0)
+                .state("SIGNAL").transitionTimed(0, "IDLE");
+        leader.onEnter(bus ? publisher.emit(Signal.GO) : () -> generation++);
+        add(leader.build());
+
+        for (int i = 0; i < followers; i++) {
+            StateMachineBuilder follower = new StateMachineBuilder();
+            if (bus) {
+                follower.state("WAIT").on(Signal.GO, "ACT");
+            } else {
+                int[] seen = {0};
+                follower.state("WAIT").transition(() -> generation != seen[0], "ACT", () -> seen[0] = generation);
+            }
+            StateMachine machine = follower.state("ACT").transitionTimed(0, "WAIT").build();
+            if (bus) eventBus.subscribe(machine, Signal.GO);
+            add(machine);
+        }
+    }
+
+    private void add(StateMachine machine) {
+        fleet.add(machine);
+        fleet.start(machine);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fleet.close();
+    }
+
+    @Benchmark
+    public long tick() {
+        return fleet.tick();
+    }
+}
@@ -0,0 +1,31 @@
+package com.sfdev.benchmarks;
+
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineDefinition;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of creating a StateMachine from an already built, shared definition.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class InstanceBenchmark {
+    @Param({"100", "10000"})
+    public int stateCount;
+
+    private StateMachineDefinition definition;
+
+    @Setup
+    public void setup() {
+        definition = Machines.ring(stateCount, 4, 1, 1, new Machines.Driver()).buildDefinition();
+    }
+
+    @Benchmark
+    public StateMachine newInstance() {
+        return definition.newInstance();
+    }
+}
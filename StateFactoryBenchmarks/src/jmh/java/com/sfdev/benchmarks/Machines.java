@@ -0,0 +1,69 @@
+package com.sfdev.benchmarks;
+
+import com.sfdev.assembly.state.StateMachineBuilder;
+
+/**
+ * Generates the synthetic machine definitions shared by the benchmarks.
+ */
+final class Machines {
+    private Machines() {}
+
+    /**
+     * Name of the i-th generated state.
+     */
+    static String name(int i) {
+        return "S" + i;
+    }
+
+    /**
+     * Fills a builder with a ring of states. Every state gets the requested number of never-firing transitions followed by one
+     * transition to the next state (the last state points back to the first) that fires whenever the given driver allows it.
+     * @param stateCount Number of states in the ring.
+     * @param transitionsPerState Transitions per state, including the firing one.
+     * @param timedCallbacks afterTime callbacks per state. They are due far in the future, so they are polled but never run.
+     * @param loopActions Loop actions per state.
+     * @param driver Decides when the firing transition of the current state is taken.
+     */
+    static StateMachineBuilder ring(int stateCount, int transitionsPerState, int timedCallbacks, int loopActions, Driver driver) {
+        StateMachineBuilder builder = new StateMachineBuilder();
+
+        for (int i = 0; i < stateCount; i++) {
+            builder.state(name(i));
+            builder.onEnter(driver::entered);
+
+            for (int l = 0; l < loopActions; l++) builder.loop(driver::looped);
+            for (int c = 0; c < timedCallbacks; c++) builder.afterTime(1e6 + c, driver::looped);
+            for (int t = 1; t < transitionsPerState; t++) builder.transition(driver::never);
+
+            builder.transition(driver::fire, name((i + 1) % stateCount));
+        }
+
+        return builder;
+    }
+
+    /**
+     * Mutable inputs read by the generated conditions and actions.
+     */
+    static final class Driver {
+        boolean fire;
+        int never = Integer.MAX_VALUE;
+        int entries;
+        int loops;
+
+        boolean never() {
+            return never < 0;
+        }
+
+        boolean fire() {
+            return fire;
+        }
+
+        void entered() {
+            entries++;
+        }
+
+        void looped() {
+            loops++;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.sfdev.benchmarks;
+
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineMetrics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what turning on StateMachineMetrics costs StateMachine.update().
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private final Machines.Driver driver = new Machines.Driver();
+    private StateMachine machine;
+
+    @Setup
+    public void setup() {
+        machine = Machines.ring(100, 4, 4, 4, driver).build();
+        if (metrics) machine.setMetrics(new StateMachineMetrics(machine.getDefinition()));
+        machine.start();
+    }
+
+    @Benchmark
+    public int steadyState() {
+        driver.fire = false;
+        machine.update();
+        return driver.loops;
+    }
+
+    @Benchmark
+    public int transitionEveryTick() {
+        driver.fire = true;
+        machine.update();
+        return driver.entries;
+    }
+}
@@ -0,0 +1,57 @@
+package com.sfdev.benchmarks;
+
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineBuilder;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of jumping to a state by name with setState(String) and setState(Enum).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SetStateBenchmark {
+    enum Target {
+        T0, T1, T2, T3, T4, T5, T6, T7, T8, T9, T10, T11, T12, T13, T14, T15
+    }
+
+    @Param({"16", "1000", "100000"})
+    public int stateCount;
+
+    private StateMachine machine;
+    private String[] names;
+    private Target[] enums;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        StateMachineBuilder builder = new StateMachineBuilder();
+        enums = Target.values();
+        for (Target target : enums) builder.state(target);
+
+        names = new String[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            names[i] = Machines.name(i);
+            builder.state(names[i]);
+        }
+
+        machine = builder.build();
+    }
+
+    @Benchmark
+    public String setStateString() {
+        cursor = cursor + 1 == names.length ? 0 : cursor + 1;
+        machine.setState(names[cursor]);
+        return machine.getStateString();
+    }
+
+    @Benchmark
+    public Enum setStateEnum() {
+        cursor = cursor + 1 >= enums.length ? 0 : cursor + 1;
+        machine.setState(enums[cursor]);
+        return machine.getStateEnum();
+    }
+}
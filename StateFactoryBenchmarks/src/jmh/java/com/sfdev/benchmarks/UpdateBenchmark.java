@@ -0,0 +1,56 @@
+package com.sfdev.benchmarks;
+
+import com.sfdev.assembly.state.StateMachine;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures StateMachine.update() throughput, both while the machine sits in a state and while it transitions on every tick.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class UpdateBenchmark {
+    @Param({"10", "100", "1000"})
+    public int stateCount;
+
+    @Param({"1", "4", "16"})
+    public int transitionsPerState;
+
+    @Param({"0", "4"})
+    public int timedCallbacks;
+
+    @Param({"0", "4"})
+    public int loopActions;
+
+    private final Machines.Driver driver = new Machines.Driver();
+    private StateMachine machine;
+
+    @Setup
+    public void setup() {
+        machine = Machines.ring(stateCount, transitionsPerState, timedCallbacks, loopActions, driver).build();
+        machine.start();
+    }
+
+    /**
+     * No transition fires, so every condition, timed callback and loop action of the current state is polled.
+     */
+    @Benchmark
+    public int steadyState() {
+        driver.fire = false;
+        machine.update();
+        return driver.loops;
+    }
+
+    /**
+     * The last transition of every state fires, so each update also pays for the exit and the next enter.
+     */
+    @Benchmark
+    public int transitionEveryTick() {
+        driver.fire = true;
+        machine.update();
+        return driver.entries;
+    }
+}
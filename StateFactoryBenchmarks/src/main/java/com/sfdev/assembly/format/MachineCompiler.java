@@ -0,0 +1,25 @@
+package com.sfdev.assembly.format;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command line tool that compiles text definition files into binary definition files, see MachineFormat.compile(File, File).
+ */
+public final class MachineCompiler {
+    private MachineCompiler() {
+    }
+
+    /**
+     * Compiles a text definition file into a binary definition file.
+     * @param args The text file and the binary file.
+     * @throws IOException If a file cannot be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: MachineCompiler <text definition> <binary definition>");
+            System.exit(2);
+        }
+        MachineFormat.compile(new File(args[0]), new File(args[1]));
+    }
+}
@@ -0,0 +1,154 @@
+package com.sfdev.assembly.bus;
+
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineBuilder;
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the delivery order of an EventBus: publishers in the order they were created, and the events of each publisher in the
+ * order they were published, also while other threads publish.
+ */
+public class EventBusTest {
+    private enum E { A1, B1, A2, B2 }
+
+    private final ManualTimeSource clock = new ManualTimeSource();
+    private final List<String> log = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Builds a machine that stays in one state and logs every event it handles; it handles one event per update.
+     */
+    private StateMachine subscriber() {
+        StateMachineBuilder builder = new StateMachineBuilder().state("LISTEN");
+        for (E event : E.values()) builder.on(event, "LISTEN", () -> log.add(event.name()));
+        StateMachine machine = builder.timeSource(clock).build();
+        machine.start();
+        return machine;
+    }
+
+    private static void updates(StateMachine machine, int count) {
+        for (int i = 0; i < count; i++) machine.update();
+    }
+
+    @Test
+    public void eventsOfOnePublisherArriveInPublishOrder() {
+        EventBus bus = new EventBus();
+        EventBus.Publisher publisher = bus.publisher();
+        StateMachine machine = subscriber();
+        bus.subscribe(machine, E.values());
+
+        publisher.publish(E.B1);
+        publisher.publish(E.A1);
+        publisher.emit(E.B2).call();
+        publisher.publish(E.A1);
+        assertTrue(log.isEmpty());
+
+        assertEquals(4, bus.deliver());
+        updates(machine, 10);
+        assertEquals(Arrays.asList("B1", "A1", "B2", "A1"), log);
+    }
+
+    @Test
+    public void publishersAreDeliveredInCreationOrder() {
+        EventBus bus = new EventBus();
+        EventBus.Publisher first = bus.publisher();
+        EventBus.Publisher second = bus.publisher();
+        StateMachine machine = subscriber();
+        bus.subscribe(machine, E.values());
+
+        second.publish(E.A2);
+        first.publish(E.A1);
+        second.publish(E.B2);
+        first.publish(E.B1);
+
+        bus.deliver();
+        updates(machine, 10);
+        assertEquals(Arrays.asList("A1", "B1", "A2", "B2"), log);
+    }
+
+    @Test
+    public void everySubscriberSeesTheSameOrder() {
+        EventBus bus = new EventBus();
+        EventBus.Publisher publisher = bus.publisher();
+        StateMachine one = subscriber();
+        StateMachine two = subscriber();
+        bus.subscribe(one, E.values()).subscribe(two, E.values());
+
+        for (E event : E.values()) publisher.publish(event);
+        assertEquals(8, bus.deliver());
+        updates(one, 10);
+        List<String> first = new ArrayList<>(log);
+        log.clear();
+        updates(two, 10);
+        assertEquals(first, log);
+    }
+
+    @Test
+    public void fullPublisherDropsAndCounts() {
+        EventBus bus = new EventBus(2);
+        EventBus.Publisher publisher = bus.publisher();
+        bus.subscribe(subscriber(), E.A1);
+
+        assertTrue(publisher.publish(E.A1));
+        assertTrue(publisher.publish(E.A1));
+        assertFalse(publisher.publish(E.A1));
+        assertEquals(1, bus.getDropped());
+        assertEquals(2, bus.deliver());
+    }
+
+    @Test
+    public void publishOrderIsKeptWhilePublishersRunOnOtherThreads() throws InterruptedException {
+        final int perPublisher = 500;
+        // small publisher queues, so one deliver() never overflows the machine's own event queue
+        EventBus bus = new EventBus(16);
+        StateMachine machine = subscriber();
+        bus.subscribe(machine, E.values());
+
+        Thread[] threads = {
+                publishing(bus.publisher(), E.A1, E.B1, perPublisher),
+                publishing(bus.publisher(), E.A2, E.B2, perPublisher)
+        };
+        for (Thread thread : threads) thread.start();
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (log.size() < 2 * perPublisher && System.nanoTime() < deadline) {
+            bus.deliver();
+            updates(machine, StateMachine.EVENT_QUEUE_CAPACITY);
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(2 * perPublisher, log.size());
+        assertAlternates(log, "A1", "B1", perPublisher);
+        assertAlternates(log, "A2", "B2", perPublisher);
+    }
+
+    /**
+     * Creates a thread that publishes first and second by turns, waiting whenever the publisher is full.
+     */
+    private static Thread publishing(EventBus.Publisher publisher, E first, E second, int count) {
+        return new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (!publisher.publish(i % 2 == 0 ? first : second)) Thread.yield();
+            }
+        });
+    }
+
+    private static void assertAlternates(List<String> log, String first, String second, int count) {
+        List<String> own = new ArrayList<>();
+        for (String event : log) {
+            if (event.equals(first) || event.equals(second)) own.add(event);
+        }
+        assertEquals(count, own.size());
+        for (int i = 0; i < count; i++) assertEquals("event " + i, i % 2 == 0 ? first : second, own.get(i));
+    }
+}
@@ -0,0 +1,112 @@
+package com.sfdev.assembly.fleet;
+
+import com.sfdev.assembly.state.ConcurrentStateMachine;
+import com.sfdev.assembly.state.StateMachineBuilder;
+import com.sfdev.assembly.state.StateMachineDefinition;
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that commands reach the ConcurrentStateMachines of a fleet that are parked or sleeping until a deadline.
+ */
+public class FleetCommandTest {
+    private enum S { A, B }
+
+    private ManualTimeSource clock;
+    private StateMachineFleet fleet;
+    private StateMachineDefinition definition;
+
+    @Before
+    public void setUp() {
+        clock = new ManualTimeSource();
+        fleet = new StateMachineFleet(new ForkJoinPool(2), StateMachineFleet.AUTOMATIC, clock);
+        definition = new StateMachineBuilder()
+                .state(S.A).transitionTimed(60)
+                .state(S.B).transitionTimed(60, S.A)
+                .buildDefinition();
+    }
+
+    @After
+    public void tearDown() {
+        fleet.close();
+    }
+
+    @Test
+    public void startQueuedBeforeAddIsApplied() {
+        ConcurrentStateMachine machine = new ConcurrentStateMachine(definition, clock);
+        machine.start();
+        fleet.add(machine);
+
+        fleet.tick();
+        assertTrue(machine.isRunning());
+    }
+
+    @Test
+    public void commandWakesASleepingMachine() {
+        ConcurrentStateMachine machine = new ConcurrentStateMachine(definition, clock);
+        fleet.add(machine);
+        fleet.start(machine);
+        fleet.tick();
+        fleet.tick();
+        assertEquals(1, fleet.sleepingCount());
+        assertTrue(fleet.nanosUntilNextDeadline() > 0);
+
+        machine.setState(S.B);
+        assertEquals(0, fleet.nanosUntilNextDeadline());
+        fleet.tick();
+        assertEquals(S.B, machine.getState());
+    }
+
+    @Test
+    public void commandWakesAParkedMachine() {
+        ConcurrentStateMachine machine = new ConcurrentStateMachine(definition, clock);
+        fleet.add(machine);
+        fleet.start(machine);
+        fleet.tick();
+
+        machine.stop();
+        fleet.tick();
+        assertFalse(machine.isRunning());
+        assertEquals(0, fleet.activeCount());
+        assertEquals(0, fleet.sleepingCount());
+
+        machine.start();
+        fleet.tick();
+        assertTrue(machine.isRunning());
+    }
+
+    @Test
+    public void parkedMachineTakesMoreCommandsThanTheQueueHolds() {
+        ConcurrentStateMachine machine = new ConcurrentStateMachine(definition, clock);
+        fleet.add(machine);
+
+        for (int i = 0; i < ConcurrentStateMachine.COMMAND_QUEUE_CAPACITY * 4; i++) {
+            machine.setState(i % 2 == 0 ? S.B : S.A);
+            if (i % 100 == 99) fleet.tick();
+        }
+        fleet.tick();
+        assertEquals(S.A, machine.getState());
+        assertFalse(machine.isRunning());
+    }
+
+    @Test
+    public void removedMachineIsNotWoken() {
+        ConcurrentStateMachine machine = new ConcurrentStateMachine(definition, clock);
+        fleet.add(machine);
+        machine.start();
+        fleet.remove(machine);
+
+        fleet.tick();
+        assertFalse(machine.isRunning());
+        assertEquals(0, fleet.activeCount());
+    }
+}
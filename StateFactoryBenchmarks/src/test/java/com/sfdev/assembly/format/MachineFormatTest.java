@@ -0,0 +1,162 @@
+package com.sfdev.assembly.format;
+
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineDefinition;
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that definitions survive the round trip between the text and binary forms, that both forms load into machines that behave
+ * the same, and that damaged binaries are rejected with DefinitionFormatException.
+ */
+public class MachineFormatTest {
+    private static final String TEXT = String.join("\n",
+            "# an intake cycle",
+            "state INTAKE",
+            "  enter startIntake",
+            "  after 0.5 pulse",
+            "  transition hasPiece -> TRANSFER exit retract",
+            "  timed 3 -> RECOVER",
+            "  minimum 0.25",
+            "state TRANSFER",
+            "  loop pulse",
+            "  exit retract",
+            "  timed 1.5",
+            "  minimum 0.5 1",
+            "state DONE",
+            "  timed 1 -> INTAKE",
+            "failsafe RECOVER",
+            "  timed 0.75 -> INTAKE",
+            "");
+
+    private final List<String> log = new ArrayList<>();
+    private boolean hasPiece;
+    private CallbackRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new CallbackRegistry()
+                .action("startIntake", () -> log.add("startIntake"))
+                .action("pulse", () -> log.add("pulse"))
+                .action("retract", () -> log.add("retract"))
+                .condition("hasPiece", () -> hasPiece);
+    }
+
+    @Test
+    public void binaryDecompilesToTextThatCompilesToTheSameBinary() {
+        byte[] binary = MachineFormat.compile(TEXT);
+        String text = MachineFormat.decompile(ByteBuffer.wrap(binary));
+
+        assertArrayEquals(binary, MachineFormat.compile(text));
+        assertEquals(text, MachineFormat.decompile(ByteBuffer.wrap(MachineFormat.compile(text))));
+    }
+
+    @Test
+    public void bothFormsRunTheSame() {
+        StateMachineDefinition fromText = MachineFormat.fromText(TEXT, registry);
+        StateMachineDefinition fromBinary = MachineFormat.fromBinary(ByteBuffer.wrap(MachineFormat.compile(TEXT)), registry);
+
+        List<String> textRun = run(fromText);
+        List<String> binaryRun = run(fromBinary);
+        assertEquals(textRun, binaryRun);
+        assertTrue(textRun.contains("@TRANSFER") && textRun.contains("@RECOVER"));
+    }
+
+    @Test
+    public void filesLoadInEitherForm() throws IOException {
+        File text = File.createTempFile("machine", ".sfm");
+        File binary = File.createTempFile("machine", ".sfd");
+        try {
+            try (OutputStream out = new FileOutputStream(text)) {
+                out.write(TEXT.getBytes(StandardCharsets.UTF_8));
+            }
+            MachineFormat.compile(text, binary);
+
+            List<String> expected = run(MachineFormat.fromText(TEXT, registry));
+            assertEquals(expected, run(MachineFormat.load(text, registry)));
+            assertEquals(expected, run(MachineFormat.load(binary, registry)));
+        } finally {
+            assertTrue(text.delete());
+            assertTrue(binary.delete());
+        }
+    }
+
+    @Test
+    public void truncatedBinariesAreRejected() {
+        byte[] binary = MachineFormat.compile(TEXT);
+        for (int length = 0; length < binary.length; length++) {
+            try {
+                MachineFormat.decompile(ByteBuffer.wrap(Arrays.copyOf(binary, length)));
+                fail("decompiled a binary cut to " + length + " bytes");
+            } catch (DefinitionFormatException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void damagedBinariesAreRejectedOrStillValid() {
+        byte[] binary = MachineFormat.compile(TEXT);
+        for (int position = 0; position < binary.length; position++) {
+            for (int damage : new int[] { 0x01, 0x40, 0x80, 0xFF }) {
+                byte[] damaged = binary.clone();
+                damaged[position] ^= damage;
+                try {
+                    // whatever is accepted must be a definition the text form can express and that can be built
+                    String text = MachineFormat.decompile(ByteBuffer.wrap(damaged));
+                    MachineFormat.compile(text);
+                    MachineFormat.fromBinary(ByteBuffer.wrap(damaged), registry);
+                } catch (DefinitionFormatException expected) {
+                }
+            }
+        }
+    }
+
+    @Test(expected = DefinitionFormatException.class)
+    public void unknownNamesAreRejected() {
+        MachineFormat.fromText("state A\n  transition missing -> A\n", registry);
+    }
+
+    @Test(expected = DefinitionFormatException.class)
+    public void unknownTargetsAreRejected() {
+        MachineFormat.fromText("state A\n  timed 1 -> MISSING\n", registry);
+    }
+
+    private List<String> run(StateMachineDefinition definition) {
+        log.clear();
+        hasPiece = false;
+        ManualTimeSource clock = new ManualTimeSource();
+        StateMachine machine = definition.newInstance(clock);
+        machine.start();
+
+        String last = null;
+        for (int step = 0; step < 400; step++) {
+            if (step == 30) hasPiece = true;
+            if (step == 31) hasPiece = false;
+            if (step == 100) machine.setState("RECOVER");
+            machine.update();
+            if (!machine.getStateString().equals(last)) {
+                last = machine.getStateString();
+                log.add("@" + last);
+            }
+            clock.advanceSeconds(0.05);
+        }
+        return new ArrayList<>(log);
+    }
+}
@@ -0,0 +1,57 @@
+package com.sfdev.assembly.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the buckets, percentiles and concurrent recording of Histogram.
+ */
+public class HistogramTest {
+    @Test
+    public void bucketsCoverEveryValue() {
+        for (int b = 0; b < Histogram.BUCKETS; b++) {
+            assertEquals(b, Histogram.bucketOf(Histogram.lowerBound(b)));
+            assertEquals(b, Histogram.bucketOf(Histogram.upperBound(b)));
+        }
+    }
+
+    @Test
+    public void percentilesStayWithinTheBucket() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 1000; value++) histogram.record(value);
+
+        assertEquals(1000, histogram.count());
+        assertEquals(1000, histogram.max());
+        long p50 = histogram.percentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.25);
+        assertEquals(1000, histogram.percentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+    }
+
+    @Test
+    public void threadsRecordingAtOnceLoseNothing() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        int threads = 8;
+        int values = 200_000;
+        Thread[] workers = new Thread[threads];
+        for (int w = 0; w < threads; w++) {
+            long offset = w;
+            workers[w] = new Thread(() -> {
+                for (int i = 0; i < values; i++) histogram.record(i % 1000 + offset);
+            });
+            workers[w].start();
+        }
+        for (Thread worker : workers) worker.join();
+
+        assertEquals((long) threads * values, histogram.count());
+        assertEquals(999 + threads - 1, histogram.max());
+        long buckets = 0;
+        for (int b = 0; b < Histogram.BUCKETS; b++) buckets += histogram.bucketCount(b);
+        assertEquals(histogram.count(), buckets);
+    }
+}
@@ -0,0 +1,76 @@
+package com.sfdev.assembly.recorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a FlightRecorder dumps consistent, consecutive records while another thread keeps recording.
+ */
+public class FlightRecorderTest {
+    private static final String[] STATES = { "A", "B", "C", "D", "E", "F", "G" };
+    private static final String[] EVENTS = {};
+
+    // every field of record n is derived from n, so a torn record shows up as fields that disagree
+    private static void record(FlightRecorder recorder, long n) {
+        recorder.record(n * 1_000_003L, (int) (n % STATES.length), (int) ((n + 1) % STATES.length),
+                (int) (n % 4), (int) n, n % 2 == 0);
+    }
+
+    private static FlightRecording dump(FlightRecorder recorder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.dump(out, STATES, EVENTS);
+        return FlightRecording.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void assertConsistent(FlightRecording recording) {
+        long previous = -1;
+        for (int r = 0; r < recording.size(); r++) {
+            long n = recording.getTime(r) / 1_000_003L;
+            assertEquals(n * 1_000_003L, recording.getTime(r));
+            assertEquals(n % STATES.length, recording.getFrom(r));
+            assertEquals((n + 1) % STATES.length, recording.getTo(r));
+            assertEquals(n % 4, recording.getCause(r));
+            assertEquals((int) n, recording.getIndex(r));
+            assertEquals(n % 2 == 0, recording.hasExitAction(r));
+            if (previous != -1) assertEquals(previous + 1, n);
+            previous = n;
+        }
+    }
+
+    @Test
+    public void dumpKeepsTheNewestRecordsInOrder() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(8);
+        for (long n = 0; n < 20; n++) record(recorder, n);
+
+        FlightRecording recording = dump(recorder);
+        assertEquals(20, recording.getRecordedCount());
+        assertEquals(7, recording.size()); // a full ring is dumped without its oldest record
+        assertEquals(13, recording.getIndex(0));
+        assertConsistent(recording);
+    }
+
+    @Test
+    public void dumpWhileRecordingNeverTearsARecord() throws Exception {
+        FlightRecorder recorder = new FlightRecorder(16);
+        Thread writer = new Thread(() -> {
+            for (long n = 0; n < 5_000_000L; n++) record(recorder, n);
+        });
+        writer.start();
+
+        int dumps = 0;
+        while (writer.isAlive()) {
+            assertConsistent(dump(recorder));
+            dumps++;
+        }
+        writer.join();
+
+        assertTrue(dumps > 0);
+        assertConsistent(dump(recorder));
+    }
+}
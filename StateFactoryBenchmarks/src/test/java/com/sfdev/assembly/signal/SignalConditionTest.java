@@ -0,0 +1,120 @@
+package com.sfdev.assembly.signal;
+
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineBuilder;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a SignalCondition is evaluated exactly when one of its inputs changed, also while other threads write and check it.
+ */
+public class SignalConditionTest {
+    private enum S { WAIT, GO }
+
+    private int calls;
+
+    @Test
+    public void evaluatedOnlyAfterAnInputChanged() {
+        DoubleSignal distance = new DoubleSignal(1.0);
+        SignalCondition close = SignalCondition.of(() -> {
+            calls++;
+            return distance.get() < 0.1;
+        }, distance);
+
+        assertFalse(close.shouldTransition());
+        assertFalse(close.shouldTransition());
+        assertEquals(1, calls);
+
+        distance.set(1.0); // the same value is no change
+        assertFalse(close.shouldTransition());
+        assertEquals(1, calls);
+
+        distance.set(0.05);
+        assertTrue(close.shouldTransition());
+        assertTrue(close.shouldTransition());
+        assertEquals(2, calls);
+    }
+
+    @Test
+    public void anyInputInvalidatesTheResult() {
+        BooleanSignal armed = new BooleanSignal(false);
+        ValueSignal<String> mode = new ValueSignal<>("manual");
+        SignalCondition ready = SignalCondition.of(() -> {
+            calls++;
+            return armed.get() && mode.get().equals("auto");
+        }, armed, mode);
+
+        assertFalse(ready.shouldTransition());
+        armed.set(true);
+        assertFalse(ready.shouldTransition());
+        mode.set(new String("manual")); // equal values are no change
+        assertFalse(ready.shouldTransition());
+        assertEquals(2, calls);
+
+        mode.set("auto");
+        assertTrue(ready.shouldTransition());
+        assertEquals(3, calls);
+        assertEquals(1, mode.getVersion());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAnInput() {
+        SignalCondition.of(() -> true);
+    }
+
+    @Test
+    public void machineTransitionsWhenTheSignalChanges() {
+        BooleanSignal button = new BooleanSignal(false);
+        StateMachine machine = new StateMachineBuilder()
+                .state(S.WAIT).transition(SignalCondition.of(() -> {
+                    calls++;
+                    return button.get();
+                }, button), S.GO)
+                .state(S.GO)
+                .build();
+        machine.start();
+
+        for (int i = 0; i < 100; i++) machine.update();
+        assertEquals(S.WAIT, machine.getState());
+        assertEquals(1, calls);
+
+        button.set(true);
+        machine.update();
+        assertEquals(S.GO, machine.getState());
+    }
+
+    @Test
+    public void resultFollowsTheLastWriteAcrossThreads() throws InterruptedException {
+        DoubleSignal value = new DoubleSignal(0);
+        AtomicInteger evaluations = new AtomicInteger();
+        SignalCondition odd = SignalCondition.of(() -> {
+            evaluations.incrementAndGet();
+            return ((long) value.get() & 1) != 0;
+        }, value);
+
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 200_000; i++) value.set(i);
+        });
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                while (writer.isAlive()) odd.shouldTransition();
+            });
+        }
+        writer.start();
+        for (Thread reader : readers) reader.start();
+        writer.join();
+        for (Thread reader : readers) reader.join();
+
+        assertFalse(odd.shouldTransition()); // 200000 is even; no reader may have left an older result behind
+        int settled = evaluations.get();
+        assertFalse(odd.shouldTransition());
+        assertEquals(settled, evaluations.get());
+    }
+}
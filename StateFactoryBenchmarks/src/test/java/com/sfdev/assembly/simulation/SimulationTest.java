@@ -0,0 +1,103 @@
+package com.sfdev.assembly.simulation;
+
+import com.sfdev.assembly.state.StateMachineBuilder;
+import com.sfdev.assembly.state.StateMachineDefinition;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that a Simulation jumps its clock to the next deadline while the machine only waits, steps it by the loop period while
+ * the machine polls, and applies every script step at its exact simulated time.
+ */
+public class SimulationTest {
+    private enum E { SKIP }
+
+    private static final long MILLIS = 1_000_000;
+
+    private boolean ready;
+
+    private StateMachineDefinition waitThenPoll() {
+        return new StateMachineBuilder()
+                .state("WAIT").transitionTimed(2, "POLL")
+                .state("POLL").transition(() -> ready, "DONE").on(E.SKIP, "SKIPPED")
+                .state("SKIPPED")
+                .state("DONE")
+                .buildDefinition();
+    }
+
+    private static List<String> entries(Timeline timeline) {
+        List<String> entries = new ArrayList<>();
+        for (Timeline.Entry entry : timeline.getEntries()) entries.add(entry.getState() + "@" + entry.getNanos() / MILLIS);
+        return entries;
+    }
+
+    @Test
+    public void clockJumpsToTheDeadlineAndScriptStepsLandOnTheirTick() {
+        Timeline timeline = new Simulation(waitThenPoll(), 10)
+                .period(0.25)
+                .script(new Script().at(2.4, () -> ready = true))
+                .run();
+
+        // updates at 0 (enters WAIT), 2 (its deadline), 2.25 (enters POLL), 2.4 (the script step) and 2.65 (enters DONE and stops)
+        assertEquals(Arrays.asList("WAIT@0", "POLL@2000", "DONE@2400"), entries(timeline));
+        assertEquals(5, timeline.getUpdates());
+        assertEquals(2_650 * MILLIS, timeline.getStoppedAt());
+        assertEquals(2_650 * MILLIS, timeline.getEndNanos());
+        assertEquals("WAIT", timeline.getStateAt(1.999));
+        assertEquals("POLL", timeline.getStateAt(2.399));
+        assertEquals("DONE", timeline.getStateAt(2.4));
+        assertNull(timeline.getStateAt(2.7));
+    }
+
+    @Test
+    public void scriptedEventLandsBetweenLoopPeriods() {
+        Timeline timeline = new Simulation(waitThenPoll(), 10)
+                .period(0.25)
+                .script(new Script().fire(2.3, E.SKIP))
+                .run();
+
+        // updates at 0, 2, 2.25, 2.3 (the event) and 2.55 (enters SKIPPED and stops)
+        assertEquals(Arrays.asList("WAIT@0", "POLL@2000", "SKIPPED@2300"), entries(timeline));
+        assertEquals(5, timeline.getUpdates());
+        assertEquals(2_550 * MILLIS, timeline.getStoppedAt());
+    }
+
+    @Test
+    public void simulationEndsAtItsLengthWhileStillWaiting() {
+        Timeline timeline = new Simulation(waitThenPoll(), 1.5)
+                .script(new Script().at(1.3, () -> ready = true))
+                .run();
+
+        // one update to enter WAIT, one for the script step, and none for the rest of the wait
+        assertEquals(Arrays.asList("WAIT@0"), entries(timeline));
+        assertEquals(2, timeline.getUpdates());
+        assertEquals(Timeline.STILL_RUNNING, timeline.getStoppedAt());
+        assertEquals(1_500 * MILLIS, timeline.getEndNanos());
+    }
+
+    @Test
+    public void stepsAtTheSameTimeRunInTheOrderTheyWereAdded() {
+        List<String> order = new ArrayList<>();
+        new Simulation(waitThenPoll(), 1)
+                .script(new Script().at(0.5, () -> order.add("second")).at(0.1, () -> order.add("first")).at(0.5, () -> order.add("third")))
+                .run();
+
+        assertEquals(Arrays.asList("first", "second", "third"), order);
+    }
+
+    @Test
+    public void runningAgainGivesTheSameTimeline() {
+        Simulation simulation = new Simulation(waitThenPoll(), 10)
+                .period(0.25)
+                .script(new Script().at(0, () -> ready = false).at(2.4, () -> ready = true));
+
+        assertEquals(simulation.run().toString(), simulation.run().toString());
+    }
+}
@@ -0,0 +1,102 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that anonymous wait states are unbounded, cannot be selected by name, and can be told apart by the accessors of a machine
+ * that is otherwise made only of enum states.
+ */
+public class AnonymousStatesTest {
+    private enum S { A, B }
+
+    private final ManualTimeSource clock = new ManualTimeSource();
+
+    private StateMachineDefinition definition() {
+        return new StateMachineBuilder()
+                .state(S.A).transitionTimed(0.1)
+                .waitState(0.2, S.B)
+                .state(S.B)
+                .timeSource(clock)
+                .buildDefinition();
+    }
+
+    @Test
+    public void getStateIsNullInAnAnonymousState() {
+        StateMachine machine = definition().newInstance(clock);
+        machine.start();
+        machine.update();
+        assertEquals(S.A, machine.getState());
+        assertFalse(machine.isAnonymousState());
+
+        clock.advanceSeconds(0.15);
+        machine.update();
+        assertTrue(machine.isAnonymousState());
+        assertNull(machine.getState());
+        assertNull(machine.getStateEnum());
+        assertTrue(machine.getStateString().startsWith("WaitState"));
+
+        machine.update(); // enters the wait state and starts its timer
+        clock.advanceSeconds(0.25);
+        machine.update();
+        assertEquals(S.B, machine.getState());
+        assertFalse(machine.isAnonymousState());
+    }
+
+    @Test
+    public void concurrentMachineReportsAnonymousStates() {
+        ConcurrentStateMachine machine = new ConcurrentStateMachine(definition(), clock);
+        machine.start();
+        machine.update();
+        clock.advanceSeconds(0.15);
+        machine.update();
+        assertTrue(machine.isAnonymousState());
+        assertNull(machine.getState());
+
+        machine.update(); // enters the wait state and starts its timer
+        clock.advanceSeconds(0.25);
+        machine.update();
+        assertEquals(S.B, machine.getState());
+        assertFalse(machine.isAnonymousState());
+    }
+
+    @Test
+    public void stringStatesStillThrow() {
+        StateMachine machine = new StateMachineBuilder().state("A").timeSource(clock).build();
+        machine.start();
+        machine.update();
+        try {
+            machine.getState();
+            fail();
+        } catch (StateNotEnumException expected) {
+            // a named state that is not an enum
+        }
+    }
+
+    @Test
+    public void anonymousStatesAreUnboundedAndCannotBeSelected() {
+        StateMachineBuilder builder = new StateMachineBuilder().state(S.A).transitionTimed(0.01);
+        for (int i = 0; i < 100; i++) builder.waitState(0.01);
+        StateMachine machine = builder.state(S.B).timeSource(clock).build();
+        machine.start();
+        for (int tick = 0; tick < 400; tick++) {
+            machine.update();
+            clock.advanceSeconds(0.011);
+        }
+        assertEquals(S.B, machine.getState());
+
+        try {
+            machine.setState("WaitState0");
+            fail();
+        } catch (InvalidStateException expected) {
+            // only linear order leads into an anonymous state
+        }
+    }
+}
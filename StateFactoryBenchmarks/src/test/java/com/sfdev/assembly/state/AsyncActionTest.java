@@ -0,0 +1,139 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks async actions on a synchronous executor: the transition taken on completion or failure, waiting for every action of a
+ * state, and abandoning the actions of a state that is left before they are done.
+ */
+public class AsyncActionTest {
+    private enum E { CANCEL }
+
+    private static final Executor SYNCHRONOUS = Runnable::run;
+
+    private final ManualTimeSource clock = new ManualTimeSource();
+    private final List<String> log = new ArrayList<>();
+
+    private StateMachine start(StateMachineBuilder builder) {
+        StateMachine machine = builder.asyncExecutor(SYNCHRONOUS).timeSource(clock).build();
+        machine.start();
+        return machine;
+    }
+
+    @Test
+    public void completedActionTakesTheCompleteTransition() {
+        StateMachine machine = start(new StateMachineBuilder()
+                .state("WORK").onEnterAsync(() -> log.add("work")).onComplete("DONE", () -> log.add("completed")).onFailure("ERROR")
+                .state("ERROR")
+                .state("DONE"));
+        machine.update(); // enters WORK, whose action runs on the calling thread and is done before the transitions are checked
+        assertEquals("DONE", machine.getStateString());
+        assertEquals(Arrays.asList("work", "completed"), log);
+    }
+
+    @Test
+    public void failedActionTakesTheFailureTransition() {
+        StateMachine machine = start(new StateMachineBuilder()
+                .state("WORK").onEnterAsync(() -> { throw new IllegalStateException("broken"); }).onComplete("DONE").onFailure("ERROR")
+                .state("ERROR")
+                .state("DONE"));
+        machine.update();
+        assertEquals("ERROR", machine.getStateString());
+    }
+
+    @Test
+    public void actionThatThrowsWhileStartingCountsAsFailed() {
+        StateMachine machine = start(new StateMachineBuilder()
+                .state("WORK").onEnterAsync(executor -> { throw new IllegalStateException("cannot start"); }).onFailure("ERROR")
+                .state("ERROR"));
+        machine.update();
+        assertEquals("ERROR", machine.getStateString());
+    }
+
+    @Test
+    public void failureWithoutAFailureTransitionLeavesThePolledTransitions() {
+        StateMachine machine = start(new StateMachineBuilder()
+                .state("WORK").onEnterAsync(() -> { throw new IllegalStateException("broken"); }).onComplete("DONE")
+                .transitionTimed(0.5, "TIMEOUT")
+                .state("DONE")
+                .state("TIMEOUT"));
+        machine.update();
+        assertEquals("WORK", machine.getStateString());
+        clock.advanceSeconds(0.6);
+        machine.update();
+        assertEquals("TIMEOUT", machine.getStateString());
+    }
+
+    @Test
+    public void stateWaitsForAllOfItsActions() {
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CompletableFuture<Void> second = new CompletableFuture<>();
+        StateMachine machine = start(new StateMachineBuilder()
+                .state("WORK").onEnterAsync(executor -> first).onEnterAsync(executor -> second).onComplete("DONE")
+                .state("DONE"));
+        machine.update();
+        first.complete(null);
+        machine.update();
+        assertEquals("WORK", machine.getStateString());
+
+        second.complete(null);
+        machine.update();
+        assertEquals("DONE", machine.getStateString());
+    }
+
+    @Test
+    public void outcomeTakesPrecedenceOverPolledConditions() {
+        StateMachine machine = start(new StateMachineBuilder()
+                .state("WORK").onEnterAsync(() -> { }).transition(() -> true, "POLLED").onComplete("DONE")
+                .state("POLLED")
+                .state("DONE"));
+        machine.update();
+        assertEquals("DONE", machine.getStateString());
+    }
+
+    @Test
+    public void leavingTheStateEarlyAbandonsItsActions() {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        StateMachine machine = start(new StateMachineBuilder()
+                .state("WORK").onEnterAsync(executor -> pending).onComplete("DONE").on(E.CANCEL, "IDLE")
+                .state("IDLE").onEnter(() -> log.add("idle"))
+                .state("DONE").onEnter(() -> log.add("done")));
+        machine.update();
+        machine.fire(E.CANCEL);
+        machine.update();
+        assertTrue(pending.isCancelled());
+
+        pending.complete(null); // too late: the outcome of an abandoned action is ignored
+        for (int i = 0; i < 3; i++) machine.update();
+        assertEquals("IDLE", machine.getStateString());
+        assertEquals(Arrays.asList("idle"), log);
+    }
+
+    @Test
+    public void setStateAbandonsTheActionsOfTheStateLeft() {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        StateMachine machine = start(new StateMachineBuilder()
+                .state("WORK").onEnterAsync(executor -> pending).onComplete("DONE")
+                .state("IDLE")
+                .state("DONE"));
+        machine.update();
+        assertFalse(pending.isDone());
+
+        machine.setState("IDLE");
+        assertTrue(pending.isCancelled());
+        machine.update();
+        assertEquals("IDLE", machine.getStateString());
+    }
+}
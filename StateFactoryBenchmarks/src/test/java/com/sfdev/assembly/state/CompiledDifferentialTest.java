@@ -0,0 +1,90 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+import com.sfdev.assembly.transition.TransitionCondition;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs randomly generated definitions built with and without compiled() side by side on the same clock and the same condition
+ * answers, and checks that evaluate() picks the same transition at every step.
+ */
+public class CompiledDifferentialTest {
+    private static final int DEFINITIONS = 500;
+    private static final int STEPS = 400;
+    private static final int CONDITIONS = 6;
+
+    // the answer of every condition at the current step, shared by both machines
+    private final boolean[] answers = new boolean[CONDITIONS];
+
+    /**
+     * Builds a random definition. The shapes are weighted towards the ones TransitionGuard specializes.
+     */
+    private StateMachineBuilder randomBuilder(Random random) {
+        int stateCount = 2 + random.nextInt(5);
+        StateMachineBuilder builder = new StateMachineBuilder();
+        for (int s = 0; s < stateCount; s++) {
+            builder.state("S" + s);
+
+            int shape = random.nextInt(5);
+            int transitions = shape == 2 ? 1 : 1 + random.nextInt(4);
+            for (int t = 0; t < transitions; t++) {
+                String target = "S" + random.nextInt(stateCount);
+                boolean timed = shape == 0 || (shape >= 3 && random.nextBoolean());
+                if (timed) {
+                    builder.transitionTimed(seconds(random), target);
+                } else {
+                    int condition = random.nextInt(CONDITIONS);
+                    TransitionCondition answer = () -> answers[condition];
+                    builder.transition(answer, target);
+                }
+            }
+
+            if (shape == 0 && random.nextBoolean() || shape == 4) builder.minimumTransitionTimed(seconds(random));
+            if (shape >= 3 && random.nextBoolean()) builder.minimumTransitionTimed(seconds(random), 1 + random.nextInt(transitions)); // transitions are numbered from 1
+        }
+        return builder;
+    }
+
+    private static double seconds(Random random) {
+        return random.nextInt(20) * 0.01;
+    }
+
+    @Test
+    public void compiledDefinitionsPickTheSameTransitions() {
+        for (int d = 0; d < DEFINITIONS; d++) {
+            long seed = 0x5F0D17L * 31 + d;
+            ManualTimeSource clock = new ManualTimeSource();
+            StateMachine interpreted = randomBuilder(new Random(seed)).timeSource(clock).build();
+            StateMachine compiled = randomBuilder(new Random(seed)).compiled().timeSource(clock).build();
+            interpreted.start();
+            compiled.start();
+
+            Random steps = new Random(seed ^ 0xC0FFEE);
+            for (int step = 0; step < STEPS; step++) {
+                for (int c = 0; c < CONDITIONS; c++) answers[c] = steps.nextInt(4) == 0;
+                clock.advance(steps.nextInt(30) * 1_000_000L);
+                long now = clock.nanoTime();
+
+                String where = "definition " + d + " step " + step;
+                assertEquals(where, interpreted.getStateIndex(), compiled.getStateIndex());
+                int expected = step(interpreted, now);
+                assertEquals(where, expected, step(compiled, now));
+            }
+        }
+    }
+
+    /**
+     * Runs the phases of an update and returns the transition evaluate() picked.
+     */
+    private static int step(StateMachine machine, long now) {
+        machine.begin(now);
+        int t = machine.evaluate(now);
+        if (t != StateMachine.NO_TRANSITION) machine.commit(t, now);
+        return t;
+    }
+}
@@ -0,0 +1,93 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks composite states: that the child machine is only created once its state is entered, starts over on every entry,
+ * and that exits run from the innermost machine outwards.
+ */
+public class CompositeStateTest {
+    private enum E { LEAVE }
+
+    private final ManualTimeSource clock = new ManualTimeSource();
+    private final List<String> log = new ArrayList<>();
+
+    private StateMachineDefinition child() {
+        return new StateMachineBuilder()
+                .state("C1").onEnter(() -> log.add("enterC1")).onExit(() -> log.add("exitC1")).transitionTimed(0.1)
+                .state("C2").onEnter(() -> log.add("enterC2")).onExit(() -> log.add("exitC2"))
+                .buildDefinition();
+    }
+
+    @Test
+    public void childIsCreatedWhenItsStateIsEnteredAndStartsOverOnEveryEntry() {
+        StateMachine machine = new StateMachineBuilder()
+                .state("IDLE").on(E.LEAVE, "BUSY")
+                .state("BUSY").subMachine(child()).on(E.LEAVE, "IDLE")
+                .timeSource(clock)
+                .build();
+        machine.start();
+        machine.update();
+        assertEquals(0, machine.getRegionCount());
+        assertTrue(log.isEmpty());
+
+        machine.fire(E.LEAVE);
+        machine.update();
+        assertEquals(0, machine.getRegionCount()); // BUSY is entered by the next update
+        machine.update();
+        assertEquals(1, machine.getRegionCount());
+        StateMachine first = machine.getRegion(0);
+        assertEquals("C1", first.getStateString());
+
+        clock.advanceSeconds(0.2);
+        machine.update();
+        machine.update();
+        assertEquals("C2", first.getStateString());
+
+        machine.fire(E.LEAVE);
+        machine.update();
+        assertEquals(0, machine.getRegionCount());
+
+        machine.fire(E.LEAVE);
+        machine.update();
+        machine.update();
+        assertNotSame(first, machine.getRegion(0));
+        assertEquals("C1", machine.getRegion(0).getStateString());
+        assertEquals(Arrays.asList("enterC1", "exitC1", "enterC2", "exitC2", "enterC1"), log);
+    }
+
+    @Test
+    public void exitsRunFromTheInnermostMachineOutwards() {
+        StateMachineDefinition inner = new StateMachineBuilder()
+                .state("INNER").onEnter(() -> log.add("enterInner")).onExit(() -> log.add("exitInner"))
+                .buildDefinition();
+        StateMachineDefinition middle = new StateMachineBuilder()
+                .state("MIDDLE").onEnter(() -> log.add("enterMiddle")).onExit(() -> log.add("exitMiddle")).subMachine(inner)
+                .buildDefinition();
+        StateMachine machine = new StateMachineBuilder()
+                .state("OUTER").onEnter(() -> log.add("enterOuter")).onExit(() -> log.add("exitOuter")).subMachine(middle)
+                .on(E.LEAVE, "DONE", () -> log.add("leave"))
+                .state("DONE")
+                .timeSource(clock)
+                .build();
+        machine.start();
+        for (int i = 0; i < 3; i++) machine.update();
+        assertEquals(Arrays.asList("enterOuter", "enterMiddle", "enterInner"), log);
+
+        log.clear();
+        machine.fire(E.LEAVE);
+        machine.update();
+        assertEquals(Arrays.asList("exitInner", "exitMiddle", "leave", "exitOuter"), log);
+        assertEquals("DONE", machine.getStateString());
+    }
+}
@@ -0,0 +1,128 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks event transitions: that a state is entered before an event can move the machine out of it, lookup by id, which of two
+ * transitions for one event wins, the hand-off of unhandled events to child machines, and the bound of the event queue.
+ */
+public class EventTransitionTest {
+    private enum S { A, B, C }
+    private enum E { GO, NEXT, CHILD, UNUSED }
+
+    private final ManualTimeSource clock = new ManualTimeSource();
+    private final List<String> log = new ArrayList<>();
+
+    private StateMachine chain() {
+        StateMachine machine = new StateMachineBuilder()
+                .state(S.A).onEnter(() -> log.add("enterA")).onExit(() -> log.add("exitA")).on(E.GO, S.B)
+                .state(S.B).onEnter(() -> log.add("enterB")).onExit(() -> log.add("exitB")).on(E.NEXT, S.C)
+                .state(S.C).onEnter(() -> log.add("enterC"))
+                .timeSource(clock)
+                .build();
+        machine.start();
+        return machine;
+    }
+
+    @Test
+    public void eventBeforeTheFirstUpdateLeavesTheFirstStateAfterEnteringIt() {
+        StateMachine machine = chain();
+        machine.fire(E.GO);
+        machine.update();
+        assertEquals(Arrays.asList("enterA", "exitA"), log);
+        assertEquals(S.B, machine.getState());
+
+        machine.update();
+        assertEquals(Arrays.asList("enterA", "exitA", "enterB"), log);
+    }
+
+    @Test
+    public void eventIntoAStateNotYetEnteredKeepsEnterAndExitPaired() {
+        StateMachine machine = chain();
+        machine.update();
+        machine.fire(E.GO);
+        machine.update(); // leaves A for B, which is entered by the next update
+        machine.fire(E.NEXT);
+        machine.update();
+        machine.update();
+        assertEquals(Arrays.asList("enterA", "exitA", "enterB", "exitB", "enterC"), log);
+    }
+
+    @Test
+    public void eventsQueuedTogetherEnterEveryStateOnAnUpdateOfItsOwn() {
+        StateMachine machine = chain();
+        machine.fire(E.GO);
+        machine.fire(E.NEXT);
+        for (int i = 0; i < 4; i++) machine.update();
+        assertEquals(Arrays.asList("enterA", "exitA", "enterB", "exitB", "enterC"), log);
+    }
+
+    @Test
+    public void firingByIdMatchesFiringByEnum() {
+        StateMachine machine = chain();
+        StateMachineDefinition definition = machine.getDefinition();
+        assertEquals(-1, definition.eventId(E.UNUSED));
+        assertFalse(machine.fire(E.UNUSED));
+
+        assertTrue(machine.fire(definition.eventId(E.GO)));
+        machine.update();
+        assertEquals(S.B, machine.getState());
+    }
+
+    @Test
+    public void firstDeclaredTransitionForAnEventWins() {
+        StateMachine machine = new StateMachineBuilder()
+                .state(S.A).on(E.GO, S.B).on(E.GO, S.C, () -> log.add("second"))
+                .state(S.B)
+                .state(S.C)
+                .timeSource(clock)
+                .build();
+        machine.start();
+        machine.fire(E.GO);
+        machine.update();
+        assertEquals(S.B, machine.getState());
+        assertTrue(log.isEmpty());
+    }
+
+    @Test
+    public void unhandledEventsArePassedOnToTheChildMachine() {
+        StateMachineDefinition child = new StateMachineBuilder()
+                .state("IN").onExit(() -> log.add("exitIN")).on(E.CHILD, "OUT")
+                .state("OUT").onEnter(() -> log.add("enterOUT"))
+                .buildDefinition();
+        StateMachine machine = new StateMachineBuilder()
+                .state(S.A).subMachine(child).on(E.GO, S.B)
+                .state(S.B)
+                .timeSource(clock)
+                .build();
+        machine.start();
+        machine.update();
+
+        machine.fire(E.CHILD);
+        machine.update(); // the parent passes the event on; the child handles it on its own update
+        machine.update();
+        machine.update();
+        assertEquals(S.A, machine.getState());
+        assertEquals(Arrays.asList("exitIN", "enterOUT"), log);
+    }
+
+    @Test
+    public void fullEventQueueRefusesEvents() {
+        StateMachine machine = chain();
+        for (int i = 0; i < StateMachine.EVENT_QUEUE_CAPACITY; i++) assertTrue(machine.fire(E.GO));
+        assertFalse(machine.fire(E.GO));
+
+        machine.update();
+        assertTrue(machine.fire(E.GO)); // handling one event made room for another
+    }
+}
@@ -0,0 +1,60 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that StateMachineMetrics counts the condition calls the machine actually makes, with and without compiled guards.
+ */
+public class MetricsConditionChecksTest {
+    private enum S { A, B }
+
+    private int calls;
+    private boolean ready;
+
+    private StateMachine machine(ManualTimeSource clock, boolean compiled) {
+        StateMachineBuilder builder = new StateMachineBuilder()
+                .state(S.A)
+                    .transition(() -> { calls++; return ready; }, S.B)
+                    .transitionTimed(5, S.B)
+                    .transition(() -> { calls++; return false; }, S.B)
+                    .minimumTransitionTimed(1)
+                .state(S.B)
+                .timeSource(clock)
+                .withMetrics();
+        if (compiled) builder.compiled();
+        return builder.build();
+    }
+
+    private void countsTheCallsMade(boolean compiled) {
+        ManualTimeSource clock = new ManualTimeSource();
+        StateMachine machine = machine(clock, compiled);
+        machine.start();
+
+        machine.update(); // before the minimum, nothing is polled
+        assertEquals(0, calls);
+        clock.advanceSeconds(2);
+        machine.update(); // both polled transitions, the timed one in between is no call
+        machine.update();
+        assertEquals(4, calls);
+
+        ready = true;
+        machine.update(); // the first transition fires
+        assertEquals(5, calls);
+        assertEquals(S.B, machine.getState());
+        assertEquals(calls, machine.getMetrics().getConditionChecks("A"));
+    }
+
+    @Test
+    public void countsTheCallsMade() {
+        countsTheCallsMade(false);
+    }
+
+    @Test
+    public void countsTheCallsMadeWhenCompiled() {
+        countsTheCallsMade(true);
+    }
+}
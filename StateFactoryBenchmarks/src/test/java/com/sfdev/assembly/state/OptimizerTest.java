@@ -0,0 +1,121 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the rewrites of StateMachineBuilder.optimize(): that they run every action in the same order as the definition they
+ * came from, that they are reported, and that failsafe and kept states survive them.
+ */
+public class OptimizerTest {
+    private final List<String> log = new ArrayList<>();
+
+    private StateMachineBuilder builder() {
+        return new StateMachineBuilder()
+                .state("A").onEnter(() -> log.add("+A")).onExit(() -> log.add("-A")).transitionTimed(0.1, "P1", () -> log.add("xA"))
+                .state("P1").transitionTimed(0) // a pass-through chain
+                .state("P2").transitionTimed(0)
+                .waitState(0.2).waitState(0.3).waitState(0.5, "B") // anonymous waits, fused into one
+                .state("DEAD").onEnter(() -> log.add("DEAD")).transitionTimed(1)
+                .state("B").onEnter(() -> log.add("+B")).transitionTimed(0.05, "W1")
+                .state("W1").transitionTimed(0.2)
+                .state("W2").transitionTimed(0.2, "C")
+                .state("C").onEnter(() -> log.add("+C")).transitionTimed(0.1, "X")
+                .state("W3").transitionTimed(0.2) // X is not its linear predecessor, so W3 takes in its anonymous wait before X takes in W3
+                .waitState(0.3, "END")
+                .state("END").onEnter(() -> log.add("+END"))
+                .state("X").transitionTimed(0.1, "W3")
+                .state("RECOVER", true).onEnter(() -> log.add("+RECOVER")).transitionTimed(0.1, "A");
+    }
+
+    /**
+     * Runs a machine for six seconds in steps of 10ms.
+     * @return Returns the log of the run.
+     */
+    private List<String> run(StateMachineDefinition definition) {
+        log.clear();
+        ManualTimeSource clock = new ManualTimeSource();
+        StateMachine machine = definition.newInstance(clock);
+        machine.start();
+        for (int tick = 0; tick < 600; tick++) {
+            machine.update();
+            clock.advanceSeconds(0.01);
+        }
+        log.add("end " + machine.getStateString());
+        return new ArrayList<>(log);
+    }
+
+    @Test
+    public void optimizedMachineRunsTheSameActionsInOrder() {
+        List<String> plain = run(builder().buildDefinition());
+        StateMachineDefinition optimized = builder().optimize().buildDefinition();
+        assertEquals(plain, run(optimized));
+        assertTrue(optimized.getStateCount() < builder().buildDefinition().getStateCount());
+    }
+
+    @Test
+    public void rewritesAreReported() {
+        OptimizationReport report = builder().optimize().buildDefinition().getOptimizationReport();
+        assertNull(report.getSkipReason());
+        assertEquals(Collections.singletonList("DEAD"), report.getUnreachableStates());
+        assertTrue(report.getFusedStates().containsAll(Arrays.asList(
+                "P2 into P1", "WaitState0 into P1", "WaitState1 into P1", "WaitState2 into P1", "W2 into W1")));
+        List<String> fused = report.getFusedStates();
+        assertTrue(fused.indexOf("WaitState3 into W3") >= 0);
+        assertTrue(fused.indexOf("WaitState3 into W3") < fused.indexOf("W3 into X"));
+
+        List<String> removed = report.getRemovedStates();
+        assertEquals(report.getStatesBefore() - report.getStatesAfter(), removed.size());
+        assertTrue(removed.containsAll(Arrays.asList("DEAD", "P2", "W2")));
+    }
+
+    @Test
+    public void failsafeStatesStayReachableThroughSetState() {
+        StateMachineDefinition optimized = builder().optimize().buildDefinition();
+        assertFalse(optimized.getOptimizationReport().getRemovedStates().contains("RECOVER"));
+
+        StateMachine machine = optimized.newInstance(new ManualTimeSource());
+        machine.start();
+        machine.update();
+        machine.setState("RECOVER");
+        machine.update();
+        assertEquals("RECOVER", machine.getStateString());
+    }
+
+    @Test
+    public void keptStatesAreNeitherRemovedNorSkipped() {
+        StateMachineDefinition optimized = builder().keepStates("DEAD", "P2", "W2").optimize().buildDefinition();
+        List<String> removed = optimized.getOptimizationReport().getRemovedStates();
+        assertFalse(removed.contains("DEAD"));
+        assertFalse(removed.contains("P2"));
+        assertFalse(removed.contains("W2"));
+        assertEquals(run(builder().buildDefinition()), run(optimized));
+
+        ManualTimeSource clock = new ManualTimeSource();
+        StateMachine machine = optimized.newInstance(clock);
+        machine.start();
+        machine.update();
+        machine.setState("DEAD");
+        machine.update();
+        assertEquals("DEAD", machine.getStateString());
+        clock.advanceSeconds(1.5);
+        machine.update();
+        assertEquals("B", machine.getStateString()); // DEAD kept its transition
+    }
+
+    @Test(expected = InvalidStateException.class)
+    public void keepingAnUnknownStateFails() {
+        builder().keepStates("NOPE").optimize().buildDefinition();
+    }
+}
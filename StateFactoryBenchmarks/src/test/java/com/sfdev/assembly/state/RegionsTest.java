@@ -0,0 +1,99 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the regions of a composite state give the same result whether they are updated one after another or concurrently
+ * on a region pool, and that they exit in region order.
+ */
+public class RegionsTest {
+    private enum E { PING, STOP }
+
+    private static final int REGIONS = 4;
+
+    /**
+     * The log of one run: the enter and exit actions of every machine in the order they ran, which a region pool must not change,
+     * and the loop count and final state of every region.
+     */
+    private static final class Run {
+        final List<String> actions = new ArrayList<>();
+        final int[] loops = new int[REGIONS];
+        final List<String> finalStates = new ArrayList<>();
+    }
+
+    /**
+     * Builds region r, which cycles through its states at its own pace and reacts to events passed on by the parent.
+     */
+    private static StateMachineDefinition region(int r, Run run) {
+        double step = 0.01 * (r + 1);
+        return new StateMachineBuilder()
+                .state("R" + r + "A").onEnter(() -> run.actions.add(r + ":enterA")).onExit(() -> run.actions.add(r + ":exitA"))
+                .loop(() -> run.loops[r]++).transitionTimed(step).on(E.PING, "R" + r + "C")
+                .state("R" + r + "B").onEnter(() -> run.actions.add(r + ":enterB")).onExit(() -> run.actions.add(r + ":exitB"))
+                .loop(() -> run.loops[r]++).transition(() -> run.loops[r] % (r + 2) == 0)
+                .state("R" + r + "C").onEnter(() -> run.actions.add(r + ":enterC")).onExit(() -> run.actions.add(r + ":exitC"))
+                .transitionTimed(step * 2, "R" + r + "A")
+                .buildDefinition();
+    }
+
+    private static Run run(ForkJoinPool pool) {
+        Run run = new Run();
+        StateMachineDefinition[] regions = new StateMachineDefinition[REGIONS];
+        for (int r = 0; r < REGIONS; r++) regions[r] = region(r, run);
+
+        ManualTimeSource clock = new ManualTimeSource();
+        StateMachine machine = new StateMachineBuilder()
+                .state("PARENT").onEnter(() -> run.actions.add("enterParent")).onExit(() -> run.actions.add("exitParent"))
+                .regions(regions).on(E.STOP, "DONE")
+                .state("DONE")
+                .timeSource(clock)
+                .regionPool(pool)
+                .build();
+        machine.start();
+
+        for (int tick = 0; tick < 300; tick++) {
+            if (tick % 37 == 0) machine.fire(E.PING);
+            machine.update();
+            clock.advanceSeconds(0.004);
+        }
+        for (int r = 0; r < REGIONS; r++) run.finalStates.add(machine.getRegion(r).getStateString());
+
+        machine.fire(E.STOP);
+        machine.update();
+        assertEquals("DONE", machine.getStateString());
+        return run;
+    }
+
+    @Test
+    public void regionPoolGivesTheSameResultAsSerialUpdates() {
+        Run serial = run(null);
+        ForkJoinPool pool = new ForkJoinPool(REGIONS);
+        try {
+            for (int attempt = 0; attempt < 5; attempt++) {
+                Run parallel = run(pool);
+                assertEquals(serial.actions, parallel.actions);
+                assertEquals(Arrays.toString(serial.loops), Arrays.toString(parallel.loops));
+                assertEquals(serial.finalStates, parallel.finalStates);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void regionsExitInRegionOrderBeforeTheirParent() {
+        Run run = run(null);
+        List<String> exits = run.actions.subList(run.actions.size() - REGIONS - 1, run.actions.size());
+        for (int r = 0; r < REGIONS; r++) assertEquals(String.valueOf(r), exits.get(r).substring(0, exits.get(r).indexOf(':')));
+        assertEquals("exitParent", exits.get(REGIONS));
+    }
+}
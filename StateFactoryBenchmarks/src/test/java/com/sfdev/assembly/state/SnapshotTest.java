@@ -0,0 +1,145 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a restored snapshot runs on exactly like the machine it was taken from, and that damaged snapshots are rejected
+ * without touching the machine.
+ */
+public class SnapshotTest {
+    private enum S { P, Q }
+    private enum C { X, Y }
+
+    private ManualTimeSource clock;
+    private StateMachineDefinition definition;
+    private int timedRuns;
+
+    @Before
+    public void setUp() {
+        clock = new ManualTimeSource();
+        StateMachineDefinition child = new StateMachineBuilder()
+                .state(C.X).transitionTimed(0.3)
+                .state(C.Y).transitionTimed(0.3, C.X)
+                .buildDefinition();
+        definition = new StateMachineBuilder()
+                .state(S.P).regions(child).afterTime(0.5, () -> timedRuns++).afterTime(1.5, () -> timedRuns++).transitionTimed(2)
+                .state(S.Q).transitionTimed(1, S.P)
+                .buildDefinition();
+    }
+
+    /**
+     * @return Returns a machine that has run for 0.7 seconds, in the composite state with its first timed action done.
+     */
+    private StateMachine running() {
+        StateMachine machine = new StateMachine(definition, clock);
+        machine.start();
+        for (int i = 0; i < 8; i++) {
+            machine.update();
+            clock.advanceSeconds(0.1);
+        }
+        return machine;
+    }
+
+    @Test
+    public void restoredMachineRunsOnInLockstep() {
+        StateMachine original = running();
+        assertEquals(1, timedRuns);
+        assertEquals(1, original.getRegionCount());
+
+        StateMachine restored = new StateMachine(definition, clock);
+        StateMachineSnapshot.fromBytes(restored, StateMachineSnapshot.toBytes(original));
+        assertEquals(original.getStateIndex(), restored.getStateIndex());
+        assertEquals(original.getRegion(0).getStateIndex(), restored.getRegion(0).getStateIndex());
+
+        int runsBefore = timedRuns;
+        for (int i = 0; i < 60; i++) {
+            clock.advanceSeconds(0.1);
+            original.update();
+            restored.update();
+            assertArrayEquals("step " + i, StateMachineSnapshot.toBytes(original), StateMachineSnapshot.toBytes(restored));
+        }
+        assertTrue(timedRuns > runsBefore);
+        assertEquals(0, (timedRuns - runsBefore) % 2); // every timed action ran on both machines
+    }
+
+    @Test
+    public void snapshotSurvivesAFile() throws IOException {
+        StateMachine original = running();
+        File file = File.createTempFile("snapshot", ".sfsn");
+        try {
+            StateMachineSnapshot.write(original, file);
+            StateMachine restored = new StateMachine(definition, clock);
+            StateMachineSnapshot.read(restored, file);
+            assertArrayEquals(StateMachineSnapshot.toBytes(original), StateMachineSnapshot.toBytes(restored));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void snapshotOfAnotherDefinitionIsRejected() {
+        StateMachine other = new StateMachineBuilder()
+                .state(S.P).transitionTimed(2)
+                .state(S.Q).transitionTimed(1, S.P)
+                .timeSource(clock)
+                .build();
+        other.start();
+        other.update();
+
+        assertRejected(running(), StateMachineSnapshot.toBytes(other));
+    }
+
+    @Test
+    public void truncatedSnapshotsAreRejected() {
+        byte[] snapshot = StateMachineSnapshot.toBytes(running());
+        for (int length = 0; length < snapshot.length; length++) {
+            assertRejected(running(), Arrays.copyOf(snapshot, length));
+        }
+    }
+
+    @Test
+    public void damagedSnapshotsAreRejectedOrRestoreCleanly() {
+        byte[] snapshot = StateMachineSnapshot.toBytes(running());
+        int rejected = 0;
+        for (int position = 0; position < snapshot.length; position++) {
+            for (int damage : new int[] { 0x01, 0x80, 0xFF }) {
+                byte[] damaged = snapshot.clone();
+                damaged[position] ^= damage;
+
+                StateMachine machine = running();
+                byte[] before = StateMachineSnapshot.toBytes(machine);
+                try {
+                    machine.restore(ByteBuffer.wrap(damaged));
+                    machine.update(); // whatever was accepted must still run
+                } catch (IllegalArgumentException e) {
+                    assertArrayEquals("damage at " + position, before, StateMachineSnapshot.toBytes(machine));
+                    rejected++;
+                }
+            }
+        }
+        assertTrue(rejected > 0);
+    }
+
+    private void assertRejected(StateMachine machine, byte[] snapshot) {
+        byte[] before = StateMachineSnapshot.toBytes(machine);
+        try {
+            StateMachineSnapshot.fromBytes(machine, snapshot);
+            fail("restored a damaged snapshot of " + snapshot.length + " bytes");
+        } catch (IllegalArgumentException expected) {
+            assertArrayEquals(before, StateMachineSnapshot.toBytes(machine));
+        }
+    }
+}
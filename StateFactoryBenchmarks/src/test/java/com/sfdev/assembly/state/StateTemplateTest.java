@@ -0,0 +1,81 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that states made from one template share its lists until they change them: a change to one of them reaches neither the
+ * template nor its siblings, and the siblings that did not change still share their compiled arrays.
+ */
+public class StateTemplateTest {
+    private final ManualTimeSource clock = new ManualTimeSource();
+    private final List<String> log = new ArrayList<>();
+    private boolean go;
+
+    private StateMachineBuilder templateBuilder() {
+        return new StateMachineBuilder()
+                .onEnter(() -> log.add("enter")).onExit(() -> log.add("exit")).transition(() -> go);
+    }
+
+    @Test
+    public void changingOneStateLeavesTheTemplateAndItsSiblingsAlone() {
+        State template = templateBuilder().buildStateTemplate();
+        StateMachineDefinition definition = new StateMachineBuilder()
+                .stateTemplate("A", template).onEnter(() -> log.add("enterA")).minimumTransitionTimed(1, 1)
+                .stateTemplate("B", template)
+                .stateTemplate("C", template)
+                .state("END")
+                .buildDefinition();
+
+        assertEquals(1, template.getEnterActions().size());
+        assertNull(template.getTransitions().get(0).getMinimumTransition());
+
+        CompiledState a = definition.states[0];
+        CompiledState b = definition.states[1];
+        CompiledState c = definition.states[2];
+        assertEquals(2, a.enterActions.length);
+        assertNotSame(a.enterActions, b.enterActions);
+        assertSame(b.enterActions, c.enterActions);
+        assertSame(a.exitActions, b.exitActions);
+        assertSame(b.exitActions, c.exitActions);
+
+        StateMachine machine = definition.newInstance(clock);
+        machine.start();
+        go = true;
+        machine.update();
+        assertEquals("A", machine.getStateString()); // only A waits a second before it may leave
+        clock.advanceSeconds(1.1);
+        machine.update();
+        assertEquals("B", machine.getStateString());
+        machine.update();
+        assertEquals("C", machine.getStateString());
+        machine.update();
+        assertEquals("END", machine.getStateString());
+        assertEquals(Arrays.asList("enter", "enterA", "exit", "enter", "exit", "enter", "exit"), log);
+    }
+
+    @Test
+    public void changingTheTemplateLeavesTheStatesAlreadyMadeFromIt() {
+        StateMachineBuilder templateBuilder = templateBuilder();
+        State template = templateBuilder.buildStateTemplate();
+        StateMachineBuilder builder = new StateMachineBuilder().stateTemplate("A", template);
+        templateBuilder.onEnter(() -> log.add("late")).transitionTimed(5);
+        StateMachineDefinition definition = builder.stateTemplate("B", template).buildDefinition();
+
+        assertEquals(1, definition.states[0].enterActions.length);
+        assertEquals(1, definition.states[0].conditions.length);
+        assertEquals(2, definition.states[1].enterActions.length);
+        assertEquals(2, definition.states[1].conditions.length);
+        assertSame(definition.states[0].exitActions, definition.states[1].exitActions);
+    }
+}
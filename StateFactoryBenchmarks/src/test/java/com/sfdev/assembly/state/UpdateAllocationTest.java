@@ -0,0 +1,78 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that StateMachine.update() allocates nothing once the machine has warmed up, using the allocated-bytes counter of the thread.
+ */
+public class UpdateAllocationTest {
+    private enum S { A, B, C }
+    private enum E { GO }
+
+    private int counter;
+
+    /**
+     * @return Returns the fewest bytes the current thread allocated over a few rounds of running the action, or 0 if the JVM cannot tell.
+     */
+    private static long allocatedBytes(Runnable action, int iterations) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return 0;
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadAllocatedMemorySupported()) return 0;
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < iterations * 2; i++) action.run(); // warm up, so the JIT has compiled the path
+
+        long fewest = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long before = bean.getThreadAllocatedBytes(id);
+            for (int i = 0; i < iterations; i++) action.run();
+            long after = bean.getThreadAllocatedBytes(id);
+            long overhead = bean.getThreadAllocatedBytes(id) - after; // what reading the counter costs
+            fewest = Math.min(fewest, after - before - overhead);
+        }
+        return fewest;
+    }
+
+    @Test
+    public void steadyStateUpdateAllocatesNothing() {
+        StateMachine machine = new StateMachineBuilder()
+                .state(S.A).onEnter(() -> counter++).loop(() -> counter++).afterTime(1000, () -> counter++).afterTime(0.0, () -> counter++)
+                    .transition(() -> counter < 0, S.C).transitionTimed(1000, S.B).minimumTransitionTimed(0.0)
+                .state(S.B)
+                .state(S.C)
+                .build();
+        machine.start();
+
+        assertEquals(0, allocatedBytes(machine::update, 100000));
+        assertEquals(S.A, machine.getState());
+    }
+
+    @Test
+    public void transitioningUpdateAllocatesNothing() {
+        ManualTimeSource clock = new ManualTimeSource();
+        StateMachine machine = new StateMachineBuilder()
+                .state(S.A).onEnter(() -> counter++).onExit(() -> counter++).transitionTimed(0.001)
+                .state(S.B).on(E.GO, S.C).transition(() -> counter % 2 == 0, S.C)
+                .state(S.C).afterTime(0.0005, () -> counter++).transitionTimed(0.002, S.A)
+                .timeSource(clock)
+                .build();
+        machine.start();
+
+        long transitionsBefore = counter;
+        assertEquals(0, allocatedBytes(() -> {
+            machine.fire(E.GO);
+            machine.update();
+            clock.advance(500_000);
+        }, 50000));
+        assertTrue("the machine kept moving through its states", counter - transitionsBefore > 1000);
+    }
+}
@@ -0,0 +1,69 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.recorder.FlightRecorder;
+import com.sfdev.assembly.recorder.FlightRecording;
+import com.sfdev.assembly.timing.TimeSource;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that an update reads the clock once, and that transitions are recorded at that reading.
+ */
+public class UpdateClockTest {
+    private enum S { A, B }
+    private enum E { GO }
+
+    /**
+     * A clock that moves on by a millisecond every time it is read.
+     */
+    private static final class CountingClock implements TimeSource {
+        long time = 1_000_000_000L;
+        int reads;
+
+        @Override
+        public long nanoTime() {
+            reads++;
+            return time += 1_000_000;
+        }
+    }
+
+    @Test
+    public void transitioningUpdateReadsTheClockOnce() throws IOException {
+        CountingClock clock = new CountingClock();
+        StateMachine machine = new StateMachineBuilder()
+                .state(S.A).on(E.GO, S.B).transitionTimed(0.0015)
+                .state(S.B).transitionTimed(0.0015, S.A)
+                .timeSource(clock)
+                .flightRecorder(16)
+                .withMetrics()
+                .build();
+        machine.start();
+
+        Set<Long> updateTimes = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            if (i % 3 == 0) machine.fire(E.GO);
+            updateTimes.add(clock.time + 1_000_000);
+            int reads = clock.reads;
+            machine.update();
+            assertEquals(reads + 1, clock.reads);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        machine.dumpFlightRecorder(out);
+        FlightRecording recording = FlightRecording.read(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(recording.size() > 2);
+        for (int record = 0; record < recording.size(); record++) {
+            assertTrue(updateTimes.contains(recording.getTime(record)));
+            assertTrue(recording.getCause(record) != FlightRecorder.SET_STATE);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.sfdev.assembly.timing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a TimerWheel expires every timeout in deadline order, never early and at most one resolution late, across its levels,
+ * beyond its top level, and after cancelling or rescheduling.
+ */
+public class TimerWheelTest {
+    private final List<Long> expired = new ArrayList<>();
+
+    /**
+     * Records the deadline it was scheduled for when it expires, and fails if that was early.
+     */
+    private final class Recording extends TimerWheel.Timeout {
+        @Override
+        protected void expire(long now) {
+            assertTrue("expired early", getDeadline() <= now);
+            expired.add(getDeadline());
+        }
+    }
+
+    @Test
+    public void deadlinesOnEveryLevelExpireInOrderAndOnTime() {
+        // with a one nanosecond resolution, level n holds deadlines up to 64^(n + 1) ticks away
+        long[] deadlines = {3, 63, 64, 65, 4_095, 4_097, 300_000, 20_000_000, 1_500_000_000L, 90_000_000_000L, 1L << 40, 1L << 46};
+        TimerWheel wheel = new TimerWheel(1, 0);
+        List<Long> shuffled = new ArrayList<>();
+        for (long deadline : deadlines) shuffled.add(deadline);
+        Collections.shuffle(shuffled, new Random(7));
+        for (long deadline : shuffled) wheel.schedule(new Recording(), deadline);
+        assertEquals(deadlines.length, wheel.size());
+
+        for (int i = 0; i < deadlines.length; i++) {
+            assertEquals(0, wheel.advance(deadlines[i] - 1));
+            assertEquals(deadlines[i] - (deadlines[i] - 1), wheel.nanosUntilNextDeadline(deadlines[i] - 1));
+            assertEquals(1, wheel.advance(deadlines[i]));
+        }
+        List<Long> expected = new ArrayList<>();
+        for (long deadline : deadlines) expected.add(deadline);
+        assertEquals(expected, expired);
+        assertEquals(0, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.nanosUntilNextDeadline(1L << 47));
+    }
+
+    @Test
+    public void deadlineBeyondTheTopLevelIsParkedAndExpiresOnTime() {
+        long far = (1L << 50) + 12_345;
+        TimerWheel wheel = new TimerWheel(1, 0);
+        Recording timeout = new Recording();
+        wheel.schedule(timeout, far);
+        wheel.schedule(new Recording(), 10);
+
+        assertEquals(1, wheel.advance(1L << 49));
+        assertEquals(0, wheel.advance(far - 1));
+        assertTrue(timeout.isScheduled());
+        assertEquals(1, wheel.advance(far));
+        assertEquals(Arrays.asList(10L, far), expired);
+    }
+
+    @Test
+    public void randomDeadlinesNeverExpireEarlyOrLate() {
+        Random random = new Random(42);
+        TimerWheel wheel = new TimerWheel(1, 0);
+        List<Long> pending = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            long deadline = 1 + (random.nextLong() >>> (1 + random.nextInt(40)));
+            pending.add(deadline);
+            wheel.schedule(new Recording(), deadline);
+        }
+        Collections.sort(pending);
+
+        long now = 0;
+        int done = 0;
+        while (done < pending.size()) {
+            now += 1 + (random.nextLong() >>> (1 + random.nextInt(40)));
+            wheel.advance(now);
+            while (done < pending.size() && pending.get(done) <= now) done++;
+            assertEquals("every deadline up to " + now, done, expired.size());
+        }
+        List<Long> sorted = new ArrayList<>(expired);
+        Collections.sort(sorted);
+        assertEquals(pending, sorted);
+    }
+
+    @Test
+    public void cancelledTimeoutNeverExpires() {
+        TimerWheel wheel = new TimerWheel(1, 0);
+        Recording cancelled = new Recording();
+        wheel.schedule(cancelled, 5_000);
+        wheel.schedule(new Recording(), 6_000);
+        wheel.cancel(cancelled);
+        assertFalse(cancelled.isScheduled());
+        assertEquals(1, wheel.size());
+
+        wheel.advance(10_000);
+        assertEquals(Collections.singletonList(6_000L), expired);
+        wheel.cancel(cancelled); // cancelling twice has no effect
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void reschedulingMovesTheTimeout() {
+        TimerWheel wheel = new TimerWheel(1, 0);
+        Recording timeout = new Recording();
+        wheel.schedule(timeout, 100_000);
+        wheel.schedule(timeout, 50);
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(50));
+
+        wheel.schedule(timeout, 100_000);
+        wheel.schedule(timeout, 200_000);
+        assertEquals(0, wheel.advance(150_000));
+        assertEquals(1, wheel.advance(200_000));
+        assertEquals(Arrays.asList(50L, 200_000L), expired);
+    }
+
+    @Test
+    public void timeoutCanRescheduleItselfWhenItExpires() {
+        TimerWheel wheel = new TimerWheel(1, 0);
+        int[] runs = {0};
+        TimerWheel.Timeout periodic = new TimerWheel.Timeout() {
+            @Override
+            protected void expire(long now) {
+                if (++runs[0] < 5) wheel.schedule(this, getDeadline() + 1_000);
+            }
+        };
+        wheel.schedule(periodic, 1_000);
+        wheel.advance(10_000);
+        assertEquals(5, runs[0]);
+        assertFalse(periodic.isScheduled());
+    }
+
+    @Test
+    public void deadlinesAreRoundedUpToTheResolution() {
+        long origin = 7_000_000_000L;
+        TimerWheel wheel = new TimerWheel(TimerWheel.DEFAULT_RESOLUTION, origin);
+        wheel.schedule(new Recording(), origin + 1_500_000);
+        assertEquals(1_500_000, wheel.nanosUntilNextDeadline(origin));
+
+        assertEquals(0, wheel.advance(origin + 1_499_999));
+        assertEquals(0, wheel.advance(origin + 1_999_999)); // the deadline's slot starts at 2ms
+        assertEquals(1, wheel.advance(origin + 2_000_000));
+        assertEquals(Collections.singletonList(origin + 1_500_000), expired);
+    }
+}
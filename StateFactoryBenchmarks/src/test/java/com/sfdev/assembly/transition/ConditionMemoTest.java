@@ -0,0 +1,112 @@
+package com.sfdev.assembly.transition;
+
+import com.sfdev.assembly.fleet.StateMachineFleet;
+import com.sfdev.assembly.simulation.Script;
+import com.sfdev.assembly.simulation.Simulation;
+import com.sfdev.assembly.simulation.Timeline;
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineBuilder;
+import com.sfdev.assembly.state.StateMachineDefinition;
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that memoized conditions are evaluated once per cycle and still change their answer from one update to the next,
+ * however the machines are created and driven.
+ */
+public class ConditionMemoTest {
+    private enum S { A, B, C }
+
+    private ConditionMemo memo;
+    private StateMachineDefinition definition;
+    private volatile boolean ready;
+    private int calls;
+
+    @Before
+    public void setUp() {
+        memo = new ConditionMemo();
+        TransitionCondition shared = () -> {
+            calls++;
+            return ready;
+        };
+        definition = new StateMachineBuilder()
+                .state(S.A).transition(shared, S.B).transition(shared, S.C)
+                .state(S.B).transition(() -> !ready, S.A)
+                .state(S.C)
+                .memoizeConditions(memo)
+                .buildDefinition();
+    }
+
+    @Test
+    public void newInstanceDrivesTheMemo() {
+        StateMachine machine = definition.newInstance(new ManualTimeSource());
+        assertSame(memo, machine.getConditionMemo());
+        machine.start();
+
+        machine.update();
+        machine.update();
+        assertEquals(S.A, machine.getState());
+        assertEquals(2, calls); // once per update, although two transitions check it
+
+        ready = true;
+        machine.update();
+        assertEquals(S.B, machine.getState());
+    }
+
+    @Test
+    public void simulationSeesTheAnswerChange() {
+        Timeline timeline = new Simulation(definition, 2)
+                .script(new Script().at(1, () -> ready = true))
+                .run();
+
+        assertEquals("A", timeline.getStateAt(0.5));
+        assertEquals("B", timeline.getStateAt(1.5));
+    }
+
+    @Test
+    public void fleetDrivesTheMemoOncePerTick() {
+        StateMachine first = definition.newInstance();
+        StateMachine second = definition.newInstance();
+        try (StateMachineFleet fleet = new StateMachineFleet(new ForkJoinPool(1), 1)) {
+            fleet.setConditionMemo(memo);
+            fleet.add(first).add(second);
+            assertNull(first.getConditionMemo());
+            fleet.start(first);
+            fleet.start(second);
+
+            fleet.tick();
+            fleet.tick();
+            assertEquals(2, calls); // once per tick for both machines
+
+            ready = true;
+            fleet.tick();
+            assertEquals(S.B, first.getState());
+            assertEquals(S.B, second.getState());
+
+            fleet.remove(first);
+            assertSame(memo, first.getConditionMemo());
+        }
+    }
+
+    @Test
+    public void cyclesOnlyMoveForward() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 100_000; n++) memo.nextCycle();
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(400_000, memo.getCycle());
+    }
+}
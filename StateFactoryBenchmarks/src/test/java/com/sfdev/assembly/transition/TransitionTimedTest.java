@@ -0,0 +1,93 @@
+package com.sfdev.assembly.transition;
+
+import com.sfdev.assembly.callbacks.TimedCallback;
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineBuilder;
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that TransitionTimed, TimedCallback and TransitionData still work on their own timers, and that those timers do not
+ * affect the StateMachines that share the objects.
+ */
+@SuppressWarnings("deprecation")
+public class TransitionTimedTest {
+    private int calls;
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void transitionTimedEvaluatesOnItsOwnTimer() {
+        TransitionTimed timed = new TransitionTimed(0.05);
+        assertEquals(0.05, timed.getDuration(), 1e-9);
+        assertFalse(timed.timerStarted());
+
+        timed.startTimer();
+        assertTrue(timed.timerStarted());
+        assertFalse(timed.shouldTransition());
+        sleep(80);
+        assertTrue(timed.shouldTransition());
+        assertTrue(timed.getTime() >= 0.05);
+
+        timed.resetTimer();
+        assertFalse(timed.timerStarted());
+    }
+
+    @Test
+    public void transitionDataStartsItsTimers() {
+        TransitionData data = new TransitionData(new TransitionTimed(0.05), null, null);
+        data.setMinimumTransition(new TransitionTimed(0.0));
+        data.runTimer();
+        assertFalse(data.shouldTransition());
+        sleep(80);
+        assertTrue(data.shouldTransition());
+    }
+
+    @Test
+    public void timedCallbackRunsOnceAfterItsTime() {
+        TimedCallback callback = new TimedCallback(0.05, () -> calls++);
+        callback.startTimer();
+        callback.call();
+        assertEquals(0, calls);
+        sleep(80);
+        callback.call();
+        callback.call();
+        assertEquals(1, calls);
+        assertTrue(callback.isDone());
+
+        callback.resetTimer();
+        assertFalse(callback.isDone());
+    }
+
+    @Test
+    public void machinesIgnoreTheStandaloneTimer() {
+        TransitionTimed shared = new TransitionTimed(10);
+        shared.startTimer();
+        ManualTimeSource clock = new ManualTimeSource();
+        StateMachine machine = new StateMachineBuilder()
+                .state("A").transition(shared)
+                .state("B")
+                .timeSource(clock)
+                .build();
+        machine.start();
+        machine.update();
+
+        clock.advanceSeconds(5);
+        machine.update();
+        assertEquals("A", machine.getStateString());
+        clock.advanceSeconds(5);
+        machine.update();
+        assertEquals("B", machine.getStateString());
+    }
+}
@@ -0,0 +1,231 @@
+package com.sfdev.assembly.bus;
+
+import com.sfdev.assembly.callbacks.CallbackBase;
+import com.sfdev.assembly.concurrent.MpscIntQueue;
+import com.sfdev.assembly.state.StateMachine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets StateMachines coordinate through events instead of polling shared fields. A machine publishes an event from one of its
+ * callbacks through a Publisher, and every machine subscribed to that event receives it as if fire() had been called on it.
+ * Published events wait in their publisher's bounded, preallocated, lock-free queue until deliver() hands them to the subscribers.
+ * The driving loop calls deliver() between rounds of updates; a StateMachineFleet does so on every tick, see StateMachineFleet.setEventBus().
+ * Delivery is deterministic: deliver() goes through the publishers in the order they were created, through the events of each in the
+ * order they were published, and through the subscribers of each event in the order they subscribed. An event published during one
+ * round of updates is handled by every subscriber at the start of the next round, whichever threads the machines run on.
+ * Publishers and subscriptions are meant to be set up before the machines run. Once an event has been published or subscribed to,
+ * publishing it and delivering it never lock or allocate.
+ */
+public final class EventBus {
+    /**
+     * The number of published events a publisher can hold until the next deliver() before further events are dropped.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final int capacity;
+    // every event that has been published or subscribed to gets a dense topic id; both are replaced as a whole when a topic is added,
+    // so publishers read them without locking
+    private volatile HashMap<Enum<?>, Integer> topicIds = new HashMap<>();
+    private volatile Topic[] topics = new Topic[0];
+    private volatile Publisher[] publishers = new Publisher[0];
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The subscribers of one event. Replaced as a whole when a machine subscribes or unsubscribes.
+     */
+    private static final class Topic {
+        final Enum<?> event;
+        final StateMachine[] machines;
+        // the id each machine's definition gave the event
+        final int[] eventIds;
+
+        Topic(Enum<?> event, StateMachine[] machines, int[] eventIds) {
+            this.event = event;
+            this.machines = machines;
+            this.eventIds = eventIds;
+        }
+    }
+
+    public EventBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of events each publisher can hold until the next deliver(). Rounded up to a power of two.
+     */
+    public EventBus(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates a publisher. Give every machine that publishes its own, so the order of its events is kept.
+     * @return Returns a publisher whose events are delivered after those of every publisher created before it.
+     */
+    public synchronized Publisher publisher() {
+        Publisher publisher = new Publisher(new MpscIntQueue(capacity));
+        Publisher[] grown = Arrays.copyOf(publishers, publishers.length + 1);
+        grown[publishers.length] = publisher;
+        publishers = grown;
+        return publisher;
+    }
+
+    /**
+     * Subscribes a machine to events. Subscribing to an event twice has no further effect.
+     * @param machine The machine that receives the events.
+     * @param events The events. The machine's definition must react to each of them.
+     */
+    public synchronized EventBus subscribe(StateMachine machine, Enum<?>... events) {
+        for (Enum<?> event : events) {
+            if (machine.getDefinition().eventId(event) == -1) {
+                throw new IllegalArgumentException("The machine does not react to event " + event.name());
+            }
+        }
+
+        for (Enum<?> event : events) {
+            int eventId = machine.getDefinition().eventId(event);
+            int topic = topicId(event);
+            Topic current = topics[topic];
+            if (indexOf(current.machines, machine) != -1) continue;
+
+            int count = current.machines.length;
+            StateMachine[] machines = Arrays.copyOf(current.machines, count + 1);
+            int[] eventIds = Arrays.copyOf(current.eventIds, count + 1);
+            machines[count] = machine;
+            eventIds[count] = eventId;
+            replace(topic, new Topic(event, machines, eventIds));
+        }
+        return this;
+    }
+
+    /**
+     * Removes every subscription of a machine.
+     * @param machine The machine.
+     */
+    public synchronized EventBus unsubscribe(StateMachine machine) {
+        Topic[] current = topics;
+        for (int t = 0; t < current.length; t++) {
+            Topic topic = current[t];
+            int index = indexOf(topic.machines, machine);
+            if (index == -1) continue;
+
+            int count = topic.machines.length - 1;
+            StateMachine[] machines = new StateMachine[count];
+            int[] eventIds = new int[count];
+            System.arraycopy(topic.machines, 0, machines, 0, index);
+            System.arraycopy(topic.machines, index + 1, machines, index, count - index);
+            System.arraycopy(topic.eventIds, 0, eventIds, 0, index);
+            System.arraycopy(topic.eventIds, index + 1, eventIds, index, count - index);
+            replace(t, new Topic(topic.event, machines, eventIds));
+        }
+        return this;
+    }
+
+    /**
+     * Hands every published event to the machines subscribed to it, which handle it at the start of their next update.
+     * Must only be called from one thread at a time, and only between rounds of updates if delivery is to be deterministic.
+     * @return Returns the number of events handed to machines.
+     */
+    public int deliver() {
+        Publisher[] publishers = this.publishers;
+        int delivered = 0;
+
+        for (Publisher publisher : publishers) {
+            int topic;
+            while ((topic = publisher.queue.poll()) != MpscIntQueue.EMPTY) {
+                Topic subscribers = topics[topic]; // read again for every event, since a publisher may have just added the topic
+                for (int s = 0; s < subscribers.machines.length; s++) {
+                    if (subscribers.machines[s].fire(subscribers.eventIds[s])) delivered++;
+                    else dropped.incrementAndGet(); // the machine's own event queue is full
+                }
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * @return Returns the number of events dropped so far, because a publisher or a subscribing machine had no room left for them.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the topic of an event, adding one if the event has none yet.
+     */
+    private int topicId(Enum<?> event) {
+        Integer id = topicIds.get(event);
+        if (id != null) return id;
+
+        synchronized (this) {
+            id = topicIds.get(event);
+            if (id != null) return id;
+
+            id = topics.length;
+            Topic[] grown = Arrays.copyOf(topics, id + 1);
+            grown[id] = new Topic(event, new StateMachine[0], new int[0]);
+            topics = grown; // published before the id, so a publisher never sees an id without its topic
+
+            HashMap<Enum<?>, Integer> ids = new HashMap<>(topicIds);
+            ids.put(event, id);
+            topicIds = ids;
+            return id;
+        }
+    }
+
+    private void replace(int index, Topic topic) {
+        Topic[] replaced = topics.clone();
+        replaced[index] = topic;
+        topics = replaced;
+    }
+
+    private static int indexOf(StateMachine[] machines, StateMachine machine) {
+        for (int i = 0; i < machines.length; i++) {
+            if (machines[i] == machine) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Publishes events onto the bus. Safe to call from any thread, but the events of one publisher are only delivered in a
+     * deterministic order if it is used by one machine, or one thread, at a time.
+     */
+    public final class Publisher {
+        private final MpscIntQueue queue;
+
+        private Publisher(MpscIntQueue queue) {
+            this.queue = queue;
+        }
+
+        /**
+         * Publishes an event. It reaches the subscribers on the next deliver().
+         * @param event The event.
+         * @return Returns false if the publisher is full and the event was dropped.
+         */
+        public boolean publish(Enum<?> event) {
+            return publish(topicId(event));
+        }
+
+        /**
+         * Creates a callback that publishes an event, for the actions of a machine.
+         * Example:
+         * ".onEnter(done.emit(Events.ARM_READY))"
+         * @param event The event.
+         * @return Returns a callback that publishes the event each time it is called.
+         */
+        public CallbackBase emit(Enum<?> event) {
+            int topic = topicId(event);
+            return () -> publish(topic);
+        }
+
+        private boolean publish(int topic) {
+            if (queue.offer(topic)) return true;
+
+            dropped.incrementAndGet();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.sfdev.assembly.callbacks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * The functional interface AsyncCallback starts an action that runs off the update thread.
+ * The StateMachine starts it when the state is entered and only ever polls the returned future, so update() never blocks on it.
+ */
+@FunctionalInterface
+public interface AsyncCallback {
+    /**
+     * Starts the action.
+     * @param executor The machine's async executor, for actions that need a thread to run on.
+     * @return Returns a future that completes when the action is done, or completes exceptionally when it fails.
+     */
+    CompletableFuture<?> call(Executor executor);
+
+    /**
+     * Wraps a blocking action so that it runs on the machine's async executor.
+     * @param action The action to run.
+     * @return Returns the async form of the action.
+     */
+    static AsyncCallback of(CallbackBase action) {
+        return executor -> CompletableFuture.runAsync(action::call, executor);
+    }
+}
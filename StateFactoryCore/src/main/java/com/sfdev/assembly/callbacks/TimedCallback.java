@@ -1,41 +1,76 @@
 package com.sfdev.assembly.callbacks;
 
 /**
- * TimedCallback class to execute actions after a specified amount of time
+ * TimedCallback class to execute actions after a specified amount of time.
+ * A StateMachine only reads the time and the action and decides itself when the time has passed, so one TimedCallback can be shared
+ * by any number of machines. The timer methods below are kept for code that runs a TimedCallback on its own; that timer belongs to
+ * the object, is never touched by a StateMachine, and must not be shared between threads.
  */
 public class TimedCallback implements CallbackBase{
-    private double startTime = 0;
-    private double time;
-    private CallbackBase callback;
+    private final long nanos;
+    private final CallbackBase callback;
+    // only used when the callback is run on its own, see startTimer()
+    private long startTime = 0;
     private boolean done = false;
+
     public TimedCallback(double time, CallbackBase callback) {
-        this.time = time;
+        this.nanos = (long) (time * 1e9);
         this.callback = callback;
     }
 
+    public double getTime() {
+        return nanos / 1e9;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public CallbackBase getCallback() {
+        return callback;
+    }
+
+    /**
+     * Starts the object's own timer.
+     * @deprecated StateMachines time their callbacks themselves; only needed to run the callback on its own.
+     */
+    @Deprecated
     public void startTimer() {
         startTime = System.nanoTime();
     }
 
+    /**
+     * @deprecated See startTimer().
+     */
+    @Deprecated
     public boolean timerStarted() {
         return startTime != 0;
     }
 
+    /**
+     * @deprecated See startTimer().
+     */
+    @Deprecated
     public void resetTimer() {
         done = false;
         startTime = 0;
     }
-    public double getTime() {
-        return time;
-    }
 
+    /**
+     * @deprecated See startTimer().
+     */
+    @Deprecated
     public boolean isDone() {
         return done;
     }
 
+    /**
+     * Runs the action once the time has passed on the object's own timer, see startTimer(), and only once until resetTimer().
+     * A StateMachine never calls this; it runs getCallback() itself.
+     */
     @Override
     public void call() {
-        if (!done && (System.nanoTime() - startTime) / 1e9 > time) {
+        if (!done && System.nanoTime() - startTime > nanos) {
             callback.call();
             done = true;
         }
@@ -43,6 +78,6 @@ public class TimedCallback implements CallbackBase{
 
     @Override
     public String toString() {
-        return Double.toString(time);
+        return Double.toString(getTime());
     }
 }
@@ -0,0 +1,98 @@
+package com.sfdev.assembly.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, preallocated, lock-free queue of non-negative ints for many producer threads and a single consumer thread.
+ * Every slot carries a sequence number that tells producers and the consumer whose turn it is, so neither side allocates or locks.
+ */
+public final class MpscIntQueue {
+    /**
+     * Returned by poll() when the queue is empty.
+     */
+    public static final int EMPTY = -1;
+
+    private final int mask;
+    private final int[] values;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0; // only touched by the consumer
+
+    /**
+     * Creates a queue.
+     * @param capacity The minimum number of values the queue can hold. Rounded up to a power of two.
+     */
+    public MpscIntQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+
+        mask = size - 1;
+        values = new int[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Adds a value. Safe to call from any thread.
+     * @param value The value to add. Must not be negative.
+     * @return Returns false if the queue was full and the value was dropped.
+     */
+    public boolean offer(int value) {
+        long position;
+        int index;
+        for (;;) {
+            position = tail.get();
+            index = (int) position & mask;
+            long sequence = sequences.get(index);
+
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (sequence < position) {
+                return false; // the consumer has not freed this slot yet
+            }
+        }
+
+        values[index] = value;
+        sequences.lazySet(index, position + 1); // publishes the value to the consumer
+        return true;
+    }
+
+    /**
+     * Removes the oldest value. Must only be called from the consumer thread.
+     * @return Returns the oldest value, or EMPTY if there is none.
+     */
+    public int poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) return EMPTY;
+
+        int value = values[index];
+        sequences.lazySet(index, head + mask + 1); // hands the slot back to the producers
+        head++;
+        return value;
+    }
+
+    /**
+     * Checks for a pending value. Must only be called from the consumer thread.
+     * @return Returns whether poll() would return a value.
+     */
+    public boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+
+    /**
+     * Drops every pending value. Must only be called from the consumer thread.
+     */
+    public void clear() {
+        while (poll() != EMPTY) ;
+    }
+
+    /**
+     * @return Returns the number of values the queue can hold.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
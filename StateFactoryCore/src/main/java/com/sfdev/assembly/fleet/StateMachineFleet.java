@@ -0,0 +1,434 @@
+package com.sfdev.assembly.fleet;
+
+import com.sfdev.assembly.bus.EventBus;
+import com.sfdev.assembly.state.ConcurrentStateMachine;
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.timing.TimeSource;
+import com.sfdev.assembly.timing.TimerWheel;
+import com.sfdev.assembly.transition.ConditionMemo;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Owns many independent StateMachines and updates all of them once per cycle, split into partitions across a fork-join pool.
+ * Machines that stop are parked and cost nothing until they are started again through start(StateMachine).
+ * Machines that can only move on once a deadline passes (see StateMachine.isWaitingForDeadline()) sleep in a shared TimerWheel
+ * and are not updated again until that deadline.
+ * The fleet reads its TimeSource once per cycle and hands that reading to every machine, so all machines of a fleet must use the same clock.
+ * A fleet is driven from a single thread: add, remove, start and tick must not be called concurrently with each other,
+ * and the machines it owns must not be updated from anywhere else. ConcurrentStateMachines of a fleet can still be commanded from any
+ * thread: a command brings a parked or sleeping machine back into the next tick, which applies it.
+ */
+public class StateMachineFleet implements AutoCloseable {
+    /**
+     * Partition size that lets the fleet split the active machines evenly over the pool.
+     */
+    public static final int AUTOMATIC = 0;
+
+    // partitions per worker when partitioning automatically, so uneven machines still balance out
+    private static final int PARTITIONS_PER_WORKER = 4;
+
+    private final ForkJoinPool pool;
+    private final TimeSource timeSource;
+    private final IdentityHashMap<StateMachine, Member> members = new IdentityHashMap<>();
+    private final TimerWheel wheel;
+    // members woken by a command since the last tick, linked through Member.nextWoken
+    private final AtomicReference<Member> woken = new AtomicReference<>();
+    private ConditionMemo conditionMemo;
+    private EventBus eventBus;
+    private Member[] active = new Member[16];
+    private int activeCount = 0;
+    private int partitionSize;
+    private Partition[] partitions = new Partition[0];
+    private final Cycle cycle = new Cycle();
+    private long lastCycleNanos = 0;
+    private long cycles = 0;
+
+    /**
+     * Creates a fleet that uses one worker per available processor and automatic partitioning.
+     */
+    public StateMachineFleet() {
+        this(Runtime.getRuntime().availableProcessors(), AUTOMATIC);
+    }
+
+    /**
+     * Creates a fleet with its own worker pool.
+     * @param parallelism The number of worker threads.
+     * @param partitionSize The number of machines updated by one task, or AUTOMATIC.
+     */
+    public StateMachineFleet(int parallelism, int partitionSize) {
+        this(new ForkJoinPool(parallelism), partitionSize);
+    }
+
+    /**
+     * Creates a fleet that runs on an existing pool. The pool is shut down when the fleet is closed.
+     * @param pool The pool that updates the partitions.
+     * @param partitionSize The number of machines updated by one task, or AUTOMATIC.
+     */
+    public StateMachineFleet(ForkJoinPool pool, int partitionSize) {
+        this(pool, partitionSize, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Creates a fleet that runs on an existing pool and reads time from the given clock. The pool is shut down when the fleet is closed.
+     * @param pool The pool that updates the partitions.
+     * @param partitionSize The number of machines updated by one task, or AUTOMATIC.
+     * @param timeSource The clock read once per cycle. Must be the clock of every machine added to the fleet.
+     */
+    public StateMachineFleet(ForkJoinPool pool, int partitionSize, TimeSource timeSource) {
+        this.pool = pool;
+        this.timeSource = timeSource;
+        this.wheel = new TimerWheel(timeSource.nanoTime());
+        setPartitionSize(partitionSize);
+    }
+
+    /**
+     * Sets how many machines a single task updates per cycle.
+     * @param partitionSize The number of machines per task, or AUTOMATIC.
+     */
+    public void setPartitionSize(int partitionSize) {
+        if (partitionSize < 0) throw new IllegalArgumentException("Partition size must be positive or AUTOMATIC");
+        this.partitionSize = partitionSize;
+    }
+
+    /**
+     * Starts a new cycle of a ConditionMemo on every tick, so a condition shared by the fleet's machines is evaluated at most once per tick.
+     * While they are part of the fleet, the machines whose definitions were built with this memo (see StateMachineBuilder.memoizeConditions())
+     * stop starting a cycle on each of their own updates.
+     * @param memo The memo shared by the machines' conditions, or null.
+     */
+    public void setConditionMemo(ConditionMemo memo) {
+        for (StateMachine machine : members.keySet()) release(machine);
+        this.conditionMemo = memo;
+        for (StateMachine machine : members.keySet()) drive(machine);
+    }
+
+    /**
+     * Delivers the events published on an EventBus at the start of every tick, so the fleet's machines handle the events published
+     * during one tick at the start of the next, in the same order whichever workers they run on.
+     * @param bus The bus the machines publish on and subscribe to, or null.
+     */
+    public void setEventBus(EventBus bus) {
+        this.eventBus = bus;
+    }
+
+    /**
+     * Adds a machine to the fleet. It is only updated once it is running, or for a ConcurrentStateMachine, once it has been commanded.
+     * @param machine The machine to add.
+     */
+    public StateMachineFleet add(StateMachine machine) {
+        if (members.containsKey(machine)) return this;
+
+        Member member = new Member(machine);
+        members.put(machine, member);
+        drive(machine);
+        boolean commanded = false;
+        if (machine instanceof ConcurrentStateMachine) {
+            ConcurrentStateMachine concurrent = (ConcurrentStateMachine) machine;
+            concurrent.setOnCommand(member);
+            commanded = concurrent.hasPendingCommands(); // queued before the fleet listened, such as a start()
+        }
+        if (commanded || machine.isRunning()) activate(member);
+
+        return this;
+    }
+
+    /**
+     * Removes a machine from the fleet.
+     * @param machine The machine to remove.
+     */
+    public StateMachineFleet remove(StateMachine machine) {
+        Member member = members.remove(machine);
+        if (member == null) return this;
+
+        release(machine);
+        if (machine instanceof ConcurrentStateMachine) ((ConcurrentStateMachine) machine).setOnCommand(null);
+        wheel.cancel(member);
+        if (member.active) {
+            member.active = false;
+            for (int i = 0; i < activeCount; i++) {
+                if (active[i] == member) {
+                    System.arraycopy(active, i + 1, active, i, activeCount - i - 1);
+                    active[--activeCount] = null;
+                    break;
+                }
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Starts a machine of the fleet and brings it back into the cycle if it was parked.
+     * @param machine The machine to start.
+     */
+    public void start(StateMachine machine) {
+        Member member = members.get(machine);
+        if (member == null) throw new IllegalArgumentException("Machine is not part of this fleet");
+
+        machine.start();
+        wheel.cancel(member);
+        activate(member);
+    }
+
+    /**
+     * Updates every running machine once. Blocks until all partitions are done.
+     * @return Returns the wall time of the cycle in nanoseconds.
+     */
+    public long tick() {
+        long start = System.nanoTime();
+        long now = timeSource.nanoTime();
+        if (conditionMemo != null) conditionMemo.nextCycle();
+        if (eventBus != null) eventBus.deliver();
+        if (woken.get() != null) wakeCommanded();
+        wheel.advance(now); // wakes the sleeping machines whose deadline has passed
+        int partitionCount = partition(now);
+
+        if (partitionCount == 1) {
+            partitions[0].updateRange(); // not worth handing to the pool
+        } else if (partitionCount > 1) {
+            cycle.partitionCount = partitionCount;
+            cycle.reinitialize();
+            pool.invoke(cycle);
+        }
+
+        boolean idle = false;
+        for (int p = 0; p < partitionCount; p++) idle |= partitions[p].sawIdle;
+        if (idle) park();
+
+        lastCycleNanos = System.nanoTime() - start;
+        cycles++;
+        return lastCycleNanos;
+    }
+
+    /**
+     * @return Returns the wall time of the last cycle in nanoseconds.
+     */
+    public long getLastCycleNanos() {
+        return lastCycleNanos;
+    }
+
+    /**
+     * @return Returns the number of cycles run so far.
+     */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * @return Returns the number of machines in the fleet.
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * @return Returns the number of machines that are updated each cycle.
+     */
+    public int activeCount() {
+        return activeCount;
+    }
+
+    /**
+     * @return Returns the number of machines sleeping until a deadline.
+     */
+    public int sleepingCount() {
+        return wheel.size();
+    }
+
+    /**
+     * Finds how long the driving loop can wait before the next tick has anything to do.
+     * @return Returns 0 if any machine is active or has been commanded, the nanoseconds until the earliest sleeping machine's deadline
+     * otherwise, or Long.MAX_VALUE if every machine is stopped.
+     */
+    public long nanosUntilNextDeadline() {
+        return activeCount > 0 || woken.get() != null ? 0 : wheel.nanosUntilNextDeadline(timeSource.nanoTime());
+    }
+
+    /**
+     * Shuts the worker pool down.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Takes over starting the memo cycles of a machine whose definition uses the fleet's memo.
+     */
+    private void drive(StateMachine machine) {
+        if (conditionMemo != null && machine.getDefinition().getConditionMemo() == conditionMemo) machine.setConditionMemo(null);
+    }
+
+    /**
+     * Hands starting the memo cycles back to a machine the fleet drove.
+     */
+    private void release(StateMachine machine) {
+        if (conditionMemo != null && machine.getDefinition().getConditionMemo() == conditionMemo) machine.setConditionMemo(conditionMemo);
+    }
+
+    private void activate(Member member) {
+        if (member.active) return;
+
+        member.active = true;
+        if (activeCount == active.length) active = Arrays.copyOf(active, active.length * 2);
+        active[activeCount++] = member;
+    }
+
+    /**
+     * Brings every machine that was commanded since the last tick back into the cycle, so this tick applies the commands.
+     */
+    private void wakeCommanded() {
+        Member member = woken.getAndSet(null);
+        while (member != null) {
+            Member next = member.nextWoken;
+            member.nextWoken = null;
+            member.queued.set(false); // a later command queues the member again
+
+            if (members.get(member.machine) == member) { // not removed since
+                wheel.cancel(member);
+                activate(member);
+            }
+            member = next;
+        }
+    }
+
+    /**
+     * Drops every machine that stopped or is waiting for a deadline from the active array, keeping the order of the rest.
+     * Waiting machines are scheduled in the wheel for their next deadline.
+     */
+    private void park() {
+        int kept = 0;
+        for (int i = 0; i < activeCount; i++) {
+            Member member = active[i];
+            StateMachine machine = member.machine;
+            if (!machine.isRunning()) {
+                member.active = false;
+            } else if (machine.isWaitingForDeadline()) {
+                member.active = false;
+                wheel.schedule(member, machine.getNextDeadline());
+            } else {
+                active[kept++] = member;
+            }
+        }
+
+        Arrays.fill(active, kept, activeCount, null);
+        activeCount = kept;
+    }
+
+    /**
+     * Assigns a contiguous range of the active array and the cycle's clock reading to each partition.
+     * @return Returns the number of partitions used this cycle.
+     */
+    private int partition(long now) {
+        if (activeCount == 0) return 0;
+
+        int size = partitionSize != AUTOMATIC ? partitionSize
+                : ceilDiv(activeCount, pool.getParallelism() * PARTITIONS_PER_WORKER);
+        int count = ceilDiv(activeCount, size);
+
+        if (partitions.length < count) {
+            Partition[] grown = Arrays.copyOf(partitions, count);
+            for (int p = partitions.length; p < count; p++) grown[p] = new Partition();
+            partitions = grown;
+        }
+
+        for (int p = 0; p < count; p++) {
+            partitions[p].from = p * size;
+            partitions[p].to = Math.min(activeCount, (p + 1) * size);
+            partitions[p].now = now;
+            partitions[p].sawIdle = false;
+        }
+
+        return count;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * Forks every partition of the cycle and joins them. Reused across cycles.
+     */
+    private final class Cycle extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        int partitionCount;
+
+        @Override
+        protected void compute() {
+            for (int p = 1; p < partitionCount; p++) {
+                partitions[p].reinitialize();
+                partitions[p].fork();
+            }
+
+            partitions[0].updateRange();
+
+            for (int p = partitionCount - 1; p > 0; p--) partitions[p].join();
+        }
+    }
+
+    /**
+     * Updates one contiguous range of the active machines. Reused across cycles.
+     */
+    private final class Partition extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        int from;
+        int to;
+        long now;
+        boolean sawIdle; // a machine stopped or started waiting for a deadline
+
+        @Override
+        protected void compute() {
+            updateRange();
+        }
+
+        void updateRange() {
+            Member[] members = active;
+            for (int i = from; i < to; i++) {
+                StateMachine machine = members[i].machine;
+                machine.update(now);
+                if (!machine.isRunning() || machine.isWaitingForDeadline()) sawIdle = true;
+            }
+        }
+    }
+
+    /**
+     * A machine of the fleet, its entry in the wheel while it sleeps, and the action that wakes it when it is commanded.
+     */
+    private final class Member extends TimerWheel.Timeout implements Runnable {
+        final StateMachine machine;
+        boolean active = false;
+        final AtomicBoolean queued = new AtomicBoolean(); // in the woken stack
+        Member nextWoken;
+
+        Member(StateMachine machine) {
+            this.machine = machine;
+        }
+
+        @Override
+        protected void expire(long now) {
+            activate(this);
+        }
+
+        /**
+         * Pushes the member onto the woken stack, at most once until the next tick. Runs on the commanding thread.
+         */
+        @Override
+        public void run() {
+            if (!queued.compareAndSet(false, true)) return;
+
+            Member head;
+            do {
+                head = woken.get();
+                nextWoken = head;
+            } while (!woken.compareAndSet(head, this));
+        }
+    }
+}
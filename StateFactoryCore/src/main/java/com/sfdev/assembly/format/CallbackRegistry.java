@@ -0,0 +1,62 @@
+package com.sfdev.assembly.format;
+
+import com.sfdev.assembly.callbacks.CallbackBase;
+import com.sfdev.assembly.transition.TransitionCondition;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The conditions and actions that definition files refer to by name. The code registers them once at startup, and every definition
+ * loaded with this registry is linked against them, so definitions can change without recompiling.
+ * Safe to use from any thread.
+ */
+public final class CallbackRegistry {
+    private final ConcurrentHashMap<String, CallbackBase> actions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TransitionCondition> conditions = new ConcurrentHashMap<>();
+
+    /**
+     * Registers an action, replacing any action of the same name.
+     * @param name The name definition files use for the action.
+     * @param action The action.
+     */
+    public CallbackRegistry action(String name, CallbackBase action) {
+        actions.put(name, action);
+
+        return this;
+    }
+
+    /**
+     * Registers a condition, replacing any condition of the same name.
+     * @param name The name definition files use for the condition.
+     * @param condition The condition.
+     */
+    public CallbackRegistry condition(String name, TransitionCondition condition) {
+        conditions.put(name, condition);
+
+        return this;
+    }
+
+    /**
+     * Looks up an action.
+     * @param name The name of the action.
+     * @return Returns the action.
+     * @throws DefinitionFormatException If no action has that name.
+     */
+    public CallbackBase getAction(String name) {
+        CallbackBase action = actions.get(name);
+        if (action == null) throw new DefinitionFormatException("No action named \"" + name + "\" is registered");
+        return action;
+    }
+
+    /**
+     * Looks up a condition.
+     * @param name The name of the condition.
+     * @return Returns the condition.
+     * @throws DefinitionFormatException If no condition has that name.
+     */
+    public TransitionCondition getCondition(String name) {
+        TransitionCondition condition = conditions.get(name);
+        if (condition == null) throw new DefinitionFormatException("No condition named \"" + name + "\" is registered");
+        return condition;
+    }
+}
@@ -0,0 +1,79 @@
+package com.sfdev.assembly.format;
+
+import com.sfdev.assembly.state.StateMachineDefinition;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the definitions loaded from files, so each file is loaded and built once however many machines are created from it.
+ * A file is loaded again when its size or modification time changes, which lets definitions be swapped while the program runs;
+ * machines already created keep running from the definition they were created with.
+ * Safe to use from any thread.
+ */
+public final class DefinitionCache {
+    private final CallbackRegistry registry;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        final long modified;
+        final long length;
+        final StateMachineDefinition definition;
+
+        Entry(long modified, long length, StateMachineDefinition definition) {
+            this.modified = modified;
+            this.length = length;
+            this.definition = definition;
+        }
+    }
+
+    /**
+     * Creates a cache.
+     * @param registry The conditions and actions every definition loaded through the cache is linked against.
+     */
+    public DefinitionCache(CallbackRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Gets the definition in a file, loading it if it is not cached or has changed since it was loaded.
+     * @param file A definition file in either form, see MachineFormat.load().
+     * @return Returns the definition.
+     * @throws IOException If the file cannot be read.
+     */
+    public StateMachineDefinition get(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long modified = file.lastModified();
+        long length = file.length();
+
+        Entry entry = entries.get(key);
+        if (entry != null && entry.modified == modified && entry.length == length) return entry.definition;
+
+        StateMachineDefinition definition = MachineFormat.load(file, registry);
+        entries.put(key, new Entry(modified, length, definition));
+        return definition;
+    }
+
+    /**
+     * Drops a file from the cache, so the next get() loads it again.
+     * @param file The file.
+     */
+    public void invalidate(File file) {
+        entries.remove(file.getAbsolutePath());
+    }
+
+    /**
+     * Drops every cached definition.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return Returns the number of cached definitions.
+     */
+    public int size() {
+        return entries.size();
+    }
+}
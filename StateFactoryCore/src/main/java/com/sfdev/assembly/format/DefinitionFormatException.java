@@ -0,0 +1,17 @@
+package com.sfdev.assembly.format;
+
+/**
+ * Thrown when a machine definition file cannot be read: a syntax error in the text form, a damaged binary form,
+ * or a condition or action name that is missing from the CallbackRegistry.
+ */
+public class DefinitionFormatException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DefinitionFormatException(String s) {
+        super(s);
+    }
+
+    public DefinitionFormatException(String s, Throwable cause) {
+        super(s, cause);
+    }
+}
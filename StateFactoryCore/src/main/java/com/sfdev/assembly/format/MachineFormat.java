@@ -0,0 +1,109 @@
+package com.sfdev.assembly.format;
+
+import com.sfdev.assembly.state.StateMachineDefinition;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads machine definitions from files instead of StateMachineBuilder chains. A definition is written in a text form (see MachineText
+ * for the syntax) and can be compiled into a compact binary form for shipping, which loads without parsing. Conditions and actions are
+ * referred to by name and linked against a CallbackRegistry when the definition is loaded; no reflection is involved.
+ * Text definitions are compiled ahead of time with compile(File, File), or on a desktop with the MachineCompiler tool of the
+ * StateFactoryBenchmarks module.
+ */
+public final class MachineFormat {
+    private MachineFormat() {
+    }
+
+    /**
+     * Compiles the text form into the binary form.
+     * @param text The definition in text form.
+     * @return Returns the binary form.
+     * @throws DefinitionFormatException If the text has a syntax error.
+     */
+    public static byte[] compile(String text) {
+        return MachineText.parse(text).toBytes();
+    }
+
+    /**
+     * Turns the binary form back into text.
+     * @param binary The binary form, starting at the buffer's position.
+     * @return Returns the text form.
+     * @throws DefinitionFormatException If the buffer does not hold a valid definition.
+     */
+    public static String decompile(ByteBuffer binary) {
+        return MachineText.format(MachineSpec.read(binary));
+    }
+
+    /**
+     * Builds a definition from its text form.
+     * @param text The definition in text form.
+     * @param registry The conditions and actions the definition refers to.
+     * @return Returns the definition.
+     * @throws DefinitionFormatException If the text has a syntax error or refers to a name the registry does not have.
+     */
+    public static StateMachineDefinition fromText(String text, CallbackRegistry registry) {
+        return MachineText.parse(text).toDefinition(registry);
+    }
+
+    /**
+     * Builds a definition from its binary form.
+     * @param binary The binary form, starting at the buffer's position.
+     * @param registry The conditions and actions the definition refers to.
+     * @return Returns the definition.
+     * @throws DefinitionFormatException If the buffer does not hold a valid definition or it refers to a name the registry does not have.
+     */
+    public static StateMachineDefinition fromBinary(ByteBuffer binary, CallbackRegistry registry) {
+        return MachineSpec.read(binary).toDefinition(registry);
+    }
+
+    /**
+     * Builds a definition from a file in either form. The file is memory-mapped and read in place.
+     * @param file A binary definition, or a text definition in UTF-8.
+     * @param registry The conditions and actions the definition refers to.
+     * @return Returns the definition.
+     * @throws IOException If the file cannot be read.
+     * @throws DefinitionFormatException If the file does not hold a valid definition or it refers to a name the registry does not have.
+     */
+    public static StateMachineDefinition load(File file, CallbackRegistry registry) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            ByteBuffer mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            if (isBinary(mapped)) return fromBinary(mapped, registry);
+
+            byte[] text = new byte[mapped.remaining()];
+            mapped.get(text);
+            return fromText(new String(text, StandardCharsets.UTF_8), registry);
+        }
+    }
+
+    /**
+     * Compiles a text definition file into a binary definition file.
+     * @param text The text definition, in UTF-8.
+     * @param binary The file to write.
+     * @throws IOException If a file cannot be read or written.
+     */
+    public static void compile(File text, File binary) throws IOException {
+        byte[] source;
+        try (RandomAccessFile in = new RandomAccessFile(text, "r")) {
+            source = new byte[(int) in.length()];
+            in.readFully(source);
+        }
+
+        byte[] compiled = compile(new String(source, StandardCharsets.UTF_8));
+        try (OutputStream out = new FileOutputStream(binary)) {
+            out.write(compiled);
+        }
+    }
+
+    private static boolean isBinary(ByteBuffer buffer) {
+        return buffer.remaining() >= 4 && buffer.duplicate().order(ByteOrder.BIG_ENDIAN).getInt() == MachineSpec.MAGIC;
+    }
+}
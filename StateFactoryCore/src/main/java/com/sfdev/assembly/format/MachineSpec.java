@@ -0,0 +1,281 @@
+package com.sfdev.assembly.format;
+
+import com.sfdev.assembly.callbacks.CallbackBase;
+import com.sfdev.assembly.state.StateMachineBuilder;
+import com.sfdev.assembly.state.StateMachineDefinition;
+import com.sfdev.assembly.transition.TransitionCondition;
+import com.sfdev.assembly.transition.TransitionTimed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A machine definition as read from a definition file, before its names are linked against a CallbackRegistry.
+ * The binary form is big-endian: the magic "SFDF" and a 2-byte version, a table of every name used (each an int length and UTF-8 bytes),
+ * then the states in declaration order. Names are stored as indices into the table, or -1 when absent,
+ * and durations and minimums as seconds in doubles, with NaN for a missing minimum.
+ */
+final class MachineSpec {
+    static final int MAGIC = 0x53464446; // "SFDF"
+    static final short VERSION = 1;
+    private static final int NO_NAME = -1;
+
+    final List<StateSpec> states = new ArrayList<>();
+
+    static final class StateSpec {
+        final String name;
+        final boolean failsafe;
+        double minimum = Double.NaN;
+        final List<String> enterActions = new ArrayList<>();
+        final List<String> exitActions = new ArrayList<>();
+        final List<String> loopActions = new ArrayList<>();
+        final List<TimedActionSpec> timedActions = new ArrayList<>();
+        final List<TransitionSpec> transitions = new ArrayList<>();
+
+        StateSpec(String name, boolean failsafe) {
+            this.name = name;
+            this.failsafe = failsafe;
+        }
+    }
+
+    static final class TimedActionSpec {
+        final double seconds;
+        final String action;
+
+        TimedActionSpec(double seconds, String action) {
+            this.seconds = seconds;
+            this.action = action;
+        }
+    }
+
+    static final class TransitionSpec {
+        final String condition; // null for a timed transition
+        final double seconds;
+        final String target; // null for linear order
+        final String exitAction;
+        double minimum = Double.NaN;
+
+        TransitionSpec(String condition, double seconds, String target, String exitAction) {
+            this.condition = condition;
+            this.seconds = seconds;
+            this.target = target;
+            this.exitAction = exitAction;
+        }
+    }
+
+    /**
+     * Links the names against a registry and builds the definition, the same way a StateMachineBuilder chain would.
+     * @param registry The conditions and actions the names refer to.
+     * @return Returns the definition.
+     */
+    StateMachineDefinition toDefinition(CallbackRegistry registry) {
+        if (states.isEmpty()) throw new DefinitionFormatException("The definition has no states");
+
+        Set<String> names = new HashSet<>();
+        for (StateSpec state : states) names.add(state.name);
+        for (StateSpec state : states) {
+            for (TransitionSpec transition : state.transitions) {
+                if (transition.target != null && !names.contains(transition.target)) {
+                    throw new DefinitionFormatException("State " + state.name + " has a transition to the unknown state " + transition.target);
+                }
+            }
+        }
+
+        StateMachineBuilder builder = new StateMachineBuilder();
+        for (StateSpec state : states) {
+            builder.state(state.name, state.failsafe);
+            for (String action : state.enterActions) builder.onEnter(registry.getAction(action));
+            for (String action : state.exitActions) builder.onExit(registry.getAction(action));
+            for (String action : state.loopActions) builder.loop(registry.getAction(action));
+            for (TimedActionSpec timed : state.timedActions) builder.afterTime(timed.seconds, registry.getAction(timed.action));
+
+            for (TransitionSpec transition : state.transitions) {
+                TransitionCondition condition = transition.condition == null ? new TransitionTimed(transition.seconds) : registry.getCondition(transition.condition);
+                CallbackBase exitAction = transition.exitAction == null ? null : registry.getAction(transition.exitAction);
+                builder.transition(condition, transition.target, exitAction);
+            }
+
+            if (!Double.isNaN(state.minimum)) builder.minimumTransitionTimed(state.minimum);
+            for (int t = 0; t < state.transitions.size(); t++) {
+                if (!Double.isNaN(state.transitions.get(t).minimum)) builder.minimumTransitionTimed(state.transitions.get(t).minimum, t + 1);
+            }
+        }
+
+        return builder.buildDefinition();
+    }
+
+    /**
+     * @return Returns the binary form.
+     */
+    byte[] toBytes() {
+        Map<String, Integer> names = new LinkedHashMap<>();
+        for (StateSpec state : states) {
+            intern(names, state.name);
+            for (String action : state.enterActions) intern(names, action);
+            for (String action : state.exitActions) intern(names, action);
+            for (String action : state.loopActions) intern(names, action);
+            for (TimedActionSpec timed : state.timedActions) intern(names, timed.action);
+            for (TransitionSpec transition : state.transitions) {
+                intern(names, transition.condition);
+                intern(names, transition.target);
+                intern(names, transition.exitAction);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+
+            out.writeInt(names.size());
+            for (String name : names.keySet()) {
+                byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+
+            out.writeInt(states.size());
+            for (StateSpec state : states) {
+                out.writeByte(state.failsafe ? 1 : 0);
+                out.writeInt(names.get(state.name));
+                out.writeDouble(state.minimum);
+                writeNames(out, names, state.enterActions);
+                writeNames(out, names, state.exitActions);
+                writeNames(out, names, state.loopActions);
+
+                out.writeInt(state.timedActions.size());
+                for (TimedActionSpec timed : state.timedActions) {
+                    out.writeDouble(timed.seconds);
+                    out.writeInt(names.get(timed.action));
+                }
+
+                out.writeInt(state.transitions.size());
+                for (TransitionSpec transition : state.transitions) {
+                    out.writeInt(indexOf(names, transition.condition));
+                    out.writeDouble(transition.seconds);
+                    out.writeInt(indexOf(names, transition.target));
+                    out.writeInt(indexOf(names, transition.exitAction));
+                    out.writeDouble(transition.minimum);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a ByteArrayOutputStream never fails
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the binary form.
+     * @param buffer The buffer to read from, starting at its position. Its byte order is left unchanged.
+     * @return Returns the definition it holds.
+     * @throws DefinitionFormatException If the buffer does not hold a valid definition.
+     */
+    static MachineSpec read(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC) throw new DefinitionFormatException("Not a binary machine definition");
+            short version = buffer.getShort();
+            if (version != VERSION) throw new DefinitionFormatException("Unsupported binary machine definition version " + version);
+
+            String[] names = new String[count(buffer, 4)];
+            for (int i = 0; i < names.length; i++) {
+                byte[] utf8 = new byte[count(buffer, 1)];
+                buffer.get(utf8);
+                names[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+
+            MachineSpec spec = new MachineSpec();
+            int stateCount = count(buffer, 33);
+            for (int s = 0; s < stateCount; s++) {
+                boolean failsafe = buffer.get() != 0;
+                StateSpec state = new StateSpec(name(buffer, names, false), failsafe);
+                state.minimum = duration(buffer, true);
+                readNames(buffer, names, state.enterActions);
+                readNames(buffer, names, state.exitActions);
+                readNames(buffer, names, state.loopActions);
+
+                int timedCount = count(buffer, 12);
+                for (int i = 0; i < timedCount; i++) {
+                    double seconds = duration(buffer, false);
+                    state.timedActions.add(new TimedActionSpec(seconds, name(buffer, names, false)));
+                }
+
+                int transitionCount = count(buffer, 28);
+                for (int i = 0; i < transitionCount; i++) {
+                    String condition = name(buffer, names, true);
+                    double seconds = duration(buffer, condition != null);
+                    String target = name(buffer, names, true);
+                    TransitionSpec transition = new TransitionSpec(condition, seconds, target, name(buffer, names, true));
+                    transition.minimum = duration(buffer, true);
+                    state.transitions.add(transition);
+                }
+
+                spec.states.add(state);
+            }
+
+            return spec;
+        } catch (BufferUnderflowException e) {
+            throw new DefinitionFormatException("Binary machine definition is truncated", e);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    private static void intern(Map<String, Integer> names, String name) {
+        if (name != null && !names.containsKey(name)) names.put(name, names.size());
+    }
+
+    private static int indexOf(Map<String, Integer> names, String name) {
+        return name == null ? NO_NAME : names.get(name);
+    }
+
+    private static void writeNames(DataOutputStream out, Map<String, Integer> names, List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (String name : list) out.writeInt(names.get(name));
+    }
+
+    private static void readNames(ByteBuffer buffer, String[] names, List<String> list) {
+        int count = count(buffer, 4);
+        for (int i = 0; i < count; i++) list.add(name(buffer, names, false));
+    }
+
+    /**
+     * Reads a count and checks that the buffer can hold that many entries, so a damaged file cannot make the reader allocate huge arrays.
+     */
+    private static int count(ByteBuffer buffer, int entryBytes) {
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * entryBytes > buffer.remaining()) throw new DefinitionFormatException("Binary machine definition is damaged");
+        return count;
+    }
+
+    /**
+     * Reads a duration and checks it is one the text form accepts.
+     * @param optional Whether NaN, which stands for no duration, is allowed.
+     */
+    private static double duration(ByteBuffer buffer, boolean optional) {
+        double seconds = buffer.getDouble();
+        if (optional && Double.isNaN(seconds)) return seconds;
+        if (!(seconds >= 0) || Double.isInfinite(seconds)) throw new DefinitionFormatException("Binary machine definition is damaged");
+        return seconds;
+    }
+
+    private static String name(ByteBuffer buffer, String[] names, boolean optional) {
+        int index = buffer.getInt();
+        if (optional && index == NO_NAME) return null;
+        if (index < 0 || index >= names.length) throw new DefinitionFormatException("Binary machine definition is damaged");
+        return names[index];
+    }
+}
@@ -0,0 +1,169 @@
+package com.sfdev.assembly.format;
+
+/**
+ * Reads and writes the text form of machine definitions. One directive per line, blank lines and everything after a '#' are ignored:
+ * <pre>
+ * state INTAKE                          # a linear state; "failsafe NAME" declares a failsafe state
+ *   enter startIntake                   # an action run on entering ("exit" and "loop" work the same way)
+ *   after 0.5 pulse                     # an action run once 0.5 seconds have passed in the state
+ *   transition hasPiece -> TRANSFER exit retract
+ *   timed 3 -> RECOVER                  # a transition taken after 3 seconds
+ *   minimum 0.25                        # no transition before 0.25 seconds; "minimum 0.25 1 2" only holds back transitions 1 and 2
+ * </pre>
+ * The target ("-> NAME") and the exit action ("exit NAME") of a transition are optional; without a target the machine moves on in linear order.
+ * Indentation is optional. Names cannot contain whitespace or '#'.
+ */
+final class MachineText {
+    private MachineText() {
+    }
+
+    /**
+     * Parses the text form.
+     * @param text The definition.
+     * @return Returns the definition it holds.
+     * @throws DefinitionFormatException If the text has a syntax error, with its line number.
+     */
+    static MachineSpec parse(String text) {
+        MachineSpec spec = new MachineSpec();
+        MachineSpec.StateSpec state = null;
+        String[] lines = text.split("\r?\n", -1);
+
+        for (int l = 0; l < lines.length; l++) {
+            String line = lines[l];
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            String[] tokens = line.split("\\s+");
+            String directive = tokens[0];
+            try {
+                if (directive.equals("state") || directive.equals("failsafe")) {
+                    expect(tokens, 2);
+                    state = new MachineSpec.StateSpec(tokens[1], directive.equals("failsafe"));
+                    spec.states.add(state);
+                    continue;
+                }
+                if (state == null) throw new IllegalArgumentException("\"" + directive + "\" must follow a state");
+
+                switch (directive) {
+                    case "enter":
+                        expect(tokens, 2);
+                        state.enterActions.add(tokens[1]);
+                        break;
+                    case "exit":
+                        expect(tokens, 2);
+                        state.exitActions.add(tokens[1]);
+                        break;
+                    case "loop":
+                        expect(tokens, 2);
+                        state.loopActions.add(tokens[1]);
+                        break;
+                    case "after":
+                        expect(tokens, 3);
+                        state.timedActions.add(new MachineSpec.TimedActionSpec(seconds(tokens[1]), tokens[2]));
+                        break;
+                    case "transition":
+                        state.transitions.add(transition(tokens, tokens[1], Double.NaN));
+                        break;
+                    case "timed":
+                        state.transitions.add(transition(tokens, null, seconds(tokens[1])));
+                        break;
+                    case "minimum":
+                        minimum(state, tokens);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown directive \"" + directive + "\"");
+                }
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                String reason = e instanceof ArrayIndexOutOfBoundsException ? "\"" + directive + "\" is incomplete" : e.getMessage();
+                throw new DefinitionFormatException("Line " + (l + 1) + ": " + reason, e);
+            }
+        }
+
+        return spec;
+    }
+
+    /**
+     * Writes the text form.
+     * @param spec The definition.
+     * @return Returns the text, which parse() reads back into the same definition.
+     */
+    static String format(MachineSpec spec) {
+        StringBuilder text = new StringBuilder();
+        for (MachineSpec.StateSpec state : spec.states) {
+            text.append(state.failsafe ? "failsafe " : "state ").append(state.name).append('\n');
+            for (String action : state.enterActions) text.append("  enter ").append(action).append('\n');
+            for (String action : state.exitActions) text.append("  exit ").append(action).append('\n');
+            for (String action : state.loopActions) text.append("  loop ").append(action).append('\n');
+            for (MachineSpec.TimedActionSpec timed : state.timedActions) {
+                text.append("  after ").append(number(timed.seconds)).append(' ').append(timed.action).append('\n');
+            }
+
+            for (MachineSpec.TransitionSpec transition : state.transitions) {
+                if (transition.condition != null) text.append("  transition ").append(transition.condition);
+                else text.append("  timed ").append(number(transition.seconds));
+                if (transition.target != null) text.append(" -> ").append(transition.target);
+                if (transition.exitAction != null) text.append(" exit ").append(transition.exitAction);
+                text.append('\n');
+            }
+
+            if (!Double.isNaN(state.minimum)) text.append("  minimum ").append(number(state.minimum)).append('\n');
+            for (int t = 0; t < state.transitions.size(); t++) {
+                double minimum = state.transitions.get(t).minimum;
+                if (!Double.isNaN(minimum)) text.append("  minimum ").append(number(minimum)).append(' ').append(t + 1).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads the optional "-> TARGET" and "exit ACTION" that follow the condition or duration of a transition.
+     */
+    private static MachineSpec.TransitionSpec transition(String[] tokens, String condition, double seconds) {
+        int next = 2;
+        String target = null;
+        String exitAction = null;
+        if (next < tokens.length && tokens[next].equals("->")) {
+            target = tokens[next + 1];
+            next += 2;
+        }
+        if (next < tokens.length && tokens[next].equals("exit")) {
+            exitAction = tokens[next + 1];
+            next += 2;
+        }
+        if (next != tokens.length) throw new IllegalArgumentException("Unexpected \"" + tokens[next] + "\"");
+
+        return new MachineSpec.TransitionSpec(condition, seconds, target, exitAction);
+    }
+
+    private static void minimum(MachineSpec.StateSpec state, String[] tokens) {
+        double seconds = seconds(tokens[1]);
+        if (tokens.length == 2) {
+            state.minimum = seconds;
+            return;
+        }
+
+        for (int i = 2; i < tokens.length; i++) {
+            int transition = Integer.parseInt(tokens[i]);
+            if (transition < 1 || transition > state.transitions.size()) {
+                throw new IllegalArgumentException("State " + state.name + " has no transition " + transition);
+            }
+            state.transitions.get(transition - 1).minimum = seconds;
+        }
+    }
+
+    private static void expect(String[] tokens, int count) {
+        if (tokens.length != count) throw new IllegalArgumentException("\"" + tokens[0] + "\" takes " + (count - 1) + " argument" + (count == 2 ? "" : "s"));
+    }
+
+    private static double seconds(String token) {
+        double seconds = Double.parseDouble(token); // a NumberFormatException is an IllegalArgumentException
+        if (!(seconds >= 0) || Double.isInfinite(seconds)) throw new IllegalArgumentException("Invalid duration " + token);
+        return seconds;
+    }
+
+    private static String number(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+}
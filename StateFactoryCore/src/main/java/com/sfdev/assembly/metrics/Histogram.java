@@ -0,0 +1,182 @@
+package com.sfdev.assembly.metrics;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket histogram of non-negative values, such as durations in nanoseconds.
+ * Every power of two is split into four buckets, so a value is known to within 25% while the whole range of a long
+ * fits in a few hundred preallocated counters. Recording is lock-free and any number of threads can record at once.
+ * Like a LongAdder, the counters start as a single stripe and grow more stripes the first times two threads collide on one, up to one
+ * per processor, so threads that record at once mostly write to stripes of their own. Recording allocates nothing once the stripes have grown.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * The number of buckets.
+     */
+    public static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    // the slot after the buckets of a stripe holds the largest value recorded into the stripe
+    private static final int MAX = BUCKETS;
+    private static final int MAX_STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    // a power-of-two number of stripes; each thread records into the stripe its id hashes to
+    private volatile AtomicLongArray[] stripes = { new AtomicLongArray(BUCKETS + 1) };
+
+    /**
+     * Records a value.
+     * @param value The value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        int bucket = bucketOf(value);
+
+        AtomicLongArray[] stripes = this.stripes;
+        AtomicLongArray stripe = stripes[stripeOf(Thread.currentThread().getId()) & (stripes.length - 1)];
+        long count = stripe.get(bucket);
+        if (!stripe.compareAndSet(bucket, count, count + 1)) { // another thread records into the same stripe
+            grow(stripes);
+            stripe.incrementAndGet(bucket);
+        }
+
+        long current;
+        while (value > (current = stripe.get(MAX)) && !stripe.compareAndSet(MAX, current, value)) ;
+    }
+
+    /**
+     * @return Returns the number of recorded values.
+     */
+    public long count() {
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int b = 0; b < BUCKETS; b++) count += stripe.get(b);
+        }
+        return count;
+    }
+
+    /**
+     * @return Returns the largest recorded value, or 0 if nothing was recorded.
+     */
+    public long max() {
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) max = Math.max(max, stripe.get(MAX));
+        return max;
+    }
+
+    /**
+     * Estimates a percentile.
+     * @param percentile The percentile, from 0 to 100.
+     * @return Returns the upper bound of the bucket that holds the percentile, capped at the largest recorded value, or 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) total += snapshot[b] = bucketCount(b);
+        if (total == 0) return 0;
+
+        long max = max();
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += snapshot[b];
+            if (seen >= rank) return Math.min(upperBound(b), max);
+        }
+        return max;
+    }
+
+    /**
+     * Gets the number of values in a bucket.
+     * @param bucket The index of the bucket.
+     * @return Returns the count of the bucket.
+     */
+    public long bucketCount(int bucket) {
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) count += stripe.get(bucket);
+        return count;
+    }
+
+    /**
+     * Gets the smallest value a bucket holds.
+     * @param bucket The index of the bucket.
+     * @return Returns the lower bound of the bucket.
+     */
+    public static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long mantissa = SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1));
+        return mantissa << shift;
+    }
+
+    /**
+     * Gets the largest value a bucket holds.
+     * @param bucket The index of the bucket.
+     * @return Returns the upper bound of the bucket.
+     */
+    public static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+
+    /**
+     * Finds the bucket of a value.
+     * @param value A non-negative value.
+     * @return Returns the index of the bucket.
+     */
+    public static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Clears every count.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int b = 0; b <= MAX; b++) stripe.set(b, 0);
+        }
+    }
+
+    /**
+     * @return Returns the count and the main percentiles, with values read as nanoseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "n=%d p50=%s p90=%s p99=%s max=%s", count(),
+                formatNanos(percentile(50)), formatNanos(percentile(90)), formatNanos(percentile(99)), formatNanos(max()));
+    }
+
+    /**
+     * Doubles the stripes, unless another thread already did or there is a stripe per processor.
+     * @param seen The stripes the caller collided on.
+     */
+    private synchronized void grow(AtomicLongArray[] seen) {
+        if (stripes != seen || seen.length >= MAX_STRIPES) return;
+
+        AtomicLongArray[] grown = Arrays.copyOf(seen, seen.length * 2);
+        for (int s = seen.length; s < grown.length; s++) grown[s] = new AtomicLongArray(BUCKETS + 1);
+        stripes = grown;
+    }
+
+    private static int stripeOf(long threadId) {
+        int hash = (int) (threadId ^ threadId >>> 32) * 0x9E3779B9; // spreads the consecutive ids of threads over the stripes
+        return hash ^ hash >>> 16;
+    }
+
+    /**
+     * Formats a duration with a unit that keeps it short.
+     * @param nanos The duration in nanoseconds.
+     * @return Returns the formatted duration.
+     */
+    public static String formatNanos(long nanos) {
+        if (nanos < 10_000L) return nanos + "ns";
+        if (nanos < 10_000_000L) return String.format(Locale.ROOT, "%.1fus", nanos / 1e3);
+        if (nanos < 10_000_000_000L) return String.format(Locale.ROOT, "%.1fms", nanos / 1e6);
+        return String.format(Locale.ROOT, "%.1fs", nanos / 1e9);
+    }
+}
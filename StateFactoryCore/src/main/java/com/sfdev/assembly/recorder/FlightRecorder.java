@@ -0,0 +1,153 @@
+package com.sfdev.assembly.recorder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size ring buffer of the last transitions of one machine, kept as primitives in a single preallocated atomic int array.
+ * Recording a transition is a handful of ordered array stores and allocates nothing, so a recorder can stay on in production;
+ * once the ring is full, every new transition overwrites the oldest one.
+ * Only the machine's updating thread records. Any thread can dump the ring while it records: records that may have been
+ * overwritten during the copy are left out of the dump. Every slot of the ring is written with release semantics and read with acquire
+ * semantics, so a dumping thread that sees a slot of a newer record also sees the count published before that record was written,
+ * even on processors that reorder plain loads and stores.
+ */
+public final class FlightRecorder {
+    /**
+     * The transition was picked by a polled condition; the index is the transition's index within its state.
+     */
+    public static final int CONDITION = 0;
+    /**
+     * The transition was fired by an event; the index is the event's id.
+     */
+    public static final int EVENT = 1;
+    /**
+     * The state's async actions completed.
+     */
+    public static final int COMPLETE = 2;
+    /**
+     * One of the state's async actions failed.
+     */
+    public static final int FAILURE = 3;
+    /**
+     * The machine was moved by setState().
+     */
+    public static final int SET_STATE = 4;
+    /**
+     * The machine was moved by reset().
+     */
+    public static final int RESET = 5;
+
+    /**
+     * Default number of records kept.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    static final int MAGIC = 0x53464652; // "SFFR"
+    static final int VERSION = 1;
+    static final int CAUSE_MASK = 0x7;
+    static final int EXIT_ACTION = 0x8;
+
+    // time (high, low), from, to, index, cause and exit action flag
+    private static final int RECORD_INTS = 6;
+
+    private final AtomicIntegerArray ring;
+    private final int mask;
+    private long count = 0; // only touched by the recording thread
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * Creates a recorder that keeps the default number of records.
+     */
+    public FlightRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a recorder.
+     * @param capacity The minimum number of records kept. Rounded up to a power of two.
+     */
+    public FlightRecorder(int capacity) {
+        if (capacity < 2 || capacity > 1 << 24) throw new IllegalArgumentException("Capacity must be between 2 and 2^24");
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+
+        mask = size - 1;
+        ring = new AtomicIntegerArray(size * RECORD_INTS);
+    }
+
+    /**
+     * Records a transition. Must only be called from the machine's updating thread.
+     * @param time The time of the transition in nanoseconds of the machine's TimeSource.
+     * @param from The index of the state that was left.
+     * @param to The index of the state that was entered.
+     * @param cause What moved the machine, for example CONDITION or EVENT.
+     * @param index The transition index or event id, depending on the cause.
+     * @param exitAction Whether the transition had an exit action of its own.
+     */
+    public void record(long time, int from, int to, int cause, int index, boolean exitAction) {
+        long n = count;
+        int base = (int) (n & mask) * RECORD_INTS;
+        ring.lazySet(base, (int) (time >>> 32));
+        ring.lazySet(base + 1, (int) time);
+        ring.lazySet(base + 2, from);
+        ring.lazySet(base + 3, to);
+        ring.lazySet(base + 4, index);
+        ring.lazySet(base + 5, cause | (exitAction ? EXIT_ACTION : 0));
+
+        count = n + 1;
+        published.lazySet(n + 1); // publishes the record to dumping threads
+    }
+
+    /**
+     * @return Returns the number of records the ring keeps.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return Returns the number of transitions recorded so far, including the ones that have been overwritten.
+     */
+    public long getRecordedCount() {
+        return published.get();
+    }
+
+    /**
+     * Writes the records in the ring to a compact binary dump that FlightRecording can read, oldest first.
+     * @param out The stream to write to. It is not closed.
+     * @param stateNames The name of every state, indexed by state index.
+     * @param eventNames The name of every event, indexed by event id.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void dump(OutputStream out, String[] stateNames, String[] eventNames) throws IOException {
+        long before = published.get();
+        int[] copy = new int[ring.length()];
+        for (int i = 0; i < copy.length; i++) copy[i] = ring.get(i); // acquiring loads, so none of them moves past the read of after
+        long after = published.get();
+
+        // only records finished before the copy started, and not overwritten while it ran (including by a record still being written), are kept;
+        // so a dump of a full ring holds one record less than its capacity
+        long first = Math.min(before, Math.max(0, after + 1 - capacity()));
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeLong(before);
+        data.writeInt(stateNames.length);
+        for (String name : stateNames) data.writeUTF(name);
+        data.writeInt(eventNames.length);
+        for (String name : eventNames) data.writeUTF(name);
+
+        data.writeInt((int) (before - first));
+        for (long n = first; n < before; n++) {
+            int base = (int) (n & mask) * RECORD_INTS;
+            for (int i = 0; i < RECORD_INTS; i++) data.writeInt(copy[base + i]);
+        }
+        data.flush();
+    }
+}
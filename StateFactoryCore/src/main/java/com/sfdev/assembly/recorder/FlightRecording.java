@@ -0,0 +1,173 @@
+package com.sfdev.assembly.recorder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * A flight recorder dump read back into memory. Also runnable on its own to print a dump file:
+ * java com.sfdev.assembly.recorder.FlightRecording machine.sffr
+ */
+public final class FlightRecording {
+    private static final String[] CAUSES = {"condition", "event", "complete", "failure", "setState", "reset"};
+
+    private final long recordedCount;
+    private final String[] stateNames;
+    private final String[] eventNames;
+    private final long[] times;
+    private final int[] from;
+    private final int[] to;
+    private final int[] index;
+    private final int[] flags;
+
+    private FlightRecording(long recordedCount, String[] stateNames, String[] eventNames, int size) {
+        this.recordedCount = recordedCount;
+        this.stateNames = stateNames;
+        this.eventNames = eventNames;
+        times = new long[size];
+        from = new int[size];
+        to = new int[size];
+        index = new int[size];
+        flags = new int[size];
+    }
+
+    /**
+     * Reads a dump written by FlightRecorder.dump().
+     * @param in The stream to read from. It is not closed.
+     * @return Returns the recording.
+     * @throws IOException If the stream cannot be read or does not hold a flight recorder dump.
+     */
+    public static FlightRecording read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != FlightRecorder.MAGIC) throw new IOException("Not a flight recorder dump");
+        int version = data.readUnsignedShort();
+        if (version != FlightRecorder.VERSION) throw new IOException("Unsupported flight recorder dump version " + version);
+
+        long recordedCount = data.readLong();
+        String[] stateNames = new String[data.readInt()];
+        for (int i = 0; i < stateNames.length; i++) stateNames[i] = data.readUTF();
+        String[] eventNames = new String[data.readInt()];
+        for (int i = 0; i < eventNames.length; i++) eventNames[i] = data.readUTF();
+
+        FlightRecording recording = new FlightRecording(recordedCount, stateNames, eventNames, data.readInt());
+        for (int r = 0; r < recording.size(); r++) {
+            recording.times[r] = (long) data.readInt() << 32 | (data.readInt() & 0xFFFFFFFFL);
+            recording.from[r] = data.readInt();
+            recording.to[r] = data.readInt();
+            recording.index[r] = data.readInt();
+            recording.flags[r] = data.readInt();
+        }
+
+        return recording;
+    }
+
+    /**
+     * @return Returns the number of records in the dump, oldest first.
+     */
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * @return Returns how many transitions the machine had recorded when the dump was taken, including the ones no longer in the ring.
+     */
+    public long getRecordedCount() {
+        return recordedCount;
+    }
+
+    /**
+     * @param record The index of the record.
+     * @return Returns the time of the transition in nanoseconds of the machine's TimeSource.
+     */
+    public long getTime(int record) {
+        return times[record];
+    }
+
+    /**
+     * @param record The index of the record.
+     * @return Returns the index of the state that was left.
+     */
+    public int getFrom(int record) {
+        return from[record];
+    }
+
+    /**
+     * @param record The index of the record.
+     * @return Returns the index of the state that was entered.
+     */
+    public int getTo(int record) {
+        return to[record];
+    }
+
+    /**
+     * @param record The index of the record.
+     * @return Returns what moved the machine, one of the cause constants of FlightRecorder.
+     */
+    public int getCause(int record) {
+        return flags[record] & FlightRecorder.CAUSE_MASK;
+    }
+
+    /**
+     * @param record The index of the record.
+     * @return Returns the transition index or event id, depending on the cause.
+     */
+    public int getIndex(int record) {
+        return index[record];
+    }
+
+    /**
+     * @param record The index of the record.
+     * @return Returns whether the transition had an exit action of its own.
+     */
+    public boolean hasExitAction(int record) {
+        return (flags[record] & FlightRecorder.EXIT_ACTION) != 0;
+    }
+
+    /**
+     * @param state The index of a state.
+     * @return Returns the name of the state.
+     */
+    public String getStateName(int state) {
+        return state >= 0 && state < stateNames.length ? stateNames[state] : "#" + state;
+    }
+
+    /**
+     * @return Returns one line per record, oldest first, with times relative to the oldest record.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(size()).append(" of ").append(recordedCount).append(" transitions\n");
+        for (int r = 0; r < size(); r++) {
+            report.append(String.format(Locale.ROOT, "%12.6fs  %s -> %s  %s", (times[r] - times[0]) / 1e9, getStateName(from[r]), getStateName(to[r]), describeCause(r)));
+            if (hasExitAction(r)) report.append(" +exitAction");
+            report.append('\n');
+        }
+        return report.toString();
+    }
+
+    private String describeCause(int record) {
+        int cause = getCause(record);
+        String name = cause < CAUSES.length ? CAUSES[cause] : "cause " + cause;
+        if (cause == FlightRecorder.CONDITION) return name + " " + index[record];
+        if (cause == FlightRecorder.EVENT) return name + " " + (index[record] < eventNames.length ? eventNames[index[record]] : "#" + index[record]);
+        return name;
+    }
+
+    /**
+     * Prints the dump files given as arguments.
+     * @param args The paths of the dump files.
+     * @throws IOException If a file cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        for (String path : args) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+                System.out.println(path + ":");
+                System.out.print(read(in));
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.sfdev.assembly.signal;
+
+/**
+ * A signal holding a boolean, for switches and flags.
+ */
+public final class BooleanSignal extends Signal {
+    private volatile boolean value;
+
+    /**
+     * Creates a signal.
+     * @param initial The initial value.
+     */
+    public BooleanSignal(boolean initial) {
+        this.value = initial;
+    }
+
+    /**
+     * @return Returns the current value.
+     */
+    public boolean get() {
+        return value;
+    }
+
+    /**
+     * Writes a value.
+     * @param value The new value. Writing the current value does not count as a change.
+     */
+    public synchronized void set(boolean value) {
+        if (this.value == value) return;
+
+        this.value = value;
+        changed();
+    }
+}
@@ -0,0 +1,34 @@
+package com.sfdev.assembly.signal;
+
+/**
+ * A signal holding a double, for sensor readings and other numbers, without boxing.
+ */
+public final class DoubleSignal extends Signal {
+    private volatile double value;
+
+    /**
+     * Creates a signal.
+     * @param initial The initial value.
+     */
+    public DoubleSignal(double initial) {
+        this.value = initial;
+    }
+
+    /**
+     * @return Returns the current value.
+     */
+    public double get() {
+        return value;
+    }
+
+    /**
+     * Writes a value.
+     * @param value The new value. Writing the current value does not count as a change.
+     */
+    public synchronized void set(double value) {
+        if (Double.doubleToLongBits(this.value) == Double.doubleToLongBits(value)) return;
+
+        this.value = value;
+        changed();
+    }
+}
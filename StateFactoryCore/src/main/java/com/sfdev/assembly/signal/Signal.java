@@ -0,0 +1,24 @@
+package com.sfdev.assembly.signal;
+
+/**
+ * A value that conditions can declare as an input, see SignalCondition. Every write that changes the value bumps the signal's version,
+ * which is all a SignalCondition looks at to decide whether it has to be evaluated again.
+ * A signal can be read from any thread. Writes are serialized, so several threads may write it.
+ */
+public abstract class Signal {
+    private volatile long version = 0;
+
+    /**
+     * @return Returns the number of times the value has changed. Never decreases.
+     */
+    public final long getVersion() {
+        return version;
+    }
+
+    /**
+     * Marks the value as changed. Must be called by subclasses after the new value has been stored, while holding the signal's lock.
+     */
+    protected final void changed() {
+        version = version + 1; // writers hold the lock, so the increment cannot be lost
+    }
+}
@@ -0,0 +1,55 @@
+package com.sfdev.assembly.signal;
+
+import com.sfdev.assembly.transition.TransitionCondition;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TransitionCondition that only depends on the signals it declares. It is evaluated again only after one of those signals
+ * has been written since its last evaluation; until then the last result is returned without calling the condition.
+ * The condition must not read anything that is not one of its input signals, or changes to that input go unnoticed.
+ * Can be shared by any number of transitions and machines, on any thread.
+ */
+public final class SignalCondition implements TransitionCondition {
+    private final TransitionCondition condition;
+    private final Signal[] inputs;
+    // the sum of the input versions the result was computed for, shifted left by one, with the result in the lowest bit;
+    // versions only grow, so a larger sum is always a newer result
+    private final AtomicLong result = new AtomicLong(-1);
+
+    private SignalCondition(TransitionCondition condition, Signal[] inputs) {
+        this.condition = condition;
+        this.inputs = inputs;
+    }
+
+    /**
+     * Declares the inputs of a condition.
+     * Example:
+     * ".transition(SignalCondition.of(() -> distance.get() < 0.1, distance), State.STOP)"
+     * @param condition The condition. May only read the given signals.
+     * @param inputs The signals the condition reads.
+     * @return Returns a condition that is only evaluated after one of its inputs changed.
+     */
+    public static SignalCondition of(TransitionCondition condition, Signal... inputs) {
+        if (inputs.length == 0) throw new IllegalArgumentException("A SignalCondition needs at least one input signal");
+        return new SignalCondition(condition, inputs.clone());
+    }
+
+    @Override
+    public boolean shouldTransition() {
+        long stamp = 0;
+        for (Signal input : inputs) stamp += input.getVersion(); // read before the condition, so the result is at least this new
+
+        long last = result.get();
+        if (last != -1 && last >>> 1 == stamp) return (last & 1) != 0;
+
+        boolean value = condition.shouldTransition();
+        long packed = stamp << 1 | (value ? 1 : 0);
+        // a thread that evaluated for older inputs must not overwrite a newer result
+        while (last == -1 || last >>> 1 < stamp) {
+            if (result.compareAndSet(last, packed)) break;
+            last = result.get();
+        }
+        return value;
+    }
+}
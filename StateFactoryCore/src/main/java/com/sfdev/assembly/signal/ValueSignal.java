@@ -0,0 +1,36 @@
+package com.sfdev.assembly.signal;
+
+/**
+ * A signal holding an object. Values are compared with equals(), so writing an equal value does not count as a change.
+ * @param <T> The type of the value.
+ */
+public final class ValueSignal<T> extends Signal {
+    private volatile T value;
+
+    /**
+     * Creates a signal.
+     * @param initial The initial value, may be null.
+     */
+    public ValueSignal(T initial) {
+        this.value = initial;
+    }
+
+    /**
+     * @return Returns the current value.
+     */
+    public T get() {
+        return value;
+    }
+
+    /**
+     * Writes a value.
+     * @param value The new value, may be null.
+     */
+    public synchronized void set(T value) {
+        T old = this.value;
+        if (old == value || (old != null && old.equals(value))) return;
+
+        this.value = value;
+        changed();
+    }
+}
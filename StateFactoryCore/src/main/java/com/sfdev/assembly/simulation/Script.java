@@ -0,0 +1,65 @@
+package com.sfdev.assembly.simulation;
+
+import com.sfdev.assembly.state.StateMachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A scripted trace of inputs for a Simulation, each applied at a point in simulated time.
+ * Inputs run in time order, and inputs at the same time run in the order they were added. They run just before the machine's update at that time.
+ */
+public class Script {
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * Runs an action at a point in simulated time, for example to change a value that a transition condition reads.
+     * @param seconds The simulated time in seconds since the start of the simulation.
+     * @param action The action to run.
+     */
+    public Script at(double seconds, Runnable action) {
+        return at(seconds, machine -> action.run());
+    }
+
+    /**
+     * Runs an action on the simulated machine at a point in simulated time.
+     * @param seconds The simulated time in seconds since the start of the simulation.
+     * @param action The action to run, given the machine being simulated.
+     */
+    public Script at(double seconds, Consumer<StateMachine> action) {
+        if (seconds < 0) throw new IllegalArgumentException("Script steps cannot happen before the simulation starts");
+        steps.add(new Step((long) (seconds * 1e9), action));
+
+        return this;
+    }
+
+    /**
+     * Fires an event at the simulated machine at a point in simulated time.
+     * @param seconds The simulated time in seconds since the start of the simulation.
+     * @param event The event to fire.
+     */
+    public Script fire(double seconds, Enum<?> event) {
+        return at(seconds, machine -> machine.fire(event));
+    }
+
+    /**
+     * @return Returns the steps sorted by time, keeping the order of steps at the same time.
+     */
+    List<Step> sortedSteps() {
+        List<Step> sorted = new ArrayList<>(steps);
+        Collections.sort(sorted, (a, b) -> Long.compare(a.at, b.at));
+        return sorted;
+    }
+
+    static final class Step {
+        final long at;
+        final Consumer<StateMachine> action;
+
+        Step(long at, Consumer<StateMachine> action) {
+            this.at = at;
+            this.action = action;
+        }
+    }
+}
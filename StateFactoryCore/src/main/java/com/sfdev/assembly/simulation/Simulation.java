@@ -0,0 +1,133 @@
+package com.sfdev.assembly.simulation;
+
+import com.sfdev.assembly.state.StateMachine;
+import com.sfdev.assembly.state.StateMachineDefinition;
+import com.sfdev.assembly.timing.ManualTimeSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs a machine on a virtual clock instead of in real time.
+ * While the machine polls conditions it is updated once per loop period of simulated time, like a real control loop.
+ * While only a deadline can move it on (see StateMachine.isWaitingForDeadline()) the clock jumps straight to that deadline,
+ * so a long wait state costs a single update. Script inputs are applied at their exact simulated time.
+ * Every run builds a fresh machine and clock, so a simulation can be run again and gives the same timeline as long as its callbacks are deterministic.
+ * Simulations share nothing with each other, so many can run in parallel; callbacks that keep state must not be shared between them.
+ */
+public class Simulation implements Callable<Timeline> {
+    /**
+     * Default loop period: 20 milliseconds.
+     */
+    public static final double DEFAULT_PERIOD = 0.02;
+
+    private final StateMachineDefinition definition;
+    private final long duration;
+    private long period = (long) (DEFAULT_PERIOD * 1e9);
+    private Script script = new Script();
+
+    /**
+     * Creates a simulation.
+     * @param definition The definition of the machine to simulate.
+     * @param seconds How long to simulate, in seconds of simulated time.
+     */
+    public Simulation(StateMachineDefinition definition, double seconds) {
+        if (seconds < 0) throw new IllegalArgumentException("Simulation length cannot be negative");
+        this.definition = definition;
+        this.duration = (long) (seconds * 1e9);
+    }
+
+    /**
+     * Sets the simulated time between updates while the machine polls conditions.
+     * @param seconds The loop period in seconds. Must be positive.
+     */
+    public Simulation period(double seconds) {
+        long nanos = (long) (seconds * 1e9);
+        if (nanos < 1) throw new IllegalArgumentException("Loop period must be positive");
+        this.period = nanos;
+
+        return this;
+    }
+
+    /**
+     * Sets the inputs applied during the simulation.
+     * @param script The scripted trace.
+     */
+    public Simulation script(Script script) {
+        this.script = script;
+
+        return this;
+    }
+
+    /**
+     * Starts a fresh machine at simulated time 0 and runs it until it stops and no input is left, or until the simulation length is reached.
+     * @return Returns the timeline of the run.
+     */
+    public Timeline run() {
+        ManualTimeSource clock = new ManualTimeSource();
+        StateMachine machine = definition.newInstance(clock);
+        List<Script.Step> steps = script.sortedSteps();
+        Timeline timeline = new Timeline();
+
+        machine.start();
+        int lastState = machine.getStateIndex();
+        timeline.enter(0, lastState, definition.getStateName(lastState));
+
+        int next = 0;
+        long updates = 0;
+        long now = 0;
+        for (;;) {
+            while (next < steps.size() && steps.get(next).at <= now) steps.get(next++).action.accept(machine);
+            lastState = observe(machine, now, lastState, timeline); // inputs may have moved the machine
+
+            machine.update(now);
+            updates++;
+            lastState = observe(machine, now, lastState, timeline);
+
+            long wake;
+            if (!machine.isRunning()) {
+                wake = Long.MAX_VALUE; // only an input can start it again
+            } else if (machine.isWaitingForDeadline()) {
+                wake = machine.getNextDeadline();
+            } else {
+                wake = now + period;
+            }
+            if (next < steps.size()) wake = Math.min(wake, steps.get(next).at);
+
+            if (wake == Long.MAX_VALUE) break;
+            if (wake > duration) {
+                now = duration;
+                break;
+            }
+
+            clock.set(wake);
+            now = wake;
+        }
+
+        timeline.finish(now, machine.isRunning() ? Timeline.STILL_RUNNING : now, updates);
+        return timeline;
+    }
+
+    @Override
+    public Timeline call() {
+        return run();
+    }
+
+    /**
+     * Runs simulations in parallel on the common fork-join pool.
+     * @param simulations The simulations to run.
+     * @return Returns the timelines, in the same order as the simulations.
+     */
+    public static List<Timeline> runAll(List<Simulation> simulations) {
+        List<Timeline> timelines = new ArrayList<>(simulations.size());
+        simulations.parallelStream().map(Simulation::run).forEachOrdered(timelines::add);
+        return timelines;
+    }
+
+    private static int observe(StateMachine machine, long now, int lastState, Timeline timeline) {
+        int state = machine.getStateIndex();
+        if (state != lastState) timeline.enter(now, state, machine.getDefinition().getStateName(state));
+        return state;
+    }
+}
@@ -0,0 +1,136 @@
+package com.sfdev.assembly.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The result of a Simulation: every state the machine was in and the simulated time it got there.
+ */
+public class Timeline {
+    /**
+     * Stored as the stop time when the machine was still running at the end of the simulation.
+     */
+    public static final long STILL_RUNNING = -1;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long stoppedAt = STILL_RUNNING;
+    private long endNanos = 0;
+    private long updates = 0;
+
+    /**
+     * One state of the timeline.
+     */
+    public static final class Entry {
+        private final long nanos;
+        private final int stateIndex;
+        private final String state;
+
+        Entry(long nanos, int stateIndex, String state) {
+            this.nanos = nanos;
+            this.stateIndex = stateIndex;
+            this.state = state;
+        }
+
+        /**
+         * @return Returns the simulated time the machine entered the state, in nanoseconds.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return Returns the simulated time the machine entered the state, in seconds.
+         */
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        /**
+         * @return Returns the index of the state in the machine's definition.
+         */
+        public int getStateIndex() {
+            return stateIndex;
+        }
+
+        /**
+         * @return Returns the name of the state in string form.
+         */
+        public String getState() {
+            return state;
+        }
+    }
+
+    void enter(long nanos, int stateIndex, String state) {
+        entries.add(new Entry(nanos, stateIndex, state));
+    }
+
+    void finish(long endNanos, long stoppedAt, long updates) {
+        this.endNanos = endNanos;
+        this.stoppedAt = stoppedAt;
+        this.updates = updates;
+    }
+
+    /**
+     * @return Returns every state change in time order. The first entry is the state the machine started in.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Finds the state the machine was in at a point in simulated time.
+     * @param seconds The simulated time in seconds.
+     * @return Returns the name of the state, or null if the time is before the start or after the end of the simulation.
+     */
+    public String getStateAt(double seconds) {
+        long nanos = (long) (seconds * 1e9);
+        if (nanos < 0 || nanos > endNanos) return null;
+
+        String state = null;
+        for (Entry entry : entries) {
+            if (entry.nanos > nanos) break;
+            state = entry.state;
+        }
+        return state;
+    }
+
+    /**
+     * @return Returns the simulated time the machine stopped at in nanoseconds, or STILL_RUNNING.
+     */
+    public long getStoppedAt() {
+        return stoppedAt;
+    }
+
+    /**
+     * @return Returns the simulated time the simulation ended at, in nanoseconds.
+     */
+    public long getEndNanos() {
+        return endNanos;
+    }
+
+    /**
+     * @return Returns how many times the machine was updated. Time spent waiting for a deadline costs a single update.
+     */
+    public long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * @return Returns a report with one line per state change.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (Entry entry : entries) line(report, entry.nanos, entry.state);
+        line(report, stoppedAt == STILL_RUNNING ? endNanos : stoppedAt, stoppedAt == STILL_RUNNING ? "(end)" : "(stopped)");
+        report.append(updates).append(" updates");
+
+        return report.toString();
+    }
+
+    private static void line(StringBuilder report, long nanos, String text) {
+        report.append(String.format(Locale.ROOT, "%12.3fs  ", nanos / 1e9)).append(text).append('\n');
+    }
+}
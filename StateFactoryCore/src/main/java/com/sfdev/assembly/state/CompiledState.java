@@ -0,0 +1,287 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.callbacks.AsyncCallback;
+import com.sfdev.assembly.callbacks.CallbackBase;
+import com.sfdev.assembly.callbacks.TimedCallback;
+import com.sfdev.assembly.transition.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Immutable, flattened copy of a State that a StateMachineDefinition hands to every StateMachine built from it.
+ * Every list is copied into an array and every TransitionTimed and TimedCallback is reduced to a duration in nanoseconds,
+ * so update() never creates an iterator or re-checks types, and no runtime data lives here.
+ */
+final class CompiledState {
+    /**
+     * Stored in place of a duration when the condition is not timed.
+     */
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private static final CallbackBase[] NO_CALLBACKS = new CallbackBase[0];
+
+    // null for an anonymous state until its name is first asked for, see name()
+    private String name;
+    // the id of an anonymous state, or -1
+    final int anonymousId;
+    final Enum<?> nameEnum;
+    final CallbackBase[] enterActions;
+    final CallbackBase[] exitActions;
+    final CallbackBase[] loopActions;
+    final boolean hasLoopActions;
+
+    // timed actions, sorted by ascending time
+    final long[] timedActionNanos;
+    final CallbackBase[] timedActions;
+
+    // conditions[t] is null when transition t is timed, in which case conditionNanos[t] holds its duration
+    final TransitionCondition[] conditions;
+    final long[] conditionNanos;
+    final TransitionCondition[] minimums;
+    final long[] minimumNanos;
+    final CallbackBase[] transitionExitActions;
+    final int[] targets;
+
+    final TransitionCondition minTransition;
+    final long minTransitionNanos;
+
+    // indexed by event id; null when the state has no event transitions
+    final int[] eventTargets;
+    final CallbackBase[] eventExitActions;
+
+    // the child machines of a composite state, one per region, or null
+    final StateMachineDefinition[] regions;
+
+    // started when the state is entered, or null; the outcome transitions are NOT_HANDLED when absent
+    final AsyncCallback[] asyncActions;
+    final int completeTarget;
+    final CallbackBase completeExitAction;
+    final int failureTarget;
+    final CallbackBase failureExitAction;
+
+    // every distinct duration of the state's timed actions and timed conditions, sorted ascending
+    final long[] deadlines;
+    // true when only the passing of a deadline can make the state do anything after it has been entered
+    final boolean timeDriven;
+    // true when the machine stops in this state once its timed actions have run and its regions have stopped
+    final boolean stopsWhenDone;
+    // the specialized check of the state's transitions in a compiled definition, or null for the general loop
+    final TransitionGuard guard;
+
+    /**
+     * Compiles a state.
+     * @param state The state to copy.
+     * @param targets The resolved target state index of each of the state's transitions.
+     * @param eventTargets The target state index for each event id, or null if the state has no event transitions.
+     * @param eventExitActions The exit action of the transition that handles each event id, or null if the state has no event transitions.
+     * @param completeTarget The target state index once the async actions complete, or NOT_HANDLED.
+     * @param failureTarget The target state index once an async action fails, or NOT_HANDLED.
+     * @param compiled Whether to specialize the check of the state's transitions.
+     * @param memo Remembers the result of every polled condition for a cycle, or null.
+     * @param shared The arrays already compiled from the lists of other states of the definition.
+     */
+    CompiledState(State state, int[] targets, int[] eventTargets, CallbackBase[] eventExitActions, int completeTarget, int failureTarget,
+                  boolean compiled, ConditionMemo memo, SharedLists shared) {
+        anonymousId = state.getAnonymousId();
+        name = state.isAnonymous() ? null : state.getNameString();
+        nameEnum = state.getNameEnum();
+        enterActions = shared.callbacks(state.getEnterActions());
+        exitActions = shared.callbacks(state.getExitActions());
+        loopActions = shared.callbacks(state.getLoopActions());
+        hasLoopActions = state.getLoopActions() != null;
+
+        TimedActions timed = shared.timed(state.getTimedAction());
+        timedActionNanos = timed.nanos;
+        timedActions = timed.callbacks;
+
+        List<TransitionData> transitions = state.getTransitions();
+        conditions = new TransitionCondition[transitions.size()];
+        conditionNanos = new long[transitions.size()];
+        minimums = new TransitionCondition[transitions.size()];
+        minimumNanos = new long[transitions.size()];
+        transitionExitActions = new CallbackBase[transitions.size()];
+        for (int t = 0; t < conditions.length; t++) {
+            TransitionData transition = transitions.get(t);
+            conditions[t] = untimed(transition.getTransitionCondition(), memo);
+            conditionNanos[t] = nanosOf(transition.getTransitionCondition());
+            minimums[t] = untimed(transition.getMinimumTransition(), memo);
+            minimumNanos[t] = nanosOf(transition.getMinimumTransition());
+            transitionExitActions[t] = transition.getExitAction();
+        }
+        this.targets = targets;
+
+        minTransition = untimed(state.getMinTransition(), memo);
+        minTransitionNanos = nanosOf(state.getMinTransition());
+
+        this.eventTargets = eventTargets;
+        this.eventExitActions = eventExitActions;
+        regions = state.getRegions() == null ? null : state.getRegions().clone();
+
+        asyncActions = shared.async(state.getAsyncActions());
+        this.completeTarget = completeTarget;
+        completeExitAction = state.getCompleteTransition() == null ? null : state.getCompleteTransition().getExitAction();
+        this.failureTarget = failureTarget;
+        failureExitAction = state.getFailureTransition() == null ? null : state.getFailureTransition().getExitAction();
+
+        deadlines = collectDeadlines();
+        timeDriven = !hasLoopActions && eventTargets == null && regions == null && asyncActions == null && minTransition == null && allTimed(conditions, conditionNanos) && allTimed(minimums, null);
+        stopsWhenDone = conditions.length == 0 && !hasLoopActions && eventTargets == null
+                && completeTarget == StateMachineDefinition.NOT_HANDLED && failureTarget == StateMachineDefinition.NOT_HANDLED;
+        guard = compiled ? TransitionGuard.of(this) : null;
+    }
+
+    /**
+     * @return Returns the name of the state. An anonymous state's name is only made the first time it is asked for.
+     */
+    String name() {
+        String n = name;
+        if (n == null) name = n = State.ANONYMOUS_PREFIX + anonymousId; // threads that race here make equal strings
+        return n;
+    }
+
+    /**
+     * Gathers the durations of every timed item of the state.
+     */
+    private long[] collectDeadlines() {
+        long[] all = new long[timedActionNanos.length + conditionNanos.length + minimumNanos.length + 1];
+        int count = 0;
+        for (long nanos : timedActionNanos) all[count++] = nanos;
+        for (long nanos : conditionNanos) if (nanos != NOT_TIMED) all[count++] = nanos;
+        for (long nanos : minimumNanos) if (nanos != NOT_TIMED) all[count++] = nanos;
+        if (minTransitionNanos != NOT_TIMED) all[count++] = minTransitionNanos;
+
+        Arrays.sort(all, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || all[unique - 1] != all[i]) all[unique++] = all[i];
+        }
+
+        return Arrays.copyOf(all, unique);
+    }
+
+    private static boolean allTimed(TransitionCondition[] conditions, long[] nanos) {
+        for (int t = 0; t < conditions.length; t++) {
+            if (conditions[t] != null || (nanos != null && nanos[t] == NOT_TIMED)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks the state-wide minimum transition.
+     * @param elapsed Nanoseconds since the state's timers started.
+     * @return Returns whether the state is allowed to transition.
+     */
+    boolean minimumMet(long elapsed) {
+        if (minTransition != null) return minTransition.shouldTransition();
+        return minTransitionNanos == NOT_TIMED || elapsed >= minTransitionNanos;
+    }
+
+    /**
+     * Checks a transition's condition and then its own minimum transition, in the same order as TransitionData.shouldTransition().
+     * @param t The index of the transition.
+     * @param elapsed Nanoseconds since the state's timers started.
+     * @return Returns whether the transition should fire.
+     */
+    boolean shouldTransition(int t, long elapsed) {
+        return conditionMet(t, elapsed) && minimumMet(t, elapsed);
+    }
+
+    /**
+     * Checks a transition's own condition.
+     * @param t The index of the transition.
+     * @param elapsed Nanoseconds since the state's timers started.
+     * @return Returns whether the condition holds.
+     */
+    boolean conditionMet(int t, long elapsed) {
+        return conditions[t] != null ? conditions[t].shouldTransition() : elapsed >= conditionNanos[t];
+    }
+
+    /**
+     * Checks a transition's own minimum transition.
+     * @param t The index of the transition.
+     * @param elapsed Nanoseconds since the state's timers started.
+     * @return Returns whether the transition is allowed to fire.
+     */
+    boolean minimumMet(int t, long elapsed) {
+        if (minimums[t] != null) return minimums[t].shouldTransition();
+        return minimumNanos[t] == NOT_TIMED || elapsed >= minimumNanos[t];
+    }
+
+    private static TransitionCondition untimed(TransitionCondition condition, ConditionMemo memo) {
+        if (condition instanceof TransitionTimed) return null;
+        return memo == null ? condition : memo.memoize(condition);
+    }
+
+    private static long nanosOf(TransitionCondition condition) {
+        return condition instanceof TransitionTimed ? ((TransitionTimed) condition).getNanos() : NOT_TIMED;
+    }
+
+    /**
+     * The timed actions of a state, sorted by ascending time.
+     */
+    private static final class TimedActions {
+        final long[] nanos;
+        final CallbackBase[] callbacks;
+
+        TimedActions(List<TimedCallback> actions) {
+            // stable sort, so callbacks with equal times keep their declaration order
+            List<TimedCallback> timed = actions == null ? Collections.<TimedCallback>emptyList() : new ArrayList<>(actions);
+            Collections.sort(timed, (a, b) -> Long.compare(a.getNanos(), b.getNanos()));
+            nanos = new long[timed.size()];
+            callbacks = new CallbackBase[timed.size()];
+            for (int i = 0; i < callbacks.length; i++) {
+                nanos[i] = timed.get(i).getNanos();
+                callbacks[i] = timed.get(i).getCallback();
+            }
+        }
+    }
+
+    /**
+     * The callback arrays compiled for one definition, by the list they were compiled from. States made from the same template
+     * share their lists until they change them (see State), so each shared list is compiled into one array that all of them use.
+     */
+    static final class SharedLists {
+        private static final TimedActions NO_TIMED_ACTIONS = new TimedActions(null);
+
+        private final IdentityHashMap<List<CallbackBase>, CallbackBase[]> callbacks = new IdentityHashMap<>();
+        private final IdentityHashMap<List<TimedCallback>, TimedActions> timed = new IdentityHashMap<>();
+        private final IdentityHashMap<List<AsyncCallback>, AsyncCallback[]> async = new IdentityHashMap<>();
+
+        CallbackBase[] callbacks(List<CallbackBase> list) {
+            if (list == null || list.isEmpty()) return NO_CALLBACKS;
+
+            CallbackBase[] array = callbacks.get(list);
+            if (array == null) {
+                array = list.toArray(new CallbackBase[0]);
+                callbacks.put(list, array);
+            }
+            return array;
+        }
+
+        TimedActions timed(List<TimedCallback> list) {
+            if (list == null || list.isEmpty()) return NO_TIMED_ACTIONS;
+
+            TimedActions actions = timed.get(list);
+            if (actions == null) {
+                actions = new TimedActions(list);
+                timed.put(list, actions);
+            }
+            return actions;
+        }
+
+        AsyncCallback[] async(List<AsyncCallback> list) {
+            if (list == null) return null;
+
+            AsyncCallback[] array = async.get(list);
+            if (array == null) {
+                array = list.toArray(new AsyncCallback[0]);
+                async.put(list, array);
+            }
+            return array;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.concurrent.MpscIntQueue;
+import com.sfdev.assembly.recorder.FlightRecorder;
+import com.sfdev.assembly.timing.TimeSource;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A StateMachine that any thread can read and command while one thread updates it.
+ * The current state and whether the machine is running are published together in a single atomic after every update,
+ * so readers never lock and never see a state that is halfway through a transition.
+ * setState(), start(), stop() and reset() are queued in a lock-free queue and applied in order at the start of the next update.
+ * A machine that is not being updated, such as a parked machine of a StateMachineFleet, can be woken up by a command through setOnCommand().
+ * Events can be fired from any thread as with every StateMachine. Everything else, including the regions of composite states,
+ * still belongs to the updating thread.
+ */
+public class ConcurrentStateMachine extends StateMachine {
+    /**
+     * The number of commands that can wait for the next update before further commands are rejected.
+     */
+    public static final int COMMAND_QUEUE_CAPACITY = 256;
+
+    // a command is packed into an int: the opcode in the low bits, the state index of SET_STATE above them
+    private static final int OPCODE_BITS = 2;
+    private static final int START = 0;
+    private static final int STOP = 1;
+    private static final int RESET = 2;
+    private static final int SET_STATE = 3;
+
+    private final MpscIntQueue commands = new MpscIntQueue(COMMAND_QUEUE_CAPACITY);
+    // the state index shifted left by one, with the running flag in the lowest bit
+    private final AtomicInteger published = new AtomicInteger(0);
+    private int lastPublished = 0; // only touched by the updating thread
+    private volatile Runnable onCommand;
+
+    /**
+     * Constructs a new concurrent state machine that runs from a shared definition.
+     * @param definition The definition to run.
+     */
+    public ConcurrentStateMachine(StateMachineDefinition definition) {
+        this(definition, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Constructs a new concurrent state machine that runs from a shared definition and reads time from the given clock.
+     * @param definition The definition to run.
+     * @param timeSource The clock read once per update.
+     */
+    public ConcurrentStateMachine(StateMachineDefinition definition, TimeSource timeSource) {
+        super(definition, timeSource);
+    }
+
+    @Override
+    public void update() {
+        update(getTimeSource().nanoTime());
+    }
+
+    @Override
+    public void update(long now) {
+        applyCommands(now);
+        super.update(now);
+        publish();
+    }
+
+    /**
+     * Queues a start. Applied at the start of the next update.
+     */
+    @Override
+    public void start() {
+        command(START);
+    }
+
+    /**
+     * Queues a stop. Applied at the start of the next update, which then does nothing else.
+     */
+    @Override
+    public void stop() {
+        command(STOP);
+    }
+
+    /**
+     * Queues a reset. Applied at the start of the next update.
+     */
+    @Override
+    public void reset() {
+        command(RESET);
+    }
+
+    /**
+     * Queues a move to the indicated state. Applied at the start of the next update.
+     * @param state The state to move to. Checked immediately, on the calling thread.
+     */
+    @Override
+    @SuppressWarnings("rawtypes") // overrides the raw signature of StateMachine
+    public void setState(Enum state) {
+        setState(state.name());
+    }
+
+    /**
+     * Queues a move to the indicated state. Applied at the start of the next update.
+     * @param state The state to move to. Checked immediately, on the calling thread.
+     */
+    @Override
+    @SuppressWarnings("auxiliaryclass") // the builder exceptions live in StateMachine.java
+    public void setState(String state) {
+        int index = getDefinition().indexOf(state);
+        if (index == -1) {
+            throw new InvalidStateException("Invalid state indicated: \"" + state + "\". Ensure that the given string is connected to a state.");
+        }
+
+        command(SET_STATE | index << OPCODE_BITS);
+    }
+
+    /**
+     * Sets an action run on the commanding thread after every queued command. A StateMachineFleet uses it to bring the machine back
+     * into its cycle when it is parked, so the action must be cheap and safe to run from any thread.
+     * @param onCommand The action, or null.
+     */
+    public void setOnCommand(Runnable onCommand) {
+        this.onCommand = onCommand;
+    }
+
+    /**
+     * Checks for commands that the next update will apply. Must only be called from the updating thread.
+     * @return Returns whether any command is queued.
+     */
+    public boolean hasPendingCommands() {
+        return !commands.isEmpty();
+    }
+
+    /**
+     * Restores a snapshot and publishes the restored state. Unlike the queued commands, this must be called from the updating thread.
+     * @param buffer The buffer to read from, starting at its position.
+     */
+    @Override
+    public void restore(ByteBuffer buffer) {
+        super.restore(buffer);
+        publish();
+    }
+
+    /**
+     * @return Returns whether the machine was running at the end of the last update. Safe to call from any thread.
+     */
+    @Override
+    public boolean isRunning() {
+        return (published.get() & 1) != 0;
+    }
+
+    /**
+     * @return Returns the index of the state the machine was in at the end of the last update. Safe to call from any thread.
+     */
+    @Override
+    public int getStateIndex() {
+        return published.get() >>> 1;
+    }
+
+    /**
+     * @return Returns the name of the state the machine was in at the end of the last update. Safe to call from any thread.
+     */
+    @Override
+    public String getStateString() {
+        return getDefinition().states[getStateIndex()].name();
+    }
+
+    /**
+     * @return Returns the enum of the state the machine was in at the end of the last update. Safe to call from any thread.
+     */
+    @Override
+    @SuppressWarnings("rawtypes") // overrides the raw signature of StateMachine
+    public Enum getStateEnum() {
+        return getDefinition().states[getStateIndex()].nameEnum;
+    }
+
+    /**
+     * @return Returns the enum of the state the machine was in at the end of the last update, or null if that is an anonymous wait
+     * state. Safe to call from any thread.
+     */
+    @Override
+    @SuppressWarnings({"rawtypes", "auxiliaryclass"}) // overrides the raw signature of StateMachine, whose file holds the exceptions
+    public Enum getState() {
+        CompiledState state = getDefinition().states[getStateIndex()];
+        if(state.nameEnum == null && state.anonymousId < 0) {
+            throw new StateNotEnumException("All States Must Be An Enum For getState()");
+        }
+
+        return state.nameEnum;
+    }
+
+    /**
+     * @return Returns whether the machine was in an anonymous wait state at the end of the last update. Safe to call from any thread.
+     */
+    @Override
+    public boolean isAnonymousState() {
+        return getDefinition().states[getStateIndex()].anonymousId >= 0;
+    }
+
+    private void command(int command) {
+        if (!commands.offer(command)) throw new IllegalStateException("Command queue is full; the machine is not being updated");
+
+        Runnable onCommand = this.onCommand;
+        if (onCommand != null) onCommand.run();
+    }
+
+    /**
+     * Applies the queued commands in the order they were queued.
+     * @param now The time of the update that applies them.
+     */
+    private void applyCommands(long now) {
+        int command;
+        while ((command = commands.poll()) != MpscIntQueue.EMPTY) {
+            switch (command & ((1 << OPCODE_BITS) - 1)) {
+                case START:
+                    super.start();
+                    break;
+                case STOP:
+                    super.stop();
+                    break;
+                case RESET:
+                    jump(0, FlightRecorder.RESET, now); // what super.reset() does, recorded at the update's time
+                    super.start();
+                    break;
+                default:
+                    jump(command >>> OPCODE_BITS, FlightRecorder.SET_STATE, now);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Publishes the current state and running flag. Skips the write when nothing changed, so readers' cache lines stay valid.
+     */
+    private void publish() {
+        int packed = super.getStateIndex() << 1 | (super.isRunning() ? 1 : 0);
+        if (packed != lastPublished) {
+            lastPublished = packed;
+            published.lazySet(packed);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.sfdev.assembly.state;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the optimizer changed in a definition built with StateMachineBuilder.optimize(). See StateMachineDefinition.getOptimizationReport().
+ */
+public final class OptimizationReport {
+    private int statesBefore;
+    private int statesAfter;
+    private final List<String> unreachable = new ArrayList<>();
+    private final List<String> collapsed = new ArrayList<>();
+    private final List<String> fused = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    private String skipped;
+
+    OptimizationReport() {
+    }
+
+    void setStateCounts(int before, int after) {
+        statesBefore = before;
+        statesAfter = after;
+    }
+
+    void unreachable(String state) {
+        unreachable.add(state);
+        removed.add(state);
+    }
+
+    void collapsed(String state, String target) {
+        collapsed.add(state + " -> " + target);
+        removed.add(state);
+    }
+
+    void fused(String state, String into) {
+        fused.add(state + " into " + into);
+        removed.add(state);
+    }
+
+    void skipped(String reason) {
+        skipped = reason;
+    }
+
+    /**
+     * @return Returns the number of states before optimizing.
+     */
+    public int getStatesBefore() {
+        return statesBefore;
+    }
+
+    /**
+     * @return Returns the number of states left.
+     */
+    public int getStatesAfter() {
+        return statesAfter;
+    }
+
+    /**
+     * @return Returns the names of the states removed because no state leads to them.
+     */
+    public List<String> getUnreachableStates() {
+        return Collections.unmodifiableList(unreachable);
+    }
+
+    /**
+     * @return Returns the empty states that were skipped over, as "STATE -> TARGET".
+     */
+    public List<String> getCollapsedStates() {
+        return Collections.unmodifiableList(collapsed);
+    }
+
+    /**
+     * @return Returns the wait states whose wait was added to the wait state before them, as "STATE into PREVIOUS".
+     */
+    public List<String> getFusedStates() {
+        return Collections.unmodifiableList(fused);
+    }
+
+    /**
+     * Lists the states that are no longer part of the definition, so setState() can no longer reach them.
+     * Failsafe states and the states given to StateMachineBuilder.keepStates() are never among them.
+     * @return Returns the names of every state that was removed as unreachable, collapsed or fused, in the order they were removed.
+     */
+    public List<String> getRemovedStates() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * @return Returns why the definition was left as it was, or null if it was optimized.
+     */
+    public String getSkipReason() {
+        return skipped;
+    }
+
+    @Override
+    public String toString() {
+        if (skipped != null) return "not optimized: " + skipped;
+
+        StringBuilder report = new StringBuilder();
+        report.append(statesBefore).append(" states -> ").append(statesAfter).append('\n');
+        report.append("removed: ").append(removed.isEmpty() ? "none" : String.join(", ", removed)).append('\n');
+        report.append("unreachable: ").append(unreachable.isEmpty() ? "none" : String.join(", ", unreachable)).append('\n');
+        report.append("collapsed: ").append(collapsed.isEmpty() ? "none" : String.join(", ", collapsed)).append('\n');
+        report.append("fused: ").append(fused.isEmpty() ? "none" : String.join(", ", fused)).append('\n');
+        return report.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.timing.TimeSource;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The child machines of an active composite state, one per orthogonal region.
+ * An update runs in three phases: enter actions and queued events are handled in region order, then every region's timed and loop
+ * actions and condition checks run, one region after another or concurrently on the pool, and after all of them are done the
+ * transitions they picked are committed in region order. Exit and enter actions of a transition therefore never race with another
+ * region's, and the result is the same with or without a pool, however the regions were scheduled.
+ */
+final class Regions {
+    private final StateMachine[] machines;
+    private final ForkJoinPool pool;
+    private final int[] pending;
+    private final Step[] steps;
+    private final Tick tick;
+    private long now;
+
+    /**
+     * Instantiates and starts the machine of every region.
+     * @param definitions The definitions of the regions.
+     * @param timeSource The clock of the parent machine.
+     * @param pool The pool that updates the regions concurrently, or null.
+     * @param asyncExecutor The async executor of the parent machine.
+     */
+    Regions(StateMachineDefinition[] definitions, TimeSource timeSource, ForkJoinPool pool, Executor asyncExecutor) {
+        machines = new StateMachine[definitions.length];
+        for (int i = 0; i < machines.length; i++) {
+            machines[i] = definitions[i].newInstance(timeSource);
+            machines[i].setRegionPool(pool);
+            machines[i].setAsyncExecutor(asyncExecutor);
+            machines[i].start();
+        }
+
+        this.pool = machines.length > 1 ? pool : null; // a single region gains nothing from the pool
+        pending = new int[machines.length];
+        if (this.pool == null) {
+            steps = null;
+            tick = null;
+        } else {
+            steps = new Step[machines.length];
+            for (int i = 0; i < steps.length; i++) steps[i] = new Step(i);
+            tick = new Tick();
+        }
+    }
+
+    /**
+     * Updates every region once.
+     * @param now The current time in nanoseconds of the parent's TimeSource.
+     */
+    void update(long now) {
+        for (int i = 0; i < machines.length; i++) machines[i].begin(now);
+
+        if (pool == null) {
+            for (int i = 0; i < machines.length; i++) pending[i] = machines[i].evaluate(now);
+        } else {
+            this.now = now;
+            tick.reinitialize();
+            if (ForkJoinTask.inForkJoinPool()) tick.invoke(); // nested regions run inside the worker that is already updating their parent
+            else pool.invoke(tick);
+        }
+
+        for (int i = 0; i < machines.length; i++) {
+            if (pending[i] != StateMachine.NO_TRANSITION) machines[i].commit(pending[i], now);
+        }
+    }
+
+    /**
+     * Passes an event on to every region.
+     * @param event The event.
+     */
+    void fire(Enum<?> event) {
+        for (StateMachine machine : machines) machine.fire(event);
+    }
+
+    /**
+     * @return Returns whether every region has stopped.
+     */
+    boolean allStopped() {
+        for (StateMachine machine : machines) {
+            if (machine.isRunning()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs the exit actions of every region, in region order, and stops them.
+     */
+    void exit() {
+        for (StateMachine machine : machines) machine.exit();
+    }
+
+    /**
+     * @return Returns the number of regions.
+     */
+    int size() {
+        return machines.length;
+    }
+
+    /**
+     * @param index The index of the region.
+     * @return Returns the machine of a region.
+     */
+    StateMachine get(int index) {
+        return machines[index];
+    }
+
+    /**
+     * Forks the step of every region and joins them. Reused across updates.
+     */
+    private final class Tick extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < steps.length; i++) {
+                steps[i].reinitialize();
+                steps[i].fork();
+            }
+
+            steps[0].compute();
+
+            for (int i = steps.length - 1; i > 0; i--) steps[i].join();
+        }
+    }
+
+    /**
+     * Runs one region up to the point where its transition would be committed. Reused across updates.
+     */
+    private final class Step extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int region;
+
+        Step(int region) {
+            this.region = region;
+        }
+
+        @Override
+        protected void compute() {
+            pending[region] = machines[region].evaluate(now);
+        }
+    }
+}
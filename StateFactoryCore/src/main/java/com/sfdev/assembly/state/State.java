@@ -11,15 +11,36 @@ import java.util.List;
  */
 
 public class State {
+    // anonymous states are shown as this followed by their id, which is what the old generated wait state names looked like
+    static final String ANONYMOUS_PREFIX = "WaitState";
+
     private String name; // taking in the enum constant
     private Enum nameEnum;
+    // the id of a state without a name, see State(int), or -1
+    private int anonymousId = -1;
     private List<CallbackBase> enterActions;
     private List<CallbackBase> exitActions;
     private List<CallbackBase> loopActions;
     private List<TimedCallback> timedActions;
     private List<TransitionData> transitions;
+    private List<TransitionData> eventTransitions;
     private boolean isFailsafe;
     private TransitionCondition overallMinTransition;
+    private StateMachineDefinition[] regions;
+    private List<AsyncCallback> asyncActions;
+    private TransitionData completeTransition;
+    private TransitionData failureTransition;
+    // the lists this state shares with the template it was made from, or with the states made from it, one bit per list below
+    private int sharedLists = 0;
+
+    private static final int ENTER_ACTIONS = 1;
+    private static final int EXIT_ACTIONS = 1 << 1;
+    private static final int LOOP_ACTIONS = 1 << 2;
+    private static final int TIMED_ACTIONS = 1 << 3;
+    private static final int TRANSITIONS = 1 << 4;
+    private static final int EVENT_TRANSITIONS = 1 << 5;
+    private static final int ASYNC_ACTIONS = 1 << 6;
+    private static final int ALL_LISTS = (1 << 7) - 1;
 
     protected State(Enum name, boolean isFailsafe) {
         this(name.name(), isFailsafe);
@@ -39,6 +60,7 @@ public class State {
         overallMinTransition = null;
         timedActions = new ArrayList<>();
         transitions = new ArrayList<>();
+        eventTransitions = null;
         this.isFailsafe = isFailsafe;
     }
 
@@ -47,6 +69,12 @@ public class State {
         this.nameEnum = name;
     }
 
+    /**
+     * Creates a state from a template. The new state shares the template's lists instead of copying them: whichever of the two
+     * changes a shared list first gets its own copy of it, so neither ever sees the other's changes.
+     * @param name The name of the new state.
+     * @param state The template.
+     */
     protected State(String name, State state) {
         this.name = name;
 
@@ -56,13 +84,41 @@ public class State {
         overallMinTransition = state.getMinTransition();
         timedActions = state.getTimedAction();
         transitions = state.getTransitions();
+        eventTransitions = state.getEventTransitions();
+        regions = state.getRegions();
+        asyncActions = state.getAsyncActions();
+        completeTransition = state.getCompleteTransition();
+        failureTransition = state.getFailureTransition();
         this.isFailsafe = state.isFailsafe();
+        sharedLists = ALL_LISTS;
+        state.sharedLists = ALL_LISTS;
     }
 
     protected State(Enum nameEnum) {
         this(nameEnum, false);
     }
 
+    /**
+     * Creates an anonymous state, as StateMachineBuilder.waitState() does when no name is given.
+     * An anonymous state has no name of its own: no transition can point to it and setState() cannot select it, so it is only ever
+     * entered in linear order. Its name string is made from the id only when it is asked for.
+     * @param anonymousId The id of the state, unique among the anonymous states of its builder.
+     */
+    State(int anonymousId) {
+        this((String) null, false);
+        this.anonymousId = anonymousId;
+    }
+
+    /**
+     * Copies an anonymous state.
+     * @param anonymousId The id of the copy.
+     * @param state The state to copy.
+     */
+    State(int anonymousId, State state) {
+        this((String) null, state);
+        this.anonymousId = anonymousId;
+    }
+
     protected State(String name) {
         this(name, false);
     }
@@ -80,7 +136,21 @@ public class State {
      * @return Returns the of the state in string form.
      */
     public String getNameString() {
-        return name;
+        return name != null ? name : ANONYMOUS_PREFIX + anonymousId;
+    }
+
+    /**
+     * @return Returns whether the state was created without a name, see State(int).
+     */
+    public boolean isAnonymous() {
+        return name == null;
+    }
+
+    /**
+     * @return Returns the id of an anonymous state, or -1 if the state has a name.
+     */
+    public int getAnonymousId() {
+        return name == null ? anonymousId : -1;
     }
 
     /**
@@ -97,6 +167,7 @@ public class State {
      */
     protected void setEnterActions(List<CallbackBase> actions) {
         enterActions = actions;
+        sharedLists &= ~ENTER_ACTIONS;
     }
 
     /**
@@ -104,7 +175,7 @@ public class State {
      * @param actions The CallbackBase that is to be the states new enter action.
      */
     protected void addEnterActions(CallbackBase actions) {
-        if(enterActions == null) enterActions = new ArrayList<>();
+        enterActions = writable(enterActions, ENTER_ACTIONS);
         enterActions.add(actions);
     }
 
@@ -122,7 +193,116 @@ public class State {
      */
     protected void setTransitions(List<TransitionData> data) {
         transitions = data;
+        sharedLists &= ~TRANSITIONS;
+    }
+
+    /**
+     * Adds a transition to the array
+     * @param transition The TransitionData to add.
+     */
+    protected void addTransition(TransitionData transition) {
+        writableTransitions().add(transition);
+    }
+
+    /**
+     * Sets the minimum transition of one of the state's transitions.
+     * @param index The index of the transition.
+     * @param minimum The condition that must also be met before the transition fires.
+     */
+    protected void setMinimumTransition(int index, TransitionCondition minimum) {
+        writableTransitions().get(index).setMinimumTransition(minimum);
+    }
+    /**
+     * Gets the event transitions.
+     * @return Returns the transitions that are triggered by events, in the order they were added.
+     */
+    protected List<TransitionData> getEventTransitions() {
+        return eventTransitions;
+    }
+
+    /**
+     * Replaces the event transitions.
+     * @param transitions The new event transitions, or null for none.
+     */
+    protected void setEventTransitions(List<TransitionData> transitions) {
+        eventTransitions = transitions;
+        sharedLists &= ~EVENT_TRANSITIONS;
+    }
+
+    /**
+     * Adds an event transition to the array
+     * @param transition The TransitionData, holding an event, to add.
+     */
+    protected void addEventTransition(TransitionData transition) {
+        eventTransitions = writable(eventTransitions, EVENT_TRANSITIONS);
+        eventTransitions.add(transition);
+    }
+
+    /**
+     * Gets the async actions.
+     * @return Returns the actions started off the update thread when the state is entered, or null if there are none.
+     */
+    protected List<AsyncCallback> getAsyncActions() {
+        return asyncActions;
+    }
+
+    /**
+     * Adds an async action to the array
+     * @param action The AsyncCallback that is started when the state is entered.
+     */
+    protected void addAsyncAction(AsyncCallback action) {
+        asyncActions = writable(asyncActions, ASYNC_ACTIONS);
+        asyncActions.add(action);
+    }
+
+    /**
+     * Gets the transition taken when the async actions complete.
+     * @return Returns the transition, or null if there is none.
+     */
+    protected TransitionData getCompleteTransition() {
+        return completeTransition;
+    }
+
+    /**
+     * Sets the transition taken when the async actions complete.
+     * @param transition The TransitionData holding the pointer state and exit action.
+     */
+    protected void setCompleteTransition(TransitionData transition) {
+        completeTransition = transition;
+    }
+
+    /**
+     * Gets the transition taken when an async action fails.
+     * @return Returns the transition, or null if there is none.
+     */
+    protected TransitionData getFailureTransition() {
+        return failureTransition;
+    }
+
+    /**
+     * Sets the transition taken when an async action fails.
+     * @param transition The TransitionData holding the pointer state and exit action.
+     */
+    protected void setFailureTransition(TransitionData transition) {
+        failureTransition = transition;
+    }
+
+    /**
+     * Gets the machines that run inside this state.
+     * @return Returns the definitions of the child machines, one per region, or null if the state is not a composite state.
+     */
+    protected StateMachineDefinition[] getRegions() {
+        return regions;
+    }
+
+    /**
+     * Makes this a composite state.
+     * @param regions The definitions of the child machines that run side by side while this state is active.
+     */
+    protected void setRegions(StateMachineDefinition[] regions) {
+        this.regions = regions;
     }
+
     /**
      * Gets the loop actions.
      * @return Returns the callback containing the states loop actions.
@@ -137,6 +317,7 @@ public class State {
      */
     protected void setLoopActions(List<CallbackBase> actions) {
         loopActions = actions;
+        sharedLists &= ~LOOP_ACTIONS;
     }
 
     /**
@@ -144,7 +325,7 @@ public class State {
      * @param actions The CallbackBase that will loop continuously in the state.
      */
     protected void addLoopActions(CallbackBase actions) {
-        if(loopActions == null) loopActions = new ArrayList<>();
+        loopActions = writable(loopActions, LOOP_ACTIONS);
         loopActions.add(actions);
     }
 
@@ -161,7 +342,7 @@ public class State {
      * @param action The CallbackBase that executes after the specified time.
      */
     protected void addTimedAction(TimedCallback action) {
-        if(timedActions == null) timedActions = new ArrayList<>();
+        timedActions = writable(timedActions, TIMED_ACTIONS);
         timedActions.add(action);
     }
 
@@ -188,6 +369,7 @@ public class State {
      */
     protected void setExitActions(List<CallbackBase> exitActions) {
         this.exitActions = exitActions;
+        sharedLists &= ~EXIT_ACTIONS;
     }
 
     /**
@@ -195,7 +377,7 @@ public class State {
      * @param actions The CallbackBase that is to be the states new exit action.
      */
     protected void addExitAction(CallbackBase actions) {
-        if(exitActions == null) exitActions = new ArrayList<>();
+        exitActions = writable(exitActions, EXIT_ACTIONS);
         exitActions.add(actions);
     }
 
@@ -215,6 +397,36 @@ public class State {
         return overallMinTransition;
     }
 
+    /**
+     * Gets a list that this state may change, copying it first if it is shared.
+     * @param list The list, or null if the state has none yet.
+     * @param flag The bit of the list in sharedLists.
+     * @return Returns the list itself, its copy, or a new list.
+     */
+    private <T> List<T> writable(List<T> list, int flag) {
+        boolean shared = (sharedLists & flag) != 0;
+        sharedLists &= ~flag;
+        if(list == null) return new ArrayList<>();
+        return shared ? new ArrayList<>(list) : list;
+    }
+
+    /**
+     * Gets the transitions for changing. A shared list is copied along with its TransitionData, since their minimums can be changed too.
+     */
+    private List<TransitionData> writableTransitions() {
+        if((sharedLists & TRANSITIONS) == 0) return transitions;
+
+        List<TransitionData> copy = new ArrayList<>(transitions.size() + 1);
+        for(TransitionData transition : transitions) {
+            TransitionData data = new TransitionData(transition.getTransitionCondition(), transition.getPointerState(), transition.getExitAction());
+            data.setMinimumTransition(transition.getMinimumTransition());
+            copy.add(data);
+        }
+        transitions = copy;
+        sharedLists &= ~TRANSITIONS;
+        return transitions;
+    }
+
     /**
      * Sets the enum & string name of the state.
      * @param name The enum name.
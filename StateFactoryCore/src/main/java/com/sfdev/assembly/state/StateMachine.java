@@ -1,12 +1,21 @@
 package com.sfdev.assembly.state;
 
+import com.sfdev.assembly.callbacks.AsyncCallback;
 import com.sfdev.assembly.callbacks.CallbackBase;
-import com.sfdev.assembly.callbacks.TimedCallback;
-import com.sfdev.assembly.transition.*;
-
-import java.util.ArrayList;
-import java.util.HashMap;
+import com.sfdev.assembly.concurrent.MpscIntQueue;
+import com.sfdev.assembly.recorder.FlightRecorder;
+import com.sfdev.assembly.timing.TimeSource;
+import com.sfdev.assembly.transition.ConditionMemo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 abstract class StateMachineBuilderException extends RuntimeException {
     public StateMachineBuilderException(String s) {
@@ -20,49 +29,103 @@ class IllegalMinimumTransition extends StateMachineBuilderException { public Ill
 class StateTemplateBuilderException extends StateMachineBuilderException { public StateTemplateBuilderException(String s) { super(s); } }
 /**
  * Manages all states and transitions between them.
+ * A StateMachine only holds runtime data; the states themselves live in a shared, immutable StateMachineDefinition.
  */
 public class StateMachine {
-    // linear list and fallback list logic
-    private final List<State> linearList;
-    private final List<State> fallbackList;
-    private final HashMap<String, Integer> linearPlacements;
-    private final HashMap<String, Integer> fallbackPlacements;
-    State currentState;
-    State nextState;
-    private boolean willTransition = false;
+    private final StateMachineDefinition definition;
+    private final CompiledState[] states;
+    private final TimeSource timeSource;
+    CompiledState currentState;
+    private int currentIndex;
     private boolean hasEntered = false;
     private boolean isRunning = false;
-    private boolean timedCallbacksDone = false;
+    // all timers of a state start together on its first update, so one start time covers them
+    private boolean timersStarted = false;
+    private long timerStart;
+    // timed actions are sorted by time, so the ones that already ran are always the first timedActionsRun
+    private int timedActionsRun = 0;
+    // absolute time of the earliest deadline of the current state that has not passed yet, and its index in the state's deadlines
+    private long nextDeadline = Long.MAX_VALUE;
+    private int deadlinesPassed = 0;
+    // the machines running inside the current composite state; only exist while that state is active
+    private Regions regions;
+    // when set, the regions of composite states are updated concurrently
+    private ForkJoinPool regionPool;
+    // runs the async actions; the future of the current state's async actions is only polled, never waited on
+    private Executor asyncExecutor = ForkJoinPool.commonPool();
+    private CompletableFuture<?> operation;
+    // opt-in instrumentation; null when disabled
+    private StateMachineMetrics metrics;
+    // keeps the last transitions; null when disabled
+    private FlightRecorder recorder;
+    // advanced on every update when this machine drives the memo of its conditions itself; null when a fleet drives it or there is none
+    private ConditionMemo conditionMemo;
+    // created on the first fire(), so machines that never receive events do not pay for it
+    private volatile MpscIntQueue events;
+
+    /**
+     * Returned by evaluate() when no transition should fire.
+     */
+    static final int NO_TRANSITION = -1;
+
+    /**
+     * Returned by evaluate() when the transition taken once the async actions complete should fire.
+     */
+    static final int COMPLETE_TRANSITION = -2;
+
+    /**
+     * Returned by evaluate() when the transition taken once an async action fails should fire.
+     */
+    static final int FAILURE_TRANSITION = -3;
 
+    /**
+     * The number of fired events that can wait for the next update before further events are dropped.
+     */
+    public static final int EVENT_QUEUE_CAPACITY = 64;
 
     /**
      * Constructs a new state machine.
      * @param stateList Provides the list of states for the StateMachine to parse and perform logic with.
      */
     public StateMachine( List<State> stateList) {
-        linearList = new ArrayList<>();
-        fallbackList = new ArrayList<>();
-
-        linearPlacements = new HashMap<>();
-        fallbackPlacements = new HashMap<>();
-
-        // splitting list stateList between linearList and fallbackList
-        for(State s : stateList) {
-            if(s.isFailsafe())
-                fallbackList.add(s);
-            else
-                linearList.add(s);
-        }
+        this(new StateMachineDefinition(stateList));
+    }
 
-        for(State s : linearList) {
-            linearPlacements.put(s.getNameString(), linearList.indexOf(s));
-        }
+    /**
+     * Constructs a new state machine that runs from a shared definition.
+     * @param definition The definition to run.
+     */
+    public StateMachine(StateMachineDefinition definition) {
+        this(definition, TimeSource.SYSTEM);
+    }
 
-        for(State s : fallbackList) {
-            fallbackPlacements.put(s.getNameString(), fallbackList.indexOf(s));
-        }
+    /**
+     * Constructs a new state machine that runs from a shared definition and reads time from the given clock.
+     * @param definition The definition to run.
+     * @param timeSource The clock read once per update.
+     */
+    public StateMachine(StateMachineDefinition definition, TimeSource timeSource) {
+        this.definition = definition;
+        this.states = definition.states;
+        this.timeSource = timeSource;
+        this.conditionMemo = definition.getConditionMemo();
+        currentState = states[0];
+    }
+
+    /**
+     * Gets the clock this machine reads.
+     * @return Returns the machine's TimeSource.
+     */
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
 
-        currentState = linearList.get(0);
+    /**
+     * Gets the definition this machine runs from.
+     * @return Returns the shared definition.
+     */
+    public StateMachineDefinition getDefinition() {
+        return definition;
     }
 
     /**
@@ -70,7 +133,7 @@ public class StateMachine {
      * @return Enum constant of the current state
      */
     public Enum getStateEnum() {
-        return currentState.getNameEnum();
+        return currentState.nameEnum;
     }
 
     /**
@@ -78,19 +141,27 @@ public class StateMachine {
      * @return String of the current state
      */
     public String getStateString() {
-        return currentState.getNameString();
+        return currentState.name();
     }
 
     /**
      * Gets the current state's name in enum type. Throws an error if the state is a string state.
-     * @return Enum constant of the current state
+     * An anonymous wait state has no enum constant, so null is returned while the machine is in one, see isAnonymousState().
+     * @return Enum constant of the current state, or null in an anonymous wait state
      */
     public Enum getState() {
-        if(currentState.getNameEnum() == null) {
+        if(currentState.nameEnum == null && currentState.anonymousId < 0) {
             throw new StateNotEnumException("All States Must Be An Enum For getState()");
         }
 
-        return currentState.getNameEnum();
+        return currentState.nameEnum;
+    }
+
+    /**
+     * @return Returns whether the current state is an anonymous wait state, made by waitState(seconds), which has no name of its own.
+     */
+    public boolean isAnonymousState() {
+        return currentState.anonymousId >= 0;
     }
 
     /**
@@ -111,8 +182,7 @@ public class StateMachine {
      * Resets the machine - sets the current state to the first one and starts running.
      */
     public void reset() {
-        currentState = linearList.get(0);
-        nextState = null;
+        jump(0, FlightRecorder.RESET, recordTime());
         isRunning = true;
     }
 
@@ -129,15 +199,12 @@ public class StateMachine {
      * @param state Prematurely setting the statemachine to the indicated state
      */
     public void setState(Enum state) {
-        if (linearPlacements.get(state.name()) != null) { // try grabbing target state from either linear or failsafes
-            currentState = linearList.get(linearPlacements.get(state.name()));
-        } else {
-            if(fallbackPlacements.get(state.name()) != null) {
-                currentState = fallbackList.get(fallbackPlacements.get(state.name()));
-            } else {
-                throw new InvalidStateException("Set state \"" + state.name() + "\": Invalid state indicated. Ensure that the given enum is connected to a state.");
-            }
+        int index = definition.indexOf(state.name()); // try grabbing target state from either linear or failsafes
+        if (index == -1) {
+            throw new InvalidStateException("Set state \"" + state.name() + "\": Invalid state indicated. Ensure that the given enum is connected to a state.");
         }
+
+        jump(index, FlightRecorder.SET_STATE, recordTime());
     }
 
     /**
@@ -145,113 +212,643 @@ public class StateMachine {
      * @param state Prematurely setting the statemachine to the indicated state
      */
     public void setState(String state) {
-        if (linearPlacements.get(state) != null) { // try grabbing target state from either linear or failsafes
-            currentState = linearList.get(linearPlacements.get(state));
-        } else {
-            if(fallbackPlacements.get(state) != null) {
-                currentState = fallbackList.get(fallbackPlacements.get(state));
-            } else {
-                throw new InvalidStateException("Invalid state indicated: \"" + state + "\". Ensure that the given string is connected to a state.");
+        int index = definition.indexOf(state); // try grabbing target state from either linear or failsafes
+        if (index == -1) {
+            throw new InvalidStateException("Invalid state indicated: \"" + state + "\". Ensure that the given string is connected to a state.");
+        }
+
+        jump(index, FlightRecorder.SET_STATE, recordTime());
+    }
+
+
+    /**
+     * Fires an event. Safe to call from any thread.
+     * The event is queued and handled at the start of the next update() through the current state's event table.
+     * If the current state has no transition for it, the event is dropped.
+     * @param event The event to fire.
+     * @return Returns false if no state reacts to the event or the queue is full.
+     */
+    public boolean fire(Enum<?> event) {
+        int id = definition.eventId(event);
+        return id != -1 && fire(id);
+    }
+
+    /**
+     * Fires an event by the id the definition gave it, skipping the lookup in fire(Enum).
+     * @param eventId The id from StateMachineDefinition.eventId().
+     * @return Returns false if the queue is full.
+     */
+    public boolean fire(int eventId) {
+        MpscIntQueue queue = events;
+        if (queue == null) {
+            synchronized (this) {
+                if (events == null) events = new MpscIntQueue(EVENT_QUEUE_CAPACITY);
+                queue = events;
             }
         }
+
+        return queue.offer(eventId);
+    }
+
+    /**
+     * Handles queued events in order. Events the current state does not handle are passed on to the child machines if there are any,
+     * and dropped otherwise; once one fires a transition, the rest stay queued so that every state is entered by an update of its own.
+     */
+    private void drainEvents(MpscIntQueue queue, long now) {
+        int event;
+        while ((event = queue.poll()) != MpscIntQueue.EMPTY) {
+            CompiledState state = currentState;
+            if (state.eventTargets == null || state.eventTargets[event] == StateMachineDefinition.NOT_HANDLED) {
+                if (regions != null) regions.fire(definition.events[event]);
+                continue;
+            }
+
+            if (metrics != null) metrics.eventFired(currentIndex, event);
+            transition(state, state.eventExitActions[event], state.eventTargets[event], FlightRecorder.EVENT, event, now);
+            return;
+        }
     }
 
+    /**
+     * Gets the absolute time of the current state's next deadline: the next timed action, timed transition or minimum transition.
+     * @return Returns the deadline in nanoseconds of the machine's TimeSource, or Long.MAX_VALUE if no deadline is pending.
+     */
+    public long getNextDeadline() {
+        return nextDeadline;
+    }
+
+    /**
+     * Finds how long until anything time-based can next happen in this machine.
+     * @param now The current time in nanoseconds.
+     * @return Returns 0 if a deadline is due or the current state's timers have not started yet, or Long.MAX_VALUE if no deadline is pending.
+     */
+    public long nanosUntilNextDeadline(long now) {
+        if (!timersStarted) return 0;
+        if (nextDeadline == Long.MAX_VALUE) return Long.MAX_VALUE;
+        return Math.max(0, nextDeadline - now);
+    }
+
+    /**
+     * Checks whether only the passing of the next deadline can change this machine, so it can sleep until then:
+     * the current state has been entered, has no loop actions, event transitions or polled conditions, and has a pending deadline.
+     * @return Returns whether update() can be skipped until getNextDeadline().
+     */
+    public boolean isWaitingForDeadline() {
+        return isRunning && hasEntered && timersStarted && currentState.timeDriven && nextDeadline != Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the number of regions running inside the current composite state.
+     * @return Returns the number of child machines, or 0 if the current state is not a composite state or has not been entered yet.
+     */
+    public int getRegionCount() {
+        return regions == null ? 0 : regions.size();
+    }
+
+    /**
+     * Gets a machine running inside the current composite state.
+     * @param index The index of the region, in the order the regions were declared.
+     * @return Returns the child machine of the region.
+     */
+    public StateMachine getRegion(int index) {
+        if (regions == null) throw new IndexOutOfBoundsException("The current state has no regions");
+        return regions.get(index);
+    }
+
+    /**
+     * Sets the executor the async actions of this machine run on.
+     * @param executor The executor handed to every AsyncCallback.
+     */
+    public void setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+    }
+
+    /**
+     * Gets the async actions of the current state.
+     * @return Returns the future of the current state's async actions, or null if the state has none or has not been entered yet.
+     */
+    public CompletableFuture<?> getOperation() {
+        return operation;
+    }
+
+    /**
+     * Turns instrumentation on or off.
+     * @param metrics The metrics to record into, created for this machine's definition, or null to stop recording.
+     */
+    public void setMetrics(StateMachineMetrics metrics) {
+        if (metrics != null && metrics.getDefinition() != definition) throw new IllegalArgumentException("Metrics belong to a different definition");
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return Returns the metrics this machine records into, or null if instrumentation is off.
+     */
+    public StateMachineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Lets this machine start a new cycle of a ConditionMemo on every update. A machine drives the memo of its definition by default;
+     * a StateMachineFleet that starts the cycles itself unsets it while the machine is part of the fleet.
+     * @param memo The memo of the machine's conditions, or null to leave starting the cycles to the driver.
+     */
+    public void setConditionMemo(ConditionMemo memo) {
+        this.conditionMemo = memo;
+    }
+
+    /**
+     * @return Returns the memo this machine advances on every update, or null.
+     */
+    public ConditionMemo getConditionMemo() {
+        return conditionMemo;
+    }
+
+    /**
+     * Turns the flight recorder on or off.
+     * @param recorder The recorder that keeps this machine's last transitions, or null to stop recording.
+     */
+    public void setFlightRecorder(FlightRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @return Returns the flight recorder of this machine, or null if it has none.
+     */
+    public FlightRecorder getFlightRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Writes the flight recorder's transitions to a compact binary dump, readable with FlightRecording. Safe to call from any thread.
+     * @param out The stream to write to. It is not closed.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void dumpFlightRecorder(OutputStream out) throws IOException {
+        FlightRecorder recorder = this.recorder;
+        if (recorder == null) throw new IllegalStateException("The machine has no flight recorder");
+
+        String[] stateNames = new String[states.length];
+        for (int i = 0; i < states.length; i++) stateNames[i] = states[i].name();
+        String[] eventNames = new String[definition.events.length];
+        for (int i = 0; i < eventNames.length; i++) eventNames[i] = definition.events[i].name();
+
+        recorder.dump(out, stateNames, eventNames);
+    }
+
+    /**
+     * Writes the runtime state of this machine, and of the child machines of its current composite state, to a buffer
+     * in the format described by StateMachineSnapshot. Timers are saved as the time elapsed on them, so they resume where they were.
+     * Must be called from the updating thread, or while the machine is not being updated.
+     * @param buffer The buffer to write to, starting at its position. Needs getSnapshotSize() bytes.
+     */
+    public void snapshot(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            buffer.putInt(StateMachineSnapshot.MAGIC);
+            buffer.putShort(StateMachineSnapshot.VERSION);
+            writeSnapshot(buffer, timeSource.nanoTime());
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * Replaces the runtime state of this machine with one written by snapshot(). The current state is restored without running
+     * its enter actions again, and every timer continues from the time that had elapsed on it.
+     * Queued events are kept. Async actions that were in flight cannot be saved, so the current state's async actions start over.
+     * Must be called from the updating thread, or while the machine is not being updated.
+     * @param buffer The buffer to read from, starting at its position.
+     * @throws IllegalArgumentException If the buffer does not hold a snapshot of a machine with this definition. The machine is left unchanged.
+     */
+    public void restore(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (buffer.getInt() != StateMachineSnapshot.MAGIC) throw new IllegalArgumentException("Not a state machine snapshot");
+            short version = buffer.getShort();
+            if (version != StateMachineSnapshot.VERSION) throw new IllegalArgumentException("Unsupported snapshot version " + version);
+
+            readSnapshot(buffer, timeSource.nanoTime());
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Snapshot is truncated", e);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * @return Returns the number of bytes snapshot() writes for the machine as it is now.
+     */
+    public int getSnapshotSize() {
+        return StateMachineSnapshot.HEADER_BYTES + machineSnapshotSize();
+    }
+
+    private int machineSnapshotSize() {
+        int bytes = StateMachineSnapshot.MACHINE_BYTES;
+        if (regions != null) {
+            for (int i = 0; i < regions.size(); i++) bytes += regions.get(i).machineSnapshotSize();
+        }
+        return bytes;
+    }
+
+    private void writeSnapshot(ByteBuffer buffer, long now) {
+        buffer.putInt(definition.fingerprint);
+        buffer.putInt(currentIndex);
+        buffer.put((byte) ((hasEntered ? StateMachineSnapshot.ENTERED : 0) | (isRunning ? StateMachineSnapshot.RUNNING : 0) | (timersStarted ? StateMachineSnapshot.TIMERS_STARTED : 0)));
+        buffer.putLong(timersStarted ? now - timerStart : 0);
+        buffer.putInt(timedActionsRun);
+        buffer.putInt(deadlinesPassed);
+
+        int regionCount = regions == null ? 0 : regions.size();
+        buffer.putInt(regionCount);
+        for (int i = 0; i < regionCount; i++) regions.get(i).writeSnapshot(buffer, now);
+    }
+
+    private void readSnapshot(ByteBuffer buffer, long now) {
+        if (buffer.getInt() != definition.fingerprint) throw new IllegalArgumentException("Snapshot was taken from a machine with a different definition");
+
+        int index = buffer.getInt();
+        int flags = buffer.get();
+        long elapsed = buffer.getLong();
+        int timedRun = buffer.getInt();
+        int passed = buffer.getInt();
+        int regionCount = buffer.getInt();
+
+        if (index < 0 || index >= states.length) throw new IllegalArgumentException("Snapshot state index " + index + " is out of range");
+        CompiledState state = states[index];
+        boolean entered = (flags & StateMachineSnapshot.ENTERED) != 0;
+        boolean running = (flags & StateMachineSnapshot.RUNNING) != 0;
+        boolean started = (flags & StateMachineSnapshot.TIMERS_STARTED) != 0;
+        if (elapsed < 0 || timedRun < 0 || timedRun > state.timedActions.length || passed < 0 || passed > state.deadlines.length) {
+            throw new IllegalArgumentException("Snapshot timers do not match state \"" + state.name() + "\"");
+        }
+        if (regionCount != (entered && state.regions != null ? state.regions.length : 0)) {
+            throw new IllegalArgumentException("Snapshot regions do not match state \"" + state.name() + "\"");
+        }
+
+        // the child machines are restored before anything of this machine changes, so a bad snapshot leaves it untouched
+        Regions restored = null;
+        if (regionCount > 0) {
+            restored = new Regions(state.regions, timeSource, regionPool, asyncExecutor);
+            for (int i = 0; i < regionCount; i++) restored.get(i).readSnapshot(buffer, now);
+        }
+
+        enterState(index);
+        hasEntered = entered;
+        isRunning = running;
+        timersStarted = started;
+        timerStart = now - elapsed;
+        timedActionsRun = timedRun;
+        deadlinesPassed = passed;
+        nextDeadline = started ? deadlineAt(state, passed) : Long.MAX_VALUE;
+        regions = restored;
+        if (entered && running && state.asyncActions != null) operation = startAsync(state.asyncActions);
+    }
+
+    /**
+     * Lets this machine run the regions of its composite states concurrently. Takes effect the next time a composite state is entered.
+     * @param pool The pool that updates the regions, or null to update them one after another.
+     */
+    public void setRegionPool(ForkJoinPool pool) {
+        this.regionPool = pool;
+    }
+
+    /**
+     * Gets the index of the current state in the definition.
+     * @return Returns the index of the current state.
+     */
+    public int getStateIndex() {
+        return currentIndex;
+    }
 
     /**
      * Should be called in every loop. Executes transitions and actions.
+     * Walks the compiled state with indexed loops only, so a call allocates nothing beyond what the user's callbacks allocate.
      */
     public void update() {
+        if(!isRunning) return;
+        update(timeSource.nanoTime());
+    }
+
+    /**
+     * Executes transitions and actions using a clock reading taken by the caller, so a driver updating many machines reads the clock once per cycle.
+     * @param now The current time in nanoseconds of the machine's TimeSource.
+     */
+    public void update(long now) {
 
         if(!isRunning) return;
-        // Turning the state machine off at the correct state
-        if( (currentState.getTimedAction().isEmpty() || timedCallbacksDone) && currentState.getTransitions().isEmpty() && currentState.getLoopActions() == null) {
-            stop();
-            isRunning = false;
-        }
+        StateMachineMetrics metrics = this.metrics;
+        long started = metrics == null ? 0 : System.nanoTime();
+
+        begin(now);
+
+        int t = evaluate(now);
+        if (t != NO_TRANSITION) commit(t, now);
+
+        if (metrics != null) metrics.updated(System.nanoTime() - started);
+    }
+
+    /**
+     * Starts a condition memo cycle, enters the current state if it has not been entered yet, then handles the queued events.
+     * The first phase of an update.
+     * A state is always entered before an event can move the machine out of it, so its enter and exit actions stay paired.
+     * @param now The current time in nanoseconds of the machine's TimeSource.
+     */
+    void begin(long now) {
+        if(!isRunning) return;
+        if (conditionMemo != null) conditionMemo.nextCycle();
 
         if (!hasEntered) {
-            if(currentState.getEnterActions() != null && !currentState.getEnterActions().isEmpty()) { // perform enter action
-                for (CallbackBase action : currentState.getEnterActions()) action.call();
-            }
+            CompiledState state = currentState;
+            if (metrics != null) metrics.entered(currentIndex);
+            call(state.enterActions, StateMachineMetrics.CallbackKind.ENTER); // perform enter action
             hasEntered = true;
-        }
 
-        if (currentState.getMinTransition() != null && currentState.getMinTransition() instanceof TransitionTimed && !((TransitionTimed) currentState.getMinTransition()).timerStarted()) {
-            ((TransitionTimed) currentState.getMinTransition()).startTimer();
+            if (state.regions != null) regions = new Regions(state.regions, timeSource, regionPool, asyncExecutor);
+            if (state.asyncActions != null) operation = startAsync(state.asyncActions);
         }
 
-        for (TimedCallback timedCallback : currentState.getTimedAction()) {
-            if (!timedCallback.timerStarted()) {
-                timedCallback.startTimer();
-            }
+        MpscIntQueue queue = events;
+        if (queue != null) drainEvents(queue, now);
+    }
+
+    /**
+     * Runs the current state's timed and loop actions and picks the transition to take, without taking it. The second phase of an update.
+     * The regions of a composite state are updated here when no transition of this level is picked.
+     * @param now The current time in nanoseconds of the machine's TimeSource.
+     * @return Returns the index of the transition to take, or NO_TRANSITION.
+     */
+    int evaluate(long now) {
+        if(!isRunning) return NO_TRANSITION;
+        if(!hasEntered) return NO_TRANSITION; // an event moved the machine in begin(); the new state is entered by the next update
+
+        CompiledState state = currentState;
+        // Turning the state machine off at the correct state
+        if (state.stopsWhenDone && timedActionsRun == state.timedActions.length
+                && (state.regions == null || (regions != null && regions.allStopped()))) {
+            isRunning = false; // not stop(), which a subclass may turn into a queued command
+        }
 
-            timedCallback.call();
+        if (!timersStarted) {
+            timerStart = now;
+            timersStarted = true;
+            deadlinesPassed = 0;
+            nextDeadline = deadlineAt(state, 0);
+        }
+        long elapsed = now - timerStart;
 
-            timedCallbacksDone = timedCallback.isDone();
+        if (now >= nextDeadline) { // nothing time-based is touched until the next deadline has passed
+            passDeadlines(state, elapsed);
         }
 
         // calling loop actions
-        if(currentState.getLoopActions() != null) {
-            for(CallbackBase action : currentState.getLoopActions()) action.call();
+        call(state.loopActions, StateMachineMetrics.CallbackKind.LOOP);
+
+        CompletableFuture<?> operation = this.operation;
+        if (operation != null && operation.isDone()) { // the outcome of the async actions takes precedence over polled conditions
+            if (!operation.isCompletedExceptionally()) {
+                if (state.completeTarget != StateMachineDefinition.NOT_HANDLED) return COMPLETE_TRANSITION;
+            } else if (state.failureTarget != StateMachineDefinition.NOT_HANDLED) {
+                return FAILURE_TRANSITION;
+            }
         }
 
-        for (TransitionData transitionInfo : currentState.getTransitions()) {
-            transitionInfo.runTimer();
-
-            if ((currentState.getMinTransition() == null && transitionInfo.shouldTransition()) ||
-                    (currentState.getMinTransition() != null && currentState.getMinTransition().shouldTransition() && transitionInfo.shouldTransition())) {
-
-                if(transitionInfo.getPointerState() != null) { // has a pointer
-                    if (linearPlacements.get(transitionInfo.getPointerState()) != null) {
-                        nextState = linearList.get(linearPlacements.get(transitionInfo.getPointerState())); // linearPlacements throws null if it does not exist which throws NPE
-                    } else {
-                        if(fallbackPlacements.get(transitionInfo.getPointerState()) != null) {
-                            nextState = fallbackList.get(fallbackPlacements.get(transitionInfo.getPointerState()));
-                        } else {
-                            throw new InvalidStateException("State \"" + currentState.getNameString() + "\": Invalid state indicated: " + transitionInfo.getPointerState() + ". Ensure that the pointer enum is connected to a state.");
-                        }
-                    }
-                } else { // linear order
-                    int currIndex = linearPlacements.get(currentState.getNameString());
-                    if(linearList.size() > currIndex+1) {
-                        nextState = linearList.get(currIndex + 1);
-                    } else {
-                        throw new StateMachineTransitionException("State \"" + currentState.getNameString() + "\": Transition Indicated, But No Next State Found. Remove final case transition statement.");
-                    }
-                }
-
-                if (transitionInfo.getExitAction() != null) {
-                    transitionInfo.getExitAction().call();
-                }
-
-                willTransition = true;
+        int t;
+        if (metrics != null) t = checkAndCountTransitions(state, elapsed);
+        else t = state.guard != null ? state.guard.check(elapsed) : checkTransitions(state, elapsed);
+        if (t != NO_TRANSITION) return t;
+
+        if (regions != null) regions.update(now); // only reached when no transition of this level fired
+        return NO_TRANSITION;
+    }
+
+    /**
+     * Checks the transitions of a state in declaration order, each after the state-wide minimum transition.
+     * @return Returns the index of the first transition that should fire, or NO_TRANSITION.
+     */
+    private static int checkTransitions(CompiledState state, long elapsed) {
+        for (int t = 0; t < state.conditions.length; t++) {
+            if (state.minimumMet(elapsed) && state.shouldTransition(t, elapsed)) return t;
+        }
+        return NO_TRANSITION;
+    }
+
+    /**
+     * Checks the transitions like checkTransitions() and records how many polled conditions were called, minimum transitions included.
+     * The compiled guards call the same conditions in the same order, so the count holds for machines that use them.
+     * @return Returns the index of the first transition that should fire, or NO_TRANSITION.
+     */
+    private int checkAndCountTransitions(CompiledState state, long elapsed) {
+        int calls = 0;
+        int fired = NO_TRANSITION;
+        for (int t = 0; t < state.conditions.length; t++) {
+            if (state.minTransition != null) calls++;
+            if (!state.minimumMet(elapsed)) continue;
+
+            if (state.conditions[t] != null) calls++;
+            if (!state.conditionMet(t, elapsed)) continue;
+
+            if (state.minimums[t] != null) calls++;
+            if (state.minimumMet(t, elapsed)) {
+                fired = t;
                 break;
             }
         }
 
-        if (willTransition && currentState.getExitActions() != null) { // if transitioning, perform exit actions
-            for(CallbackBase action : currentState.getExitActions()) action.call();
+        if (calls > 0) metrics.conditionsChecked(currentIndex, calls);
+        return fired;
+    }
+
+    /**
+     * Takes a transition of the current state. The last phase of an update.
+     * @param t The index of the transition, as returned by evaluate().
+     * @param now The time the transition was picked at, in nanoseconds of the machine's TimeSource.
+     */
+    void commit(int t, long now) {
+        CompiledState state = currentState;
+        if (metrics != null) {
+            if (t >= 0) metrics.transitionFired(currentIndex, t);
+            else metrics.outcomeFired(currentIndex, t == FAILURE_TRANSITION);
         }
 
-        if(willTransition) {
+        if (t == COMPLETE_TRANSITION) transition(state, state.completeExitAction, state.completeTarget, FlightRecorder.COMPLETE, 0, now);
+        else if (t == FAILURE_TRANSITION) transition(state, state.failureExitAction, state.failureTarget, FlightRecorder.FAILURE, 0, now);
+        else transition(state, state.transitionExitActions[t], state.targets[t], FlightRecorder.CONDITION, t, now); // target resolved by the definition
+    }
 
-            // RESETTING all timed transitions
-            for (TransitionData transitionInfo : currentState.getTransitions()) {
-                transitionInfo.resetTimer();
-            }
+    /**
+     * Runs a list of the current state's actions, timing each one when metrics are on.
+     */
+    private void call(CallbackBase[] callbacks, StateMachineMetrics.CallbackKind kind) {
+        StateMachineMetrics metrics = this.metrics;
+        if (metrics == null) {
+            for (int i = 0; i < callbacks.length; i++) callbacks[i].call();
+            return;
+        }
 
-            for(TimedCallback timedCallback : currentState.getTimedAction()) {
-                timedCallback.resetTimer();
-            }
+        long started = System.nanoTime();
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i].call();
+            long finished = System.nanoTime(); // one clock read ends this action and starts the next
+            metrics.callback(currentIndex, kind, i, finished - started);
+            started = finished;
+        }
+    }
+
+    /**
+     * Starts the async actions of a state.
+     * @return Returns a future that completes once all of them have.
+     */
+    private CompletableFuture<?> startAsync(AsyncCallback[] actions) {
+        if (actions.length == 1) return startAsync(actions[0]);
+
+        CompletableFuture<?>[] started = new CompletableFuture<?>[actions.length];
+        for (int i = 0; i < actions.length; i++) started[i] = startAsync(actions[i]);
+        return CompletableFuture.allOf(started);
+    }
+
+    /**
+     * Starts one async action. An action that throws while starting counts as failed.
+     */
+    private CompletableFuture<?> startAsync(AsyncCallback action) {
+        try {
+            return action.call(asyncExecutor);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
 
-            if(currentState.getMinTransition() != null && currentState.getMinTransition() instanceof TransitionTimed) {
-                ((TransitionTimed) currentState.getMinTransition()).resetTimer();
+    /**
+     * Cancels the async actions of the state being left. Work that is already running is not interrupted, but its result is ignored.
+     */
+    private void abandonOperation() {
+        if (operation != null) {
+            operation.cancel(false);
+            operation = null;
+        }
+    }
+
+    /**
+     * Moves past every deadline of the current state that has been reached and runs the timed actions that are due.
+     * @param state The current state.
+     * @param elapsed Nanoseconds since the state's timers started.
+     */
+    private void passDeadlines(CompiledState state, long elapsed) {
+        long[] deadlines = state.deadlines;
+        while (deadlinesPassed < deadlines.length && elapsed >= deadlines[deadlinesPassed]) deadlinesPassed++;
+        nextDeadline = deadlineAt(state, deadlinesPassed);
+
+        long[] timedActionNanos = state.timedActionNanos;
+        while (timedActionsRun < timedActionNanos.length && elapsed >= timedActionNanos[timedActionsRun]) {
+            if (metrics == null) {
+                state.timedActions[timedActionsRun].call();
+            } else {
+                long started = System.nanoTime();
+                state.timedActions[timedActionsRun].call();
+                metrics.callback(currentIndex, StateMachineMetrics.CallbackKind.TIMED, timedActionsRun, System.nanoTime() - started);
             }
-            currentState = nextState;
+            timedActionsRun++;
+        }
+    }
+
+    /**
+     * Converts one of a state's deadlines into an absolute time.
+     * @return Returns the absolute time in nanoseconds, or Long.MAX_VALUE if the state has no deadline at that index.
+     */
+    private long deadlineAt(CompiledState state, int index) {
+        if (index >= state.deadlines.length) return Long.MAX_VALUE;
+
+        long deadline = timerStart + state.deadlines[index];
+        return state.deadlines[index] > 0 && deadline < timerStart ? Long.MAX_VALUE : deadline; // saturate instead of overflowing
+    }
 
-            hasEntered = false;
-            willTransition = false;
-            timedCallbacksDone = false;
+    /**
+     * Leaves the current state: runs the transition's exit action and the state's exit actions, then moves to the target.
+     * @param state The current state.
+     * @param exitAction The exit action of the transition that fired, or null.
+     * @param nextIndex The index of the target state.
+     * @param cause What fired the transition, one of the cause constants of FlightRecorder.
+     * @param index The transition index or event id, depending on the cause.
+     * @param now The time of the update that takes the transition.
+     */
+    private void transition(CompiledState state, CallbackBase exitAction, int nextIndex, int cause, int index, long now) {
+        if (nextIndex == StateMachineDefinition.NO_NEXT_STATE) {
+            throw new StateMachineTransitionException("State \"" + state.name() + "\": Transition Indicated, But No Next State Found. Remove final case transition statement.");
+        }
+
+        FlightRecorder recorder = this.recorder;
+        if (recorder != null) recorder.record(now, currentIndex, nextIndex, cause, index, exitAction != null);
+
+        if (regions != null) regions.exit(); // exits run from the innermost state outwards
+
+        StateMachineMetrics metrics = this.metrics;
+        if (metrics != null && timersStarted) metrics.exited(currentIndex, now - timerStart);
+
+        if (exitAction != null) {
+            if (metrics == null) {
+                exitAction.call();
+            } else {
+                long started = System.nanoTime();
+                exitAction.call();
+                metrics.callback(currentIndex, StateMachineMetrics.CallbackKind.EXIT, state.exitActions.length, System.nanoTime() - started);
+            }
         }
+
+        call(state.exitActions, StateMachineMetrics.CallbackKind.EXIT); // if transitioning, perform exit actions
+
+        enterState(nextIndex);
+        hasEntered = false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs the exit actions of the active state of this machine and of every machine nested in it, innermost first, and stops the machine.
+     * Called on a child machine when the state of its parent exits. A child that stopped in its last state has still entered it,
+     * so that state's exit actions run too.
+     */
+    void exit() {
+        if (regions != null) regions.exit();
+
+        if (hasEntered) call(currentState.exitActions, StateMachineMetrics.CallbackKind.EXIT);
+
+        regions = null;
+        abandonOperation();
+        isRunning = false;
+    }
+
+    /**
+     * Moves to a state on behalf of setState() or reset(), recording the move.
+     * @param index The index of the state to move to.
+     * @param cause FlightRecorder.SET_STATE or FlightRecorder.RESET.
+     * @param now The time to record the move at.
+     */
+    void jump(int index, int cause, long now) {
+        FlightRecorder recorder = this.recorder;
+        if (recorder != null) recorder.record(now, currentIndex, index, cause, 0, false);
+
+        enterState(index);
+    }
+
+    /**
+     * @return Returns the time to record a move made outside of an update at, reading the clock only if there is a recorder.
+     */
+    private long recordTime() {
+        return recorder == null ? 0 : timeSource.nanoTime();
+    }
+
+    /**
+     * Moves to a state and clears the timers of the state being left. Any child machine of the state being left is released.
+     * @param index The index of the state to move to.
+     */
+    void enterState(int index) {
+        regions = null;
+        abandonOperation();
+        currentIndex = index;
+        currentState = states[index];
+        timersStarted = false;
+        timedActionsRun = 0;
+        nextDeadline = Long.MAX_VALUE;
+    }
+}
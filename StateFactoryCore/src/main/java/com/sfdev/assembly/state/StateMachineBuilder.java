@@ -1,22 +1,42 @@
 package com.sfdev.assembly.state;
 
+import com.sfdev.assembly.callbacks.AsyncCallback;
 import com.sfdev.assembly.callbacks.CallbackBase;
 import com.sfdev.assembly.callbacks.TimedCallback;
+import com.sfdev.assembly.recorder.FlightRecorder;
+import com.sfdev.assembly.timing.TimeSource;
 import com.sfdev.assembly.transition.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Builds each state for the StateMachine.
  */
 public class StateMachineBuilder {
     private final List<State> stateList = new ArrayList<>();
-    private List<String> stateSelect = new ArrayList<>();
+    private Set<String> stateSelect = new LinkedHashSet<>();
+    // every state created so far by name, so a selection is resolved without scanning stateList
+    private final HashMap<String, List<State>> statesByName = new HashMap<>();
     private boolean inStateSelection = false;
-    private final WaitState.WAIT[] waitList = WaitState.WAIT.values();
+    // the id of the next anonymous wait state
     private int waitCounter = 0;
+    private TimeSource timeSource = TimeSource.SYSTEM;
+    private ForkJoinPool regionPool = null;
+    private Executor asyncExecutor = ForkJoinPool.commonPool();
+    private boolean withMetrics = false;
+    private int flightRecorderCapacity = 0;
+    private boolean compiled = false;
+    private ConditionMemo conditionMemo = null;
+    private boolean optimize = false;
+    private final Set<String> keptStates = new LinkedHashSet<>();
 
     private enum StateBuilder {
         STATE_BUILDER_ENUM
@@ -30,11 +50,35 @@ public class StateMachineBuilder {
      * Creates a state through a given state object
      */
     public void createState(State state) {
-        if(!stateList.isEmpty() && stateList.get(0).getNameString().equals(StateBuilder.STATE_BUILDER_ENUM.name())) {
+        if(!stateList.isEmpty() && isTemplate(stateList.get(0))) {
+            statesByName.remove(StateBuilder.STATE_BUILDER_ENUM.name());
             stateList.set(0, state);
         } else {
             stateList.add(state);
         }
+        if(state.isAnonymous()) return; // cannot be selected by name
+
+        List<State> named = statesByName.get(state.getNameString());
+        if(named == null) {
+            named = new ArrayList<>(1);
+            statesByName.put(state.getNameString(), named);
+        }
+        named.add(state);
+    }
+
+    /**
+     * Gets the states the current builder call applies to.
+     * @return Returns the states selected with states(), or the last state created when there is no selection.
+     */
+    private List<State> targets() {
+        if(!inStateSelection) return Collections.singletonList(stateList.get(stateList.size() - 1));
+
+        List<State> selected = new ArrayList<>();
+        for(String name : stateSelect) {
+            List<State> named = statesByName.get(name);
+            if(named != null) selected.addAll(named);
+        }
+        return selected;
     }
 
     /**
@@ -212,11 +256,12 @@ public class StateMachineBuilder {
     /**
      * Progresses to the next state after a certain amount of time. (non-blocking)
      *
+     * The wait state is anonymous: it has no name, so nothing can point to it and it is only entered in linear order.
      * @param seconds The amount of seconds to wait before moving to the indicated state.
      */
     public StateMachineBuilder waitState(double seconds, String pointer) {
-        state(waitList[waitCounter]);
-        waitCounter++;
+        clearStateSelection();
+        createState(new State(waitCounter++));
         transitionTimed(seconds, pointer);
 
         return this;
@@ -297,15 +342,7 @@ public class StateMachineBuilder {
      * @param exitAction Tells the StateMachine to override the previously set exitAction if the condition is true.
      */
     public StateMachineBuilder transition(TransitionCondition condition, String nextState, CallbackBase exitAction) { // adding the new transition condition & next state
-        if(inStateSelection) {
-            for (State currState : stateList) {
-                if (stateSelect.contains(currState.getNameString())) {
-                    currState.getTransitions().add(new TransitionData(condition, nextState, exitAction)); // add transition to the last state
-                }
-            }
-        }
-        else
-            stateList.get(stateList.size() - 1).getTransitions().add(new TransitionData(condition, nextState, exitAction)); // add transition to the last state
+        for (State currState : targets()) currState.addTransition(new TransitionData(condition, nextState, exitAction));
 
         return this;
     }
@@ -329,18 +366,17 @@ public class StateMachineBuilder {
      */
     public StateMachineBuilder minimumTransitionTimed(double time, int... transitionNumber) {
         State list = stateList.get(stateList.size() - 1);
-        for (int i = 0; i < list.getTransitions().size(); i++) {
-            for (int k : transitionNumber) {
-                if(k > list.getTransitions().size()) {
-                    throw new IllegalMinimumTransition("State " + list.getNameString() + ": Minimum transition on a non-existent state");
-                }
-                if (i+1 == k) {
-                    list.getTransitions().get(i).setMinimumTransition(new TransitionTimed(time));
-                    break;
-                }
+        List<TransitionData> transitions = list.getTransitions();
+        if (transitions.isEmpty()) return this;
+
+        for (int k : transitionNumber) {
+            if(k > transitions.size()) {
+                throw new IllegalMinimumTransition("State " + list.getNameString() + ": Minimum transition on a non-existent state");
             }
         }
-
+        for (int k : transitionNumber) {
+            if (k >= 1) list.setMinimumTransition(k - 1, new TransitionTimed(time));
+        }
 
         return this;
     }
@@ -521,6 +557,172 @@ public class StateMachineBuilder {
         return transition(new TransitionTimed(time), exitActions);
     }
 
+    /**
+     * Assigns a new event transition to a state. It is not polled; it fires when the event is passed to StateMachine.fire() while in this state.
+     * Example statement:
+     * ".on( Events.PieceDetected, Enums.IntakeTransfer, ()-> robot.intake.retract() )"
+     *
+     * @param event      The event that triggers the transition.
+     * @param nextState  Indicates what the state the StateMachine should transition to when the event is fired.
+     * @param exitAction Tells the StateMachine to override the previously set exitAction when the event fires the transition.
+     */
+    public StateMachineBuilder on(Enum<?> event, String nextState, CallbackBase exitAction) {
+        for (State currState : targets()) currState.addEventTransition(new TransitionData(event, nextState, exitAction));
+
+        return this;
+    }
+
+    /**
+     * Assigns a new event transition to a state.
+     * Example statement:
+     * ".on( Events.PieceDetected, Enums.IntakeTransfer, ()-> robot.intake.retract() )"
+     *
+     * @param event      The event that triggers the transition.
+     * @param nextState  Indicates what the state the StateMachine should transition to when the event is fired.
+     * @param exitAction Tells the StateMachine to override the previously set exitAction when the event fires the transition.
+     */
+    public StateMachineBuilder on(Enum<?> event, Enum<?> nextState, CallbackBase exitAction) {
+        return on(event, nextState.name(), exitAction);
+    }
+
+    /**
+     * Assigns a new event transition to a state.
+     * Example statement:
+     * ".on( Events.PieceDetected, Enums.IntakeTransfer )"
+     *
+     * @param event     The event that triggers the transition.
+     * @param nextState Indicates what the state the StateMachine should transition to when the event is fired.
+     */
+    public StateMachineBuilder on(Enum<?> event, Enum<?> nextState) {
+        return on(event, nextState.name(), null);
+    }
+
+    /**
+     * Assigns a new event transition to a state.
+     * Example statement:
+     * ".on( Events.PieceDetected, "IntakeTransfer" )"
+     *
+     * @param event     The event that triggers the transition.
+     * @param nextState Indicates what the state the StateMachine should transition to when the event is fired.
+     */
+    public StateMachineBuilder on(Enum<?> event, String nextState) {
+        return on(event, nextState, null);
+    }
+
+    /**
+     * Assigns a new event transition to a state. The next state is determined by linear state order.
+     * Example statement:
+     * ".on( Events.PieceDetected )"
+     *
+     * @param event The event that triggers the transition.
+     */
+    public StateMachineBuilder on(Enum<?> event) {
+        return on(event, (String) null, null);
+    }
+
+    /**
+     * Assigns an action that is started off the update thread upon entering a state. update() never waits for it;
+     * use onComplete() and onFailure() to move on when it is done. If a state has several async actions, they count as done once all of them are.
+     * Example:
+     * ".onEnterAsync( executor -> robot.arm.moveToAsync(HOME) )"
+     *
+     * @param action Starts the action and returns a future that completes with it.
+     */
+    public StateMachineBuilder onEnterAsync(AsyncCallback action) {
+        for (State currState : targets()) currState.addAsyncAction(action);
+        return this;
+    }
+
+    /**
+     * Assigns a blocking action that runs on the machine's async executor (see asyncExecutor()) upon entering a state.
+     * Example:
+     * ".onEnterAsync( () -> robot.camera.saveSnapshot() )"
+     *
+     * @param action Segment of code that should be executed off the update thread.
+     */
+    public StateMachineBuilder onEnterAsync(CallbackBase action) {
+        return onEnterAsync(AsyncCallback.of(action));
+    }
+
+    /**
+     * Assigns the transition taken once the state's async actions complete successfully.
+     * @param nextState  Indicates what the state the StateMachine should transition to, or null for linear order.
+     * @param exitAction Tells the StateMachine to override the previously set exitAction when the transition fires.
+     */
+    public StateMachineBuilder onComplete(String nextState, CallbackBase exitAction) {
+        for (State currState : targets()) currState.setCompleteTransition(new TransitionData((TransitionCondition) null, nextState, exitAction));
+
+        return this;
+    }
+
+    /**
+     * Assigns the transition taken once the state's async actions complete successfully.
+     * @param nextState  Indicates what the state the StateMachine should transition to.
+     * @param exitAction Tells the StateMachine to override the previously set exitAction when the transition fires.
+     */
+    public StateMachineBuilder onComplete(Enum<?> nextState, CallbackBase exitAction) {
+        return onComplete(nextState.name(), exitAction);
+    }
+
+    /**
+     * Assigns the transition taken once the state's async actions complete successfully.
+     * @param nextState Indicates what the state the StateMachine should transition to.
+     */
+    public StateMachineBuilder onComplete(Enum<?> nextState) {
+        return onComplete(nextState.name(), null);
+    }
+
+    /**
+     * Assigns the transition taken once the state's async actions complete successfully.
+     * @param nextState Indicates what the state the StateMachine should transition to.
+     */
+    public StateMachineBuilder onComplete(String nextState) {
+        return onComplete(nextState, null);
+    }
+
+    /**
+     * Assigns the transition taken once the state's async actions complete successfully. The next state is determined by linear state order.
+     */
+    public StateMachineBuilder onComplete() {
+        return onComplete((String) null, null);
+    }
+
+    /**
+     * Assigns the transition taken once one of the state's async actions fails. The failure is available through StateMachine.getOperation().
+     * @param nextState  Indicates what the state the StateMachine should transition to.
+     * @param exitAction Tells the StateMachine to override the previously set exitAction when the transition fires.
+     */
+    public StateMachineBuilder onFailure(String nextState, CallbackBase exitAction) {
+        for (State currState : targets()) currState.setFailureTransition(new TransitionData((TransitionCondition) null, nextState, exitAction));
+
+        return this;
+    }
+
+    /**
+     * Assigns the transition taken once one of the state's async actions fails.
+     * @param nextState  Indicates what the state the StateMachine should transition to.
+     * @param exitAction Tells the StateMachine to override the previously set exitAction when the transition fires.
+     */
+    public StateMachineBuilder onFailure(Enum<?> nextState, CallbackBase exitAction) {
+        return onFailure(nextState.name(), exitAction);
+    }
+
+    /**
+     * Assigns the transition taken once one of the state's async actions fails.
+     * @param nextState Indicates what the state the StateMachine should transition to.
+     */
+    public StateMachineBuilder onFailure(Enum<?> nextState) {
+        return onFailure(nextState.name(), null);
+    }
+
+    /**
+     * Assigns the transition taken once one of the state's async actions fails.
+     * @param nextState Indicates what the state the StateMachine should transition to.
+     */
+    public StateMachineBuilder onFailure(String nextState) {
+        return onFailure(nextState, null);
+    }
+
     /**
      * Assigns an action to execute upon entering a state.
      * Example:
@@ -533,15 +735,7 @@ public class StateMachineBuilder {
      * @param call Segment of code that should be executed on the entrance of the state.
      */
     public StateMachineBuilder onEnter(CallbackBase call) {
-        if(inStateSelection) {
-            for (State currState : stateList) {
-                if (stateSelect.contains(currState.getNameString())) {
-                    currState.addEnterActions(call);
-                }
-            }
-        }
-        else
-            stateList.get(stateList.size() - 1).addEnterActions(call);
+        for (State currState : targets()) currState.addEnterActions(call);
         return this;
     }
 
@@ -557,28 +751,12 @@ public class StateMachineBuilder {
      * @param call Segment of code that should be executed on the exit of the state, unless overridden by a transition.
      */
     public StateMachineBuilder onExit(CallbackBase call) {
-        if(inStateSelection) {
-            for (State currState : stateList) {
-                if (stateSelect.contains(currState.getNameString())) {
-                    currState.addExitAction(call);
-                }
-            }
-        }
-        else
-            stateList.get(stateList.size() - 1).addExitAction(call);
+        for (State currState : targets()) currState.addExitAction(call);
         return this;
     }
 
     public StateMachineBuilder afterTime(double time, CallbackBase callbackBase) {
-        if(inStateSelection) {
-            for (State currState : stateList) {
-                if (stateSelect.contains(currState.getNameString())) {
-                    currState.addTimedAction(new TimedCallback(time, callbackBase));
-                }
-            }
-        }
-        else
-            stateList.get(stateList.size() - 1).addTimedAction(new TimedCallback(time, callbackBase));
+        for (State currState : targets()) currState.addTimedAction(new TimedCallback(time, callbackBase));
 
         return this;
     }
@@ -587,15 +765,28 @@ public class StateMachineBuilder {
      * @param call Segment of code that will be executed every loop.
      */
     public StateMachineBuilder loop(CallbackBase call) {
-        if(inStateSelection) {
-            for (State currState : stateList) {
-                if (stateSelect.contains(currState.getNameString())) {
-                    currState.addLoopActions(call);
-                }
-            }
-        }
-        else
-            stateList.get(stateList.size() - 1).addLoopActions(call);
+        for (State currState : targets()) currState.addLoopActions(call);
+        return this;
+    }
+
+    /**
+     * Makes the state a composite state that runs a child machine while it is active.
+     * The child is instantiated when the state is entered and released when it exits. The parent's transitions are checked first,
+     * and the child is only updated when none of them fired. Events the state does not handle are passed on to the child.
+     * @param definition The definition of the child machine.
+     */
+    public StateMachineBuilder subMachine(StateMachineDefinition definition) {
+        return regions(definition);
+    }
+
+    /**
+     * Makes the state a composite state with orthogonal regions: one child machine per definition, all active at once and ticked by the same update().
+     * Regions are updated in the order given, or concurrently when the machine has a region pool (see regionPool()).
+     * Events the state does not handle are passed on to every region.
+     * @param definitions The definitions of the regions' machines.
+     */
+    public StateMachineBuilder regions(StateMachineDefinition... definitions) {
+        for (State currState : targets()) currState.setRegions(definitions);
         return this;
     }
 
@@ -604,7 +795,7 @@ public class StateMachineBuilder {
      * @param states The states, defined by strings, to have the following actions added to.
      */
     public StateMachineBuilder states(String... states) {
-        stateSelect = Arrays.asList(states);
+        stateSelect = new LinkedHashSet<>(Arrays.asList(states));
         inStateSelection = true;
 
         return this;
@@ -615,7 +806,7 @@ public class StateMachineBuilder {
      * @param states The states, defined by enums, to have the following actions added to.
      */
     public StateMachineBuilder states(Enum... states) {
-        List<String> stateNames = new ArrayList<>();
+        Set<String> stateNames = new LinkedHashSet<>();
         for (Enum state : states) {
             stateNames.add(state.name());
         }
@@ -628,6 +819,7 @@ public class StateMachineBuilder {
 
     /**
      * Call this at the end of the StateMachine methods list to construct the machine.
+     * Every transition pointer is resolved to a state index here, so a pointer to a state that does not exist fails the build.
      * Example:
      * "...
      * .build();"
@@ -635,12 +827,143 @@ public class StateMachineBuilder {
      * @return StateMachine object with the stateList and the updates list.
      */
     public StateMachine build() {
-        // Order timedCallbacks
-        for (State state : stateList) {
-            if (!state.getTimedAction().isEmpty()) state.getTimedAction().sort((a,b) -> a.getTime() >= b.getTime() ? 1 : -1);
-        }
+        return configure(new StateMachine(buildDefinition(), timeSource));
+    }
+
+    /**
+     * Call this at the end of the StateMachine methods list to construct a machine that other threads can read and command safely.
+     * @return Returns a ConcurrentStateMachine.
+     */
+    public ConcurrentStateMachine buildConcurrent() {
+        return configure(new ConcurrentStateMachine(buildDefinition(), timeSource));
+    }
+
+    private <T extends StateMachine> T configure(T machine) {
+        machine.setRegionPool(regionPool);
+        machine.setAsyncExecutor(asyncExecutor);
+        if (withMetrics) machine.setMetrics(new StateMachineMetrics(machine.getDefinition()));
+        if (flightRecorderCapacity > 0) machine.setFlightRecorder(new FlightRecorder(flightRecorderCapacity));
+        return machine;
+    }
+
+    /**
+     * Gives the built machine a flight recorder that keeps its last transitions. See StateMachine.dumpFlightRecorder().
+     * @param capacity The number of transitions kept, for example FlightRecorder.DEFAULT_CAPACITY.
+     */
+    public StateMachineBuilder flightRecorder(int capacity) {
+        this.flightRecorderCapacity = capacity;
+
+        return this;
+    }
+
+    /**
+     * Optimizes the built definition: removes the states no transition leads to, skips over empty pass-through states and merges
+     * chains of back-to-back wait states into one wait. Every action still runs in the same order, with fewer updates in between.
+     * States that are removed can no longer be reached through setState(); failsafe states and the states given to keepStates() are
+     * always kept. What changed, including every removed state, is in StateMachineDefinition.getOptimizationReport(). Off by default.
+     */
+    public StateMachineBuilder optimize() {
+        this.optimize = true;
+
+        return this;
+    }
+
+    /**
+     * Keeps states through optimize() that no transition leads to or that would be skipped over, because they are entered through setState().
+     * @param states The names of the states to keep.
+     */
+    public StateMachineBuilder keepStates(String... states) {
+        keptStates.addAll(Arrays.asList(states));
+
+        return this;
+    }
+
+    /**
+     * Keeps states through optimize() that no transition leads to or that would be skipped over, because they are entered through setState().
+     * @param states The states to keep.
+     */
+    public StateMachineBuilder keepStates(Enum<?>... states) {
+        for (Enum<?> state : states) keptStates.add(state.name());
+
+        return this;
+    }
+
+    /**
+     * Compiles the built definition for speed: the transitions of each state are checked by code specialized for that state's shape,
+     * for example a single polled condition or only timed transitions, instead of the general loop that handles every combination.
+     * Behaves exactly like a definition that is not compiled. Off by default.
+     */
+    public StateMachineBuilder compiled() {
+        this.compiled = true;
+
+        return this;
+    }
+
+    /**
+     * Evaluates each polled condition of the built definition at most once per cycle of the memo, however many transitions share it.
+     * Every machine that runs from the built definition starts a new cycle on every update, unless it is part of a StateMachineFleet
+     * with the same memo (see StateMachineFleet.setConditionMemo()), which starts one cycle per tick for all of its machines.
+     * Several builders can use the same memo, so conditions shared between definitions are only evaluated once per cycle too.
+     * @param memo The memo, or null to evaluate conditions every time they are checked.
+     */
+    public StateMachineBuilder memoizeConditions(ConditionMemo memo) {
+        this.conditionMemo = memo;
+
+        return this;
+    }
+
+    /**
+     * Turns on instrumentation for the built machine. Read the results through StateMachine.getMetrics().
+     */
+    public StateMachineBuilder withMetrics() {
+        this.withMetrics = true;
+
+        return this;
+    }
+
+    /**
+     * Sets the executor that the built machine's async actions run on. Defaults to the common fork-join pool.
+     * On a JVM with virtual threads, Executors.newVirtualThreadPerTaskExecutor() lets every blocking action have a thread of its own.
+     * @param executor The executor handed to every AsyncCallback.
+     */
+    public StateMachineBuilder asyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+
+        return this;
+    }
+
+    /**
+     * Lets the built machine run the regions of its composite states concurrently. Off by default.
+     * @param pool The pool that updates the regions, or null to update them one after another.
+     */
+    public StateMachineBuilder regionPool(ForkJoinPool pool) {
+        this.regionPool = pool;
+
+        return this;
+    }
+
+    /**
+     * Sets the clock the built machine reads once per update. Defaults to TimeSource.SYSTEM.
+     * @param timeSource The clock, for example a ManualTimeSource in tests.
+     */
+    public StateMachineBuilder timeSource(TimeSource timeSource) {
+        this.timeSource = timeSource;
+
+        return this;
+    }
+
+    /**
+     * Call this at the end of the StateMachine methods list to construct a shareable definition instead of a single machine.
+     * Any number of machines can then be created from it with StateMachineDefinition.newInstance().
+     * Every transition pointer is resolved to a state index here, so a pointer to a state that does not exist fails the build.
+     *
+     * @return Immutable StateMachineDefinition compiled from the stateList.
+     */
+    public StateMachineDefinition buildDefinition() {
+        if (!optimize) return new StateMachineDefinition(stateList, compiled, conditionMemo, null);
 
-        return new StateMachine(stateList);
+        OptimizationReport report = new OptimizationReport();
+        return new StateMachineDefinition(StateMachineOptimizer.optimize(stateList, keptStates, report), compiled, conditionMemo, report);
     }
 
     /**
@@ -652,11 +975,18 @@ public class StateMachineBuilder {
      * @return State object with the appropriate properties.
      */
     public State buildStateTemplate() {
-        if (stateList.get(0).getNameString().equals(StateBuilder.STATE_BUILDER_ENUM.name())) {
+        if (isTemplate(stateList.get(0))) {
             return stateList.get(0);
         } else throw new StateTemplateBuilderException("Attempted to build a state template with normal state machine builder. Do not indicate state name with '.state()' or change '.buildStateTemplate()' to '.build()'");
     }
 
+    /**
+     * @return Returns whether the state is the placeholder a builder starts with, which the first state created replaces.
+     */
+    private static boolean isTemplate(State state) {
+        return state.getNameEnum() == StateBuilder.STATE_BUILDER_ENUM;
+    }
+
     /**
      * Clears the stateSelect array
      */
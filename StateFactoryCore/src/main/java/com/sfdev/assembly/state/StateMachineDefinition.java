@@ -0,0 +1,283 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.callbacks.CallbackBase;
+import com.sfdev.assembly.timing.TimeSource;
+import com.sfdev.assembly.transition.ConditionMemo;
+import com.sfdev.assembly.transition.TransitionData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The immutable, compiled structure of a state machine: its states, actions and resolved transition table.
+ * A definition holds no runtime data, so it can be shared between threads and any number of StateMachine instances can run from it.
+ * Note that the callbacks and conditions themselves are shared too, so they must be safe to call from every instance.
+ */
+public final class StateMachineDefinition {
+    /**
+     * Marks a linear transition out of the final linear state (or out of a failsafe state) that has no state to move to.
+     */
+    static final int NO_NEXT_STATE = -1;
+
+    /**
+     * Marks an event that the state does not react to.
+     */
+    static final int NOT_HANDLED = -2;
+
+    // linear states occupy [0, linearCount), failsafe states follow them
+    final CompiledState[] states;
+    final int linearCount;
+    private final HashMap<String, Integer> placements;
+    // every distinct event gets a dense id, used to index the per-state event tables
+    private final HashMap<Enum<?>, Integer> eventIds;
+    // the event of each id
+    final Enum<?>[] events;
+    // identifies the structure of the definition in snapshots
+    final int fingerprint;
+    private final boolean compiled;
+    private final ConditionMemo memo;
+    private final OptimizationReport optimizationReport;
+
+    /**
+     * Compiles a definition. Every transition pointer is resolved into a state index here.
+     * @param stateList Provides the list of states for the StateMachine to parse and perform logic with.
+     */
+    StateMachineDefinition(List<State> stateList) {
+        this(stateList, false, null, null);
+    }
+
+    /**
+     * Compiles a definition. Every transition pointer is resolved into a state index here.
+     * @param stateList Provides the list of states for the StateMachine to parse and perform logic with.
+     * @param compiled Whether to specialize how the transitions of each state are checked, see TransitionGuard.
+     * @param memo Remembers the result of every polled condition for a cycle, or null to evaluate conditions every time they are checked.
+     * @param optimizationReport What the optimizer changed in stateList, or null if it was not optimized.
+     */
+    StateMachineDefinition(List<State> stateList, boolean compiled, ConditionMemo memo, OptimizationReport optimizationReport) {
+        this.compiled = compiled;
+        this.memo = memo;
+        this.optimizationReport = optimizationReport;
+        List<State> linearList = new ArrayList<>();
+        List<State> fallbackList = new ArrayList<>();
+
+        // splitting list stateList between linearList and fallbackList
+        for(State s : stateList) {
+            if(s.isFailsafe())
+                fallbackList.add(s);
+            else
+                linearList.add(s);
+        }
+
+        linearCount = linearList.size();
+        List<State> ordered = new ArrayList<>(linearList);
+        ordered.addAll(fallbackList);
+        placements = new HashMap<>();
+
+        int hash = linearCount;
+        for(State s : ordered) hash = 31 * hash + (s.isAnonymous() ? s.getAnonymousId() : s.getNameString().hashCode());
+        fingerprint = 31 * hash + ordered.size();
+
+        // anonymous states cannot be pointed to, so they are left out
+        for(int i = ordered.size() - 1; i >= linearCount; i--) {
+            if(!ordered.get(i).isAnonymous()) placements.put(ordered.get(i).getNameString(), i);
+        }
+
+        // linear states are registered last so they take precedence over failsafe states of the same name
+        for(int i = 0; i < linearCount; i++) {
+            if(!ordered.get(i).isAnonymous()) placements.put(ordered.get(i).getNameString(), i);
+        }
+
+        List<Enum<?>> eventList = new ArrayList<>();
+        eventIds = new HashMap<>();
+        for(State s : ordered) {
+            if(s.getEventTransitions() == null) continue;
+            for(TransitionData transition : s.getEventTransitions()) {
+                registerEvent(transition.getEvent(), eventList);
+            }
+        }
+
+        // a parent accepts the events of its child machines too, and passes on the ones its current state does not handle
+        for(State s : ordered) {
+            if(s.getRegions() == null) continue;
+            for(StateMachineDefinition region : s.getRegions()) {
+                for(Enum<?> event : region.events) registerEvent(event, eventList);
+            }
+        }
+        events = eventList.toArray(new Enum<?>[0]);
+
+        states = new CompiledState[ordered.size()];
+        CompiledState.SharedLists shared = new CompiledState.SharedLists();
+        for(int i = 0; i < states.length; i++) {
+            State state = ordered.get(i);
+            int completeTarget = resolveOutcome(state, i, state.getCompleteTransition());
+            int failureTarget = resolveOutcome(state, i, state.getFailureTransition());
+            if(state.getEventTransitions() == null) {
+                states[i] = new CompiledState(state, resolveTargets(state, i), null, null, completeTarget, failureTarget, compiled, memo, shared);
+            } else {
+                int[] eventTargets = new int[eventIds.size()];
+                CallbackBase[] eventExitActions = new CallbackBase[eventIds.size()];
+                resolveEvents(state, i, eventTargets, eventExitActions);
+                states[i] = new CompiledState(state, resolveTargets(state, i), eventTargets, eventExitActions, completeTarget, failureTarget, compiled, memo, shared);
+            }
+        }
+    }
+
+    private void registerEvent(Enum<?> event, List<Enum<?>> eventList) {
+        if(eventIds.containsKey(event)) return;
+
+        eventIds.put(event, eventList.size());
+        eventList.add(event);
+    }
+
+    /**
+     * Resolves the pointer of every transition of a state into a state index.
+     * @param state The state whose transitions are resolved.
+     * @param index The index of the state.
+     * @return Returns the target state index of each transition, in transition order.
+     */
+    private int[] resolveTargets(State state, int index) {
+        List<TransitionData> transitions = state.getTransitions();
+        int[] targets = new int[transitions.size()];
+
+        for(int t = 0; t < targets.length; t++) {
+            targets[t] = resolvePointer(state, index, transitions.get(t).getPointerState());
+        }
+
+        return targets;
+    }
+
+    /**
+     * Fills the event table of a state, indexed by event id.
+     * @param state The state whose event transitions are resolved.
+     * @param index The index of the state.
+     * @param targets Receives the target state index for each event id, or NOT_HANDLED.
+     * @param exitActions Receives the exit action of the transition that handles each event id.
+     */
+    private void resolveEvents(State state, int index, int[] targets, CallbackBase[] exitActions) {
+        Arrays.fill(targets, NOT_HANDLED);
+
+        for(TransitionData transition : state.getEventTransitions()) {
+            int event = eventIds.get(transition.getEvent());
+            if(targets[event] != NOT_HANDLED) continue; // the first transition declared for an event wins
+
+            targets[event] = resolvePointer(state, index, transition.getPointerState());
+            exitActions[event] = transition.getExitAction();
+        }
+    }
+
+    /**
+     * Resolves a transition taken on the outcome of a state's async actions.
+     * @param state The state the transition belongs to.
+     * @param index The index of the state.
+     * @param transition The transition, or null.
+     * @return Returns the index of the target state, or NOT_HANDLED if there is no transition.
+     */
+    private int resolveOutcome(State state, int index, TransitionData transition) {
+        return transition == null ? NOT_HANDLED : resolvePointer(state, index, transition.getPointerState());
+    }
+
+    /**
+     * Resolves a transition pointer into a state index.
+     * @param state The state the transition belongs to.
+     * @param index The index of the state.
+     * @param pointer The name of the pointer state, or null for linear order.
+     * @return Returns the index of the target state, or NO_NEXT_STATE if a linear transition has no state to move to.
+     */
+    @SuppressWarnings("auxiliaryclass") // the builder exceptions live in StateMachine.java
+    private int resolvePointer(State state, int index, String pointer) {
+        if(pointer == null) { // linear order
+            return index + 1 < linearCount ? index + 1 : NO_NEXT_STATE;
+        }
+
+        Integer target = placements.get(pointer);
+        if(target == null) {
+            throw new InvalidStateException("State \"" + state.getNameString() + "\": Invalid state indicated: " + pointer + ". Ensure that the pointer enum is connected to a state.");
+        }
+        return target;
+    }
+
+    /**
+     * Creates a new StateMachine that runs from this definition. Only the runtime data is allocated.
+     * @return Returns a stopped machine positioned at the first linear state.
+     */
+    public StateMachine newInstance() {
+        return new StateMachine(this);
+    }
+
+    /**
+     * Creates a new StateMachine that runs from this definition and reads time from the given clock.
+     * @param timeSource The clock the machine reads once per update.
+     * @return Returns a stopped machine positioned at the first linear state.
+     */
+    public StateMachine newInstance(TimeSource timeSource) {
+        return new StateMachine(this, timeSource);
+    }
+
+    /**
+     * @return Returns whether the transitions of each state are checked by code specialized for that state.
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * @return Returns what the optimizer changed, or null if the definition was built without StateMachineBuilder.optimize().
+     */
+    public OptimizationReport getOptimizationReport() {
+        return optimizationReport;
+    }
+
+    /**
+     * @return Returns the memo that remembers the results of the definition's conditions, or null if they are not memoized.
+     */
+    public ConditionMemo getConditionMemo() {
+        return memo;
+    }
+
+    /**
+     * Gets the number of states in the definition.
+     * @return Returns the number of linear and failsafe states.
+     */
+    public int getStateCount() {
+        return states.length;
+    }
+
+    /**
+     * Looks up the index of a state by name. Linear states take precedence over failsafe states of the same name.
+     * Anonymous wait states have no name to look up.
+     * @param name The name of the state.
+     * @return Returns the index of the state, or -1 if no state has that name.
+     */
+    public int indexOf(String name) {
+        Integer index = placements.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Looks up the id of an event.
+     * @param event The event.
+     * @return Returns the dense id of the event, or -1 if no state reacts to it.
+     */
+    public int eventId(Enum<?> event) {
+        Integer id = eventIds.get(event);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return Returns whether any state has an event transition.
+     */
+    boolean hasEvents() {
+        return !eventIds.isEmpty();
+    }
+
+    /**
+     * Gets the name of a state.
+     * @param index The index of the state.
+     * @return Returns the name of the state in string form.
+     */
+    public String getStateName(int index) {
+        return states[index].name();
+    }
+}
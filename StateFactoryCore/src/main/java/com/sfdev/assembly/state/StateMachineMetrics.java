@@ -0,0 +1,252 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.metrics.Histogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in instrumentation of the machines that run from one StateMachineDefinition.
+ * Records per-state entry counts, dwell times and condition checks, per-transition fire counts, the run time of every enter, exit,
+ * loop and timed action, and the latency of update(). Every counter and histogram is allocated up front and recording only touches
+ * striped counters (LongAdder) and fixed-bucket Histograms, so recording allocates nothing and several machines can share one instance.
+ * A machine without metrics pays a single null check per phase of its update.
+ * Only the machine's own level is recorded; child machines of composite states are not.
+ */
+public final class StateMachineMetrics {
+    /**
+     * The kinds of actions whose run time is recorded.
+     */
+    public enum CallbackKind {
+        ENTER, EXIT, LOOP, TIMED
+    }
+
+    private static final int KINDS = CallbackKind.values().length;
+
+    private final StateMachineDefinition definition;
+    private final LongAdder[] entries;
+    private final Histogram[] dwell;
+    private final LongAdder[] conditionChecks;
+    // per state: one slot per polled transition, one per event id, then the async completion and failure transitions
+    private final int[] transitionOffsets;
+    private final LongAdder[] transitionFires;
+    // per state and kind: one slot per action; the exit kind has one more slot for the exit action of the transition that fired
+    private final int[] callbackOffsets;
+    private final Histogram[] callbackTimes;
+    private final Histogram updateLatency = new Histogram();
+
+    /**
+     * Creates the metrics of a definition. Attach them with StateMachine.setMetrics().
+     * @param definition The definition of the machines to instrument.
+     */
+    public StateMachineMetrics(StateMachineDefinition definition) {
+        this.definition = definition;
+        CompiledState[] states = definition.states;
+
+        entries = new LongAdder[states.length];
+        dwell = new Histogram[states.length];
+        conditionChecks = new LongAdder[states.length];
+        transitionOffsets = new int[states.length + 1];
+        callbackOffsets = new int[states.length * KINDS + 1];
+
+        for (int s = 0; s < states.length; s++) {
+            CompiledState state = states[s];
+            entries[s] = new LongAdder();
+            dwell[s] = new Histogram();
+            conditionChecks[s] = new LongAdder();
+
+            transitionOffsets[s + 1] = transitionOffsets[s] + state.conditions.length + definition.events.length + 2;
+
+            int base = s * KINDS;
+            callbackOffsets[base + 1] = callbackOffsets[base] + state.enterActions.length;
+            callbackOffsets[base + 2] = callbackOffsets[base + 1] + state.exitActions.length + 1;
+            callbackOffsets[base + 3] = callbackOffsets[base + 2] + state.loopActions.length;
+            callbackOffsets[base + 4] = callbackOffsets[base + 3] + state.timedActions.length;
+        }
+
+        transitionFires = new LongAdder[transitionOffsets[states.length]];
+        for (int i = 0; i < transitionFires.length; i++) transitionFires[i] = new LongAdder();
+        callbackTimes = new Histogram[callbackOffsets[states.length * KINDS]];
+        for (int i = 0; i < callbackTimes.length; i++) callbackTimes[i] = new Histogram();
+    }
+
+    /**
+     * @return Returns the definition these metrics belong to.
+     */
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
+    // recording, called by StateMachine
+
+    void entered(int state) {
+        entries[state].increment();
+    }
+
+    void exited(int state, long dwellNanos) {
+        dwell[state].record(dwellNanos);
+    }
+
+    void conditionsChecked(int state, int count) {
+        conditionChecks[state].add(count);
+    }
+
+    void transitionFired(int state, int t) {
+        transitionFires[transitionOffsets[state] + t].increment();
+    }
+
+    void eventFired(int state, int event) {
+        transitionFires[transitionOffsets[state] + definition.states[state].conditions.length + event].increment();
+    }
+
+    void outcomeFired(int state, boolean failed) {
+        transitionFires[transitionOffsets[state + 1] - (failed ? 1 : 2)].increment();
+    }
+
+    void callback(int state, CallbackKind kind, int index, long nanos) {
+        callbackTimes[callbackOffsets[state * KINDS + kind.ordinal()] + index].record(nanos);
+    }
+
+    void updated(long nanos) {
+        updateLatency.record(nanos);
+    }
+
+    // reading
+
+    /**
+     * @param state The name of the state.
+     * @return Returns how many times the state was entered.
+     */
+    public long getEntries(String state) {
+        return entries[index(state)].sum();
+    }
+
+    /**
+     * @param state The name of the state.
+     * @return Returns the time spent in the state on each visit, in nanoseconds of the machine's TimeSource.
+     */
+    public Histogram getDwellTime(String state) {
+        return dwell[index(state)];
+    }
+
+    /**
+     * @param state The name of the state.
+     * @return Returns how many times the machines called a polled condition of the state, counting polled minimum transitions and calls
+     * answered by a ConditionMemo. Timed transitions are not conditions and are not counted.
+     */
+    public long getConditionChecks(String state) {
+        return conditionChecks[index(state)].sum();
+    }
+
+    /**
+     * @param state The name of the state.
+     * @param transition The index of the polled transition, in the order the transitions were declared.
+     * @return Returns how many times the transition fired.
+     */
+    public long getTransitionFires(String state, int transition) {
+        int s = index(state);
+        if (transition < 0 || transition >= definition.states[s].conditions.length) throw new IndexOutOfBoundsException("No transition " + transition + " in state " + state);
+        return transitionFires[transitionOffsets[s] + transition].sum();
+    }
+
+    /**
+     * @param state The name of the state.
+     * @param event The event.
+     * @return Returns how many times the event fired a transition out of the state.
+     */
+    public long getEventFires(String state, Enum<?> event) {
+        int s = index(state);
+        int id = definition.eventId(event);
+        return id == -1 ? 0 : transitionFires[transitionOffsets[s] + definition.states[s].conditions.length + id].sum();
+    }
+
+    /**
+     * @param state The name of the state.
+     * @param failed Whether to count the failure transition instead of the completion transition.
+     * @return Returns how many times the transition on the outcome of the state's async actions fired.
+     */
+    public long getOutcomeFires(String state, boolean failed) {
+        return transitionFires[transitionOffsets[index(state) + 1] - (failed ? 1 : 2)].sum();
+    }
+
+    /**
+     * Gets the run time of an action.
+     * @param state The name of the state.
+     * @param kind The kind of action.
+     * @param index The index of the action among the state's actions of that kind, in the order they were added (timed actions in time order).
+     *              For EXIT, the index after the state's own exit actions holds the exit actions of the transitions that fired.
+     * @return Returns the run time of each call, in nanoseconds.
+     */
+    public Histogram getCallbackTime(String state, CallbackKind kind, int index) {
+        int slot = index(state) * KINDS + kind.ordinal();
+        if (index < 0 || callbackOffsets[slot] + index >= callbackOffsets[slot + 1]) throw new IndexOutOfBoundsException("No " + kind + " action " + index + " in state " + state);
+        return callbackTimes[callbackOffsets[slot] + index];
+    }
+
+    /**
+     * @return Returns the wall time of each update(), in nanoseconds.
+     */
+    public Histogram getUpdateLatency() {
+        return updateLatency;
+    }
+
+    /**
+     * Clears every counter and histogram. Values recorded while this runs may be kept or lost.
+     */
+    public void reset() {
+        for (LongAdder adder : entries) adder.reset();
+        for (Histogram histogram : dwell) histogram.reset();
+        for (LongAdder adder : conditionChecks) adder.reset();
+        for (LongAdder adder : transitionFires) adder.reset();
+        for (Histogram histogram : callbackTimes) histogram.reset();
+        updateLatency.reset();
+    }
+
+    /**
+     * @return Returns a report of every state that was entered, its transitions and its actions.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append("update: ").append(updateLatency).append('\n');
+
+        CompiledState[] states = definition.states;
+        for (int s = 0; s < states.length; s++) {
+            long visits = entries[s].sum();
+            if (visits == 0) continue;
+
+            CompiledState state = states[s];
+            report.append(String.format(Locale.ROOT, "%s: entries=%d conditionChecks=%d dwell: %s%n", state.name(), visits, conditionChecks[s].sum(), dwell[s]));
+
+            for (int t = 0; t < state.conditions.length; t++) {
+                appendFires(report, "transition " + t, transitionFires[transitionOffsets[s] + t].sum());
+            }
+            for (int e = 0; e < definition.events.length; e++) {
+                appendFires(report, "on " + definition.events[e].name(), transitionFires[transitionOffsets[s] + state.conditions.length + e].sum());
+            }
+            appendFires(report, "onComplete", transitionFires[transitionOffsets[s + 1] - 2].sum());
+            appendFires(report, "onFailure", transitionFires[transitionOffsets[s + 1] - 1].sum());
+
+            for (CallbackKind kind : CallbackKind.values()) {
+                int slot = s * KINDS + kind.ordinal();
+                for (int i = callbackOffsets[slot]; i < callbackOffsets[slot + 1]; i++) {
+                    Histogram time = callbackTimes[i];
+                    if (time.count() > 0) report.append("  ").append(kind.name().toLowerCase(Locale.ROOT)).append(' ').append(i - callbackOffsets[slot]).append(": ").append(time).append('\n');
+                }
+            }
+        }
+
+        return report.toString();
+    }
+
+    private static void appendFires(StringBuilder report, String label, long fires) {
+        if (fires > 0) report.append("  ").append(label).append(": fired=").append(fires).append('\n');
+    }
+
+    @SuppressWarnings("auxiliaryclass") // the builder exceptions live in StateMachine.java
+    private int index(String state) {
+        int index = definition.indexOf(state);
+        if (index == -1) throw new InvalidStateException("Invalid state indicated: \"" + state + "\". Ensure that the given string is connected to a state.");
+        return index;
+    }
+}
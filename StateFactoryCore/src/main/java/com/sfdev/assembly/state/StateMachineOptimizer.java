@@ -0,0 +1,362 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.transition.TransitionCondition;
+import com.sfdev.assembly.transition.TransitionData;
+import com.sfdev.assembly.transition.TransitionTimed;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Simplifies the states of a builder before they are compiled, see StateMachineBuilder.optimize(). Three rewrites are applied, in order:
+ * empty states that only pass straight through (a zero-second wait with nothing else) are skipped over by every transition into them;
+ * a wait state that is only ever entered from another wait state has its wait added to that state's; and states that no transition
+ * leads to are removed. A wait state here is a state with no actions, events, minimums or async work, and a single timed transition
+ * with an explicit target. Every action still runs in the same order, but each skipped state saves the update it took to cross it,
+ * and the states that disappear can no longer be the target of setState(). Failsafe states and the states given to
+ * StateMachineBuilder.keepStates() are entered through setState(), so they are never removed and count as entered from outside.
+ * Nothing is redirected to an anonymous wait state, since only linear order can lead to one.
+ * The builder's states are never changed; the optimized states are copies.
+ */
+final class StateMachineOptimizer {
+    private StateMachineOptimizer() {
+    }
+
+    /**
+     * A state and its transition targets, all made explicit, while the optimizer works on them.
+     * A null target is a linear transition out of the last linear state, which has nowhere to go.
+     */
+    private static final class Node {
+        final State state;
+        final int index; // linear states first, then failsafe states
+        Node[] targets;
+        Node[] eventTargets;
+        Node completeTarget;
+        Node failureTarget;
+        long waitNanos; // -1 when the state is not a wait state
+        int entries = 0;
+        boolean fused = false;
+        boolean removed = false;
+        boolean reached = false;
+        boolean kept = false; // entered through setState(), so it must stay
+
+        Node(State state, int index) {
+            this.state = state;
+            this.index = index;
+        }
+
+        String name() {
+            return state.getNameString();
+        }
+    }
+
+    /**
+     * Optimizes a list of states.
+     * @param stateList The states, in declaration order. Not modified.
+     * @param keep The names of the states that must stay besides the failsafe states.
+     * @param report Receives what was changed.
+     * @return Returns the optimized states, or stateList itself if it cannot be optimized.
+     */
+    @SuppressWarnings("auxiliaryclass") // the builder exceptions live in StateMachine.java
+    static List<State> optimize(List<State> stateList, Set<String> keep, OptimizationReport report) {
+        HashMap<String, Node> named = new HashMap<>();
+        HashMap<State, Node> nodes = new HashMap<>();
+        List<Node> all = new ArrayList<>();
+        int linearCount = 0;
+        for (State s : stateList) {
+            if (!s.isFailsafe()) linearCount++;
+        }
+        for (State s : stateList) {
+            if (!s.isFailsafe()) all.add(new Node(s, all.size()));
+        }
+        for (State s : stateList) {
+            if (s.isFailsafe()) all.add(new Node(s, all.size()));
+        }
+
+        for (Node node : all) {
+            nodes.put(node.state, node);
+            if (node.state.isAnonymous()) continue; // cannot be pointed to, so it needs no name
+
+            if (named.put(node.name(), node) != null) {
+                report.skipped("state \"" + node.name() + "\" is declared more than once");
+                report.setStateCounts(stateList.size(), stateList.size());
+                return stateList;
+            }
+        }
+
+        for (String name : keep) {
+            Node node = named.get(name);
+            if (node == null) throw new InvalidStateException("Invalid state indicated: \"" + name + "\". Ensure that the given string is connected to a state.");
+            node.kept = true;
+        }
+        for (Node node : all) {
+            if (node.state.isFailsafe()) node.kept = true;
+        }
+
+        // linear pointers are replaced with the state they lead to, so removing states cannot change where they lead
+        for (int i = 0; i < all.size(); i++) {
+            Node node = all.get(i);
+            State s = node.state;
+            Node next = i + 1 < linearCount ? all.get(i + 1) : null;
+            String unknown = unknownPointer(s, named);
+            if (unknown != null) { // reported when the definition is compiled
+                report.skipped("state \"" + node.name() + "\" points to the unknown state \"" + unknown + "\"");
+                report.setStateCounts(stateList.size(), stateList.size());
+                return stateList;
+            }
+            node.targets = targetsOf(s.getTransitions(), next, named);
+            node.eventTargets = targetsOf(s.getEventTransitions(), next, named);
+            node.completeTarget = targetOf(s.getCompleteTransition(), next, named);
+            node.failureTarget = targetOf(s.getFailureTransition(), next, named);
+            node.waitNanos = waitNanos(s, node.targets);
+        }
+        Node start = all.get(0);
+
+        collapsePassThroughs(all, start, report);
+        fuseWaits(all, linearCount, start, report);
+        removeUnreachable(all, start, report);
+
+        List<State> optimized = new ArrayList<>();
+        for (State s : stateList) { // declaration order, so linear states keep their relative order
+            Node node = nodes.get(s);
+            if (!node.removed) optimized.add(copy(node));
+        }
+
+        report.setStateCounts(stateList.size(), optimized.size());
+        return optimized;
+    }
+
+    /**
+     * Points every transition into an empty zero-second wait state at the state it passes on to, and removes it.
+     * Only linear order can lead into an anonymous state, so a pass-through state that ends at one is kept.
+     */
+    private static void collapsePassThroughs(List<Node> all, Node start, OptimizationReport report) {
+        HashMap<Node, Node> forward = new HashMap<>();
+        for (Node node : all) {
+            if (node.waitNanos == 0 && node != start && !node.kept && node.targets[0] != node) {
+                forward.put(node, node.targets[0]);
+            }
+        }
+
+        // follow chains of pass-through states to their end; a loop made only of pass-through states is left alone
+        HashMap<Node, Node> resolved = new HashMap<>();
+        for (Node node : forward.keySet()) {
+            Node target = node;
+            int steps = 0;
+            while (forward.containsKey(target) && steps++ <= forward.size()) target = forward.get(target);
+            if (!forward.containsKey(target) && !target.state.isAnonymous()) resolved.put(node, target);
+        }
+        if (resolved.isEmpty()) return;
+
+        for (Node node : all) {
+            redirect(node.targets, resolved);
+            redirect(node.eventTargets, resolved);
+            if (resolved.containsKey(node.completeTarget)) node.completeTarget = resolved.get(node.completeTarget);
+            if (resolved.containsKey(node.failureTarget)) node.failureTarget = resolved.get(node.failureTarget);
+        }
+        for (Node node : all) {
+            if (resolved.containsKey(node)) {
+                node.removed = true;
+                report.collapsed(node.name(), resolved.get(node).name());
+            }
+        }
+    }
+
+    /**
+     * Adds the wait of every wait state that is only entered from another wait state to that state's wait, and removes it.
+     * A wait state that leads on to an anonymous state is only fused when linear order leads straight to it from its predecessor,
+     * since the predecessor then reaches the anonymous state in linear order too.
+     */
+    private static void fuseWaits(List<Node> all, int linearCount, Node start, OptimizationReport report) {
+        start.entries = 1; // entered when the machine starts
+        for (Node node : all) {
+            if (node.kept && !node.removed) node.entries++; // entered through setState()
+        }
+        for (Node node : all) {
+            if (node.removed) continue;
+            count(node.targets);
+            count(node.eventTargets);
+            if (node.completeTarget != null) node.completeTarget.entries++;
+            if (node.failureTarget != null) node.failureTarget.entries++;
+        }
+
+        for (Node node : all) {
+            if (node.removed || node.waitNanos < 0) continue;
+
+            for (;;) {
+                Node next = node.targets[0];
+                if (next == node || next.removed || next.waitNanos < 0 || next.entries != 1) break;
+                if (next.targets[0].state.isAnonymous() && !followsLinearly(all, linearCount, node, next)) break;
+
+                node.waitNanos += next.waitNanos;
+                node.targets[0] = next.targets[0]; // the only way into next moves to node, so the counts stay right
+                node.fused = true;
+                next.removed = true;
+                report.fused(next.name(), node.name());
+            }
+        }
+    }
+
+    /**
+     * Removes every state that cannot be reached from the first state or a kept state.
+     */
+    private static void removeUnreachable(List<Node> all, Node start, OptimizationReport report) {
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        start.reached = true;
+        pending.add(start);
+        for (Node node : all) {
+            if (node.kept && !node.removed && !node.reached) {
+                node.reached = true;
+                pending.add(node);
+            }
+        }
+
+        while (!pending.isEmpty()) {
+            Node node = pending.poll();
+            for (Node target : node.targets) visit(target, pending);
+            if (node.eventTargets != null) {
+                for (Node target : node.eventTargets) visit(target, pending);
+            }
+            visit(node.completeTarget, pending);
+            visit(node.failureTarget, pending);
+        }
+
+        for (Node node : all) {
+            if (!node.removed && !node.reached) {
+                node.removed = true;
+                report.unreachable(node.name());
+            }
+        }
+    }
+
+    /**
+     * @return Returns whether linear order leads from one state straight to another, past states that were removed.
+     */
+    private static boolean followsLinearly(List<Node> all, int linearCount, Node from, Node to) {
+        if (to.index >= linearCount || to.index <= from.index) return false;
+        for (int i = from.index + 1; i < to.index; i++) {
+            if (!all.get(i).removed) return false;
+        }
+        return true;
+    }
+
+    private static void visit(Node target, ArrayDeque<Node> pending) {
+        if (target == null || target.reached || target.removed) return;
+
+        target.reached = true;
+        pending.add(target);
+    }
+
+    private static void count(Node[] targets) {
+        if (targets == null) return;
+        for (Node target : targets) {
+            if (target != null) target.entries++;
+        }
+    }
+
+    private static void redirect(Node[] targets, HashMap<Node, Node> resolved) {
+        if (targets == null) return;
+        for (int i = 0; i < targets.length; i++) {
+            if (resolved.containsKey(targets[i])) targets[i] = resolved.get(targets[i]);
+        }
+    }
+
+    private static Node[] targetsOf(List<TransitionData> transitions, Node next, HashMap<String, Node> named) {
+        if (transitions == null) return null;
+
+        Node[] targets = new Node[transitions.size()];
+        for (int t = 0; t < targets.length; t++) targets[t] = targetOf(transitions.get(t), next, named);
+        return targets;
+    }
+
+    private static Node targetOf(TransitionData transition, Node next, HashMap<String, Node> named) {
+        if (transition == null) return null;
+        return transition.getPointerState() != null ? named.get(transition.getPointerState()) : next;
+    }
+
+    /**
+     * @return Returns the first pointer of a state that names no state, or null if every pointer is valid.
+     */
+    private static String unknownPointer(State s, HashMap<String, Node> named) {
+        List<TransitionData> all = new ArrayList<>(s.getTransitions());
+        if (s.getEventTransitions() != null) all.addAll(s.getEventTransitions());
+        if (s.getCompleteTransition() != null) all.add(s.getCompleteTransition());
+        if (s.getFailureTransition() != null) all.add(s.getFailureTransition());
+
+        for (TransitionData transition : all) {
+            String pointer = transition.getPointerState();
+            if (pointer != null && !named.containsKey(pointer)) return pointer;
+        }
+        return null;
+    }
+
+    /**
+     * @return Returns the pointer that leads to a target. Nothing can name an anonymous state, so the rewrites above only ever
+     * leave one as the target of a linear transition, and linear order still leads to it.
+     */
+    private static String pointerOf(Node target) {
+        return target == null || target.state.isAnonymous() ? null : target.name();
+    }
+
+    /**
+     * @return Returns the wait of a wait state in nanoseconds, or -1 if the state does anything besides waiting.
+     */
+    private static long waitNanos(State s, Node[] targets) {
+        if (!isEmpty(s.getEnterActions()) || !isEmpty(s.getExitActions()) || !isEmpty(s.getLoopActions()) || !isEmpty(s.getTimedAction())
+                || !isEmpty(s.getEventTransitions()) || !isEmpty(s.getAsyncActions()) || s.getRegions() != null
+                || s.getCompleteTransition() != null || s.getFailureTransition() != null || s.getMinTransition() != null) {
+            return -1;
+        }
+        if (s.getTransitions().size() != 1 || targets[0] == null) return -1;
+
+        TransitionData transition = s.getTransitions().get(0);
+        if (!(transition.getTransitionCondition() instanceof TransitionTimed) || transition.getExitAction() != null || transition.getMinimumTransition() != null) {
+            return -1;
+        }
+        return ((TransitionTimed) transition.getTransitionCondition()).getNanos();
+    }
+
+    private static boolean isEmpty(List<?> list) {
+        return list == null || list.isEmpty();
+    }
+
+    /**
+     * Copies a state with its rewritten targets. Actions and conditions are shared with the original.
+     */
+    private static State copy(Node node) {
+        State original = node.state;
+        State copy;
+        if (original.isAnonymous()) copy = new State(original.getAnonymousId(), original);
+        else copy = original.getNameEnum() != null ? new State(original.getNameEnum(), original) : new State(original.getNameString(), original);
+
+        List<TransitionData> transitions = new ArrayList<>(node.targets.length);
+        for (int t = 0; t < node.targets.length; t++) {
+            TransitionData transition = original.getTransitions().get(t);
+            TransitionCondition condition = node.fused ? TransitionTimed.ofNanos(node.waitNanos) : transition.getTransitionCondition();
+            TransitionData rewritten = new TransitionData(condition, pointerOf(node.targets[t]), transition.getExitAction());
+            rewritten.setMinimumTransition(transition.getMinimumTransition());
+            transitions.add(rewritten);
+        }
+        copy.setTransitions(transitions);
+
+        if (node.eventTargets != null) {
+            List<TransitionData> events = new ArrayList<>(node.eventTargets.length);
+            for (int t = 0; t < node.eventTargets.length; t++) {
+                TransitionData transition = original.getEventTransitions().get(t);
+                events.add(new TransitionData(transition.getEvent(), pointerOf(node.eventTargets[t]), transition.getExitAction()));
+            }
+            copy.setEventTransitions(events);
+        }
+
+        if (original.getCompleteTransition() != null) {
+            copy.setCompleteTransition(new TransitionData((TransitionCondition) null, pointerOf(node.completeTarget), original.getCompleteTransition().getExitAction()));
+        }
+        if (original.getFailureTransition() != null) {
+            copy.setFailureTransition(new TransitionData((TransitionCondition) null, pointerOf(node.failureTarget), original.getFailureTransition().getExitAction()));
+        }
+        return copy;
+    }
+}
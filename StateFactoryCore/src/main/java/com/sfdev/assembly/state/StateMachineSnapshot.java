@@ -0,0 +1,77 @@
+package com.sfdev.assembly.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Saves and restores the runtime state of StateMachines, see StateMachine.snapshot() and StateMachine.restore().
+ * The format is big-endian: a 4-byte magic number and a 2-byte version, then one record per machine. A record holds the
+ * definition's fingerprint (4 bytes), the state index (4), a flags byte (entered, running, timers started), the nanoseconds elapsed
+ * on the state's timers (8), the number of timed actions that ran (4), the number of deadlines passed (4) and the number of regions (4),
+ * followed by the records of the child machines of a composite state. Only runtime data is saved; the definition must be built again.
+ */
+public final class StateMachineSnapshot {
+    static final int MAGIC = 0x5346534E; // "SFSN"
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 6;
+    static final int MACHINE_BYTES = 29;
+
+    static final int ENTERED = 1;
+    static final int RUNNING = 2;
+    static final int TIMERS_STARTED = 4;
+
+    private StateMachineSnapshot() {
+    }
+
+    /**
+     * Takes a snapshot into a new array.
+     * @param machine The machine to save.
+     * @return Returns the snapshot.
+     */
+    public static byte[] toBytes(StateMachine machine) {
+        byte[] bytes = new byte[machine.getSnapshotSize()];
+        machine.snapshot(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Restores a snapshot taken by toBytes().
+     * @param machine The machine to restore.
+     * @param snapshot The snapshot.
+     */
+    public static void fromBytes(StateMachine machine, byte[] snapshot) {
+        machine.restore(ByteBuffer.wrap(snapshot));
+    }
+
+    /**
+     * Takes a snapshot straight into a memory-mapped file, replacing its contents.
+     * @param machine The machine to save.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(StateMachine machine, File file) throws IOException {
+        int size = machine.getSnapshotSize();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(size);
+            MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            machine.snapshot(buffer);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Restores a snapshot from a memory-mapped file written by write().
+     * @param machine The machine to restore.
+     * @param file The file to read.
+     * @throws IOException If the file cannot be read.
+     */
+    public static void read(StateMachine machine, File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            machine.restore(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.sfdev.assembly.state;
+
+import com.sfdev.assembly.transition.TransitionCondition;
+
+/**
+ * Picks which transition of a state fires, specialized for the shape of that state when its definition is compiled.
+ * Each shape checks exactly the conditions the general loop in StateMachine.evaluate() would, in the same order, but leaves out
+ * the null checks and minimum transitions that cannot apply to it. States of any other shape keep using the general loop.
+ */
+abstract class TransitionGuard {
+    /**
+     * Checks the state's transitions in declaration order.
+     * @param elapsed Nanoseconds since the state's timers started.
+     * @return Returns the index of the first transition that should fire, or StateMachine.NO_TRANSITION.
+     */
+    abstract int check(long elapsed);
+
+    /**
+     * Specializes the transitions of a state.
+     * @param state The compiled state.
+     * @return Returns the guard for the state, or null if the state needs the general loop.
+     */
+    static TransitionGuard of(CompiledState state) {
+        int count = state.conditions.length;
+        if (count == 0) return NONE;
+        if (state.minTransition != null) return null; // polled before every transition, so nothing can be hoisted
+
+        boolean allTimed = true;
+        boolean allPolled = true;
+        for (int t = 0; t < count; t++) {
+            if (state.minimums[t] != null) return null;
+            if (state.conditions[t] != null) allTimed = false;
+            else allPolled = false;
+            if (state.minimumNanos[t] != CompiledState.NOT_TIMED) allPolled = false;
+        }
+
+        if (allTimed) {
+            // every check is elapsed >= nanos, so a transition fires once the largest of its durations has passed
+            long[] thresholds = new long[count];
+            for (int t = 0; t < count; t++) {
+                thresholds[t] = Math.max(state.minTransitionNanos, Math.max(state.conditionNanos[t], state.minimumNanos[t]));
+            }
+            return new Timed(thresholds);
+        }
+
+        if (allPolled && state.minTransitionNanos == CompiledState.NOT_TIMED) {
+            return count == 1 ? new Single(state.conditions[0]) : new Polled(state.conditions);
+        }
+
+        return null;
+    }
+
+    /**
+     * A state without transitions.
+     */
+    private static final TransitionGuard NONE = new TransitionGuard() {
+        @Override
+        int check(long elapsed) {
+            return StateMachine.NO_TRANSITION;
+        }
+    };
+
+    /**
+     * A state whose transitions and minimums are all timed.
+     */
+    private static final class Timed extends TransitionGuard {
+        private final long[] thresholds;
+        private final long earliest;
+
+        Timed(long[] thresholds) {
+            this.thresholds = thresholds;
+            long min = Long.MAX_VALUE;
+            for (long threshold : thresholds) min = Math.min(min, threshold);
+            earliest = min;
+        }
+
+        @Override
+        int check(long elapsed) {
+            if (elapsed < earliest) return StateMachine.NO_TRANSITION;
+
+            for (int t = 0; t < thresholds.length; t++) {
+                if (elapsed >= thresholds[t]) return t;
+            }
+            return StateMachine.NO_TRANSITION;
+        }
+    }
+
+    /**
+     * A state with a single polled transition and no minimums.
+     */
+    private static final class Single extends TransitionGuard {
+        private final TransitionCondition condition;
+
+        Single(TransitionCondition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        int check(long elapsed) {
+            return condition.shouldTransition() ? 0 : StateMachine.NO_TRANSITION;
+        }
+    }
+
+    /**
+     * A state whose transitions are all polled, with no minimums.
+     */
+    private static final class Polled extends TransitionGuard {
+        private final TransitionCondition[] conditions;
+
+        Polled(TransitionCondition[] conditions) {
+            this.conditions = conditions;
+        }
+
+        @Override
+        int check(long elapsed) {
+            for (int t = 0; t < conditions.length; t++) {
+                if (conditions[t].shouldTransition()) return t;
+            }
+            return StateMachine.NO_TRANSITION;
+        }
+    }
+}
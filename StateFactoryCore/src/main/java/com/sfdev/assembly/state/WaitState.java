@@ -1,69 +0,0 @@
-package com.sfdev.assembly.state;
-
-/**
- * Generated WaitState's in order to avoid duplicates
- */
-public class WaitState {
-	protected enum WAIT {
-		WaitState0,
-		WaitState1,
-		WaitState2,
-		WaitState3,
-		WaitState4,
-		WaitState5,
-		WaitState6,
-		WaitState7,
-		WaitState8,
-		WaitState9,
-		WaitState10,
-		WaitState11,
-		WaitState12,
-		WaitState13,
-		WaitState14,
-		WaitState15,
-		WaitState16,
-		WaitState17,
-		WaitState18,
-		WaitState19,
-		WaitState20,
-		WaitState21,
-		WaitState22,
-		WaitState23,
-		WaitState24,
-		WaitState25,
-		WaitState26,
-		WaitState27,
-		WaitState28,
-		WaitState29,
-		WaitState30,
-		WaitState31,
-		WaitState32,
-		WaitState33,
-		WaitState34,
-		WaitState35,
-		WaitState36,
-		WaitState37,
-		WaitState38,
-		WaitState39,
-		WaitState40,
-		WaitState41,
-		WaitState42,
-		WaitState43,
-		WaitState44,
-		WaitState45,
-		WaitState46,
-		WaitState47,
-		WaitState48,
-		WaitState49,
-		WaitState50,
-		WaitState51,
-		WaitState52,
-		WaitState53,
-		WaitState54,
-		WaitState55,
-		WaitState56,
-		WaitState57,
-		WaitState58,
-		WaitState59,
-	}
-}
\ No newline at end of file
@@ -0,0 +1,54 @@
+package com.sfdev.assembly.timing;
+
+/**
+ * A clock that only moves when it is told to, for tests and simulations.
+ */
+public class ManualTimeSource implements TimeSource {
+    private volatile long now;
+
+    /**
+     * Creates a clock that reads 0.
+     */
+    public ManualTimeSource() {
+        this(0);
+    }
+
+    /**
+     * Creates a clock.
+     * @param now The initial reading in nanoseconds.
+     */
+    public ManualTimeSource(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    /**
+     * Moves the clock forward.
+     * @param nanos The nanoseconds to advance by. Must not be negative.
+     */
+    public void advance(long nanos) {
+        if (nanos < 0) throw new IllegalArgumentException("Time cannot move backwards");
+        now += nanos;
+    }
+
+    /**
+     * Moves the clock forward.
+     * @param seconds The seconds to advance by. Must not be negative.
+     */
+    public void advanceSeconds(double seconds) {
+        advance((long) (seconds * 1e9));
+    }
+
+    /**
+     * Sets the clock.
+     * @param now The new reading in nanoseconds. Must not be earlier than the current reading.
+     */
+    public void set(long now) {
+        if (now < this.now) throw new IllegalArgumentException("Time cannot move backwards");
+        this.now = now;
+    }
+}
@@ -0,0 +1,18 @@
+package com.sfdev.assembly.timing;
+
+/**
+ * The clock a StateMachine reads once per update. Every timed transition and timed action in that update uses the same reading.
+ */
+@FunctionalInterface
+public interface TimeSource {
+    /**
+     * The monotonic system clock.
+     */
+    TimeSource SYSTEM = System::nanoTime;
+
+    /**
+     * Reads the clock.
+     * @return Returns the current time in nanoseconds. Only differences between readings are meaningful.
+     */
+    long nanoTime();
+}
@@ -0,0 +1,302 @@
+package com.sfdev.assembly.timing;
+
+/**
+ * Hierarchical timing wheel that holds absolute deadlines for any number of timeouts.
+ * Scheduling and cancelling are O(1), and advance() only touches the slots that are due (plus the occasional cascade of a coarser slot),
+ * jumping over empty stretches of time. A timeout is never expired before its deadline, and at most one resolution after it.
+ * A wheel is not thread-safe; it belongs to the thread that drives it.
+ */
+public class TimerWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 8; // 48 bits of ticks
+
+    /**
+     * Default resolution: one millisecond.
+     */
+    public static final long DEFAULT_RESOLUTION = 1_000_000L;
+
+    private final long resolution;
+    private final long origin;
+    private final Timeout[][] wheels = new Timeout[LEVELS][SLOTS];
+    private final long[] occupied = new long[LEVELS]; // one bit per non-empty slot
+    private Timeout overflow; // the timeouts beyond the top level's current rotation, re-inserted when the next rotation starts
+    private long tick = 0;
+    private int size = 0;
+
+    /**
+     * An entry of the wheel. Each timeout can be scheduled in at most one wheel at a time and is reused after it expires.
+     */
+    public abstract static class Timeout {
+        private TimerWheel wheel;
+        private Timeout prev;
+        private Timeout next;
+        private long deadline;
+        private long deadlineTick;
+        private int level;
+        private int slot;
+
+        /**
+         * Called by TimerWheel.advance() once the deadline has passed. The timeout is no longer scheduled when this runs.
+         * @param now The time passed to advance().
+         */
+        protected abstract void expire(long now);
+
+        /**
+         * @return Returns whether the timeout is waiting in a wheel.
+         */
+        public boolean isScheduled() {
+            return wheel != null;
+        }
+
+        /**
+         * @return Returns the absolute deadline the timeout was last scheduled for, in nanoseconds.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    /**
+     * Creates a wheel with the default resolution.
+     * @param now The current time in nanoseconds.
+     */
+    public TimerWheel(long now) {
+        this(DEFAULT_RESOLUTION, now);
+    }
+
+    /**
+     * Creates a wheel.
+     * @param resolution The width of the finest slot in nanoseconds. Timeouts expire at most this late.
+     * @param now The current time in nanoseconds.
+     */
+    public TimerWheel(long resolution, long now) {
+        if (resolution < 1) throw new IllegalArgumentException("Resolution must be at least one nanosecond");
+        this.resolution = resolution;
+        this.origin = now;
+    }
+
+    /**
+     * Schedules a timeout, moving it if it was already scheduled.
+     * @param timeout The timeout to schedule.
+     * @param deadline The absolute time in nanoseconds at or after which the timeout expires.
+     */
+    public void schedule(Timeout timeout, long deadline) {
+        if (timeout.wheel != null) timeout.wheel.cancel(timeout);
+
+        timeout.wheel = this;
+        timeout.deadline = deadline;
+        timeout.deadlineTick = ceilTick(deadline);
+        size++;
+        insert(timeout);
+    }
+
+    /**
+     * Removes a timeout from the wheel without expiring it.
+     * @param timeout The timeout to remove.
+     */
+    public void cancel(Timeout timeout) {
+        if (timeout.wheel != this) return;
+
+        unlink(timeout);
+        timeout.wheel = null;
+        size--;
+    }
+
+    /**
+     * Expires every timeout whose deadline is at or before the given time.
+     * @param now The current time in nanoseconds. Time never moves backwards; an earlier time is ignored.
+     * @return Returns the number of timeouts that expired.
+     */
+    public int advance(long now) {
+        long target = floorTick(now);
+        int expired = expireSlot(now);
+
+        while (tick < target && size > 0) {
+            long next = nextEventTick();
+            if (next > target) break;
+
+            tick = next;
+            cascade();
+            expired += expireSlot(now);
+        }
+
+        if (tick < target) tick = target;
+        return expired;
+    }
+
+    /**
+     * Finds how long until the earliest timeout can expire.
+     * @param now The current time in nanoseconds.
+     * @return Returns the nanoseconds until the next deadline (0 if one is already due), or Long.MAX_VALUE if the wheel is empty.
+     */
+    public long nanosUntilNextDeadline(long now) {
+        if (size == 0) return Long.MAX_VALUE;
+
+        // every deadline in a level is earlier than anything in a coarser level, and the slots of a level are visited in order,
+        // so the earliest deadline is in the first occupied slot of the finest occupied level
+        int level = 0;
+        while (level < LEVELS && occupied[level] == 0) level++;
+
+        long earliest = Long.MAX_VALUE;
+        Timeout first = level < LEVELS ? wheels[level][firstOccupied(level)] : overflow;
+        for (Timeout t = first; t != null; t = t.next) earliest = Math.min(earliest, t.deadline);
+
+        return Math.max(0, earliest - now);
+    }
+
+    /**
+     * @return Returns the number of scheduled timeouts.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Returns the resolution of the wheel in nanoseconds.
+     */
+    public long getResolution() {
+        return resolution;
+    }
+
+    private long floorTick(long time) {
+        long delta = time - origin;
+        return delta <= 0 ? 0 : delta / resolution;
+    }
+
+    private long ceilTick(long time) {
+        long delta = time - origin;
+        return delta <= 0 ? 0 : (delta - 1) / resolution + 1;
+    }
+
+    /**
+     * Places a timeout in the finest level whose current rotation contains its deadline tick, or in the overflow list if no level's does.
+     */
+    private void insert(Timeout timeout) {
+        long due = Math.max(timeout.deadlineTick, tick);
+        timeout.prev = null;
+
+        if ((due >>> (SLOT_BITS * LEVELS)) != (tick >>> (SLOT_BITS * LEVELS))) { // beyond the wheel
+            timeout.level = LEVELS;
+            timeout.next = overflow;
+            if (overflow != null) overflow.prev = timeout;
+            overflow = timeout;
+            return;
+        }
+
+        int level = 0;
+        while (level < LEVELS - 1 && (due >>> (SLOT_BITS * (level + 1))) != (tick >>> (SLOT_BITS * (level + 1)))) level++;
+        int slot = (int) (due >>> (SLOT_BITS * level)) & SLOT_MASK;
+
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.next = wheels[level][slot];
+        if (timeout.next != null) timeout.next.prev = timeout;
+        wheels[level][slot] = timeout;
+        occupied[level] |= 1L << slot;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) timeout.prev.next = timeout.next;
+        else if (timeout.level == LEVELS) overflow = timeout.next;
+        else wheels[timeout.level][timeout.slot] = timeout.next;
+        if (timeout.next != null) timeout.next.prev = timeout.prev;
+        if (timeout.level < LEVELS && wheels[timeout.level][timeout.slot] == null) occupied[timeout.level] &= ~(1L << timeout.slot);
+
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+    /**
+     * Moves the timeouts of every coarser slot that starts at the current tick down to finer levels,
+     * and the overflow list into the wheel when a rotation of the top level starts.
+     */
+    private void cascade() {
+        if (overflow != null && (tick & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0) {
+            Timeout t = overflow;
+            overflow = null;
+            while (t != null) {
+                Timeout next = t.next;
+                insert(t);
+                t = next;
+            }
+        }
+
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((tick & ((1L << (SLOT_BITS * level)) - 1)) != 0) continue; // not at the start of a slot of this level
+
+            int slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+            Timeout t = wheels[level][slot];
+            wheels[level][slot] = null;
+            occupied[level] &= ~(1L << slot);
+
+            while (t != null) {
+                Timeout next = t.next;
+                insert(t);
+                t = next;
+            }
+        }
+    }
+
+    /**
+     * Expires the finest slot of the current tick. Timeouts that were parked beyond the wheel are re-inserted instead.
+     */
+    private int expireSlot(long now) {
+        int slot = (int) tick & SLOT_MASK;
+        int expired = 0;
+
+        // expire() may schedule timeouts that are already due, which land back in this slot
+        while (wheels[0][slot] != null) {
+            Timeout t = wheels[0][slot];
+            wheels[0][slot] = null;
+            occupied[0] &= ~(1L << slot);
+
+            while (t != null) {
+                Timeout next = t.next;
+                t.prev = null;
+                t.next = null;
+
+                if (t.deadlineTick > tick) {
+                    insert(t);
+                } else {
+                    t.wheel = null;
+                    size--;
+                    expired++;
+                    t.expire(now);
+                }
+                t = next;
+            }
+        }
+
+        return expired;
+    }
+
+    /**
+     * Finds the next tick after the current one at which a finest slot expires or a coarser slot cascades.
+     */
+    private long nextEventTick() {
+        long next = overflow == null ? Long.MAX_VALUE : ((tick >>> (SLOT_BITS * LEVELS)) + 1) << (SLOT_BITS * LEVELS);
+        for (int level = 0; level < LEVELS; level++) {
+            if (occupied[level] == 0) continue;
+
+            int shift = SLOT_BITS * level;
+            int slot = firstOccupied(level);
+            int current = (int) (tick >>> shift) & SLOT_MASK;
+            long rotation = (tick >>> (shift + SLOT_BITS)) + (slot > current ? 0 : 1);
+            long at = (rotation << (shift + SLOT_BITS)) + ((long) slot << shift);
+            next = Math.min(next, at);
+        }
+
+        return next;
+    }
+
+    /**
+     * Finds the first occupied slot of a level, starting from the current one and wrapping around.
+     */
+    private int firstOccupied(int level) {
+        int current = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+        long rotated = Long.rotateRight(occupied[level], current);
+        return (current + Long.numberOfTrailingZeros(rotated)) & SLOT_MASK;
+    }
+}
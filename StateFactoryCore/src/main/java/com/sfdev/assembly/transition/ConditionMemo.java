@@ -0,0 +1,76 @@
+package com.sfdev.assembly.transition;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the result of each TransitionCondition for one cycle, so a condition shared by many transitions, states or machines
+ * is evaluated at most once per cycle however often it is checked. Useful for conditions that read expensive sensors or shared data.
+ * A cycle lasts until nextCycle() is called. The driver that updates the machines calls it once before each round of updates:
+ * every machine whose definition was built with StateMachineBuilder.memoizeConditions() does so itself on every update, unless a
+ * StateMachineFleet with the same memo drives it, which does so once per tick instead.
+ * Conditions must then not change their answer within a cycle in a way the machines are expected to see.
+ * Any number of threads can start cycles; the cycle only ever moves forward, so a result is never taken for one of a later cycle.
+ */
+public final class ConditionMemo {
+    private final AtomicLong cycle = new AtomicLong();
+    private final IdentityHashMap<TransitionCondition, Memoized> memoized = new IdentityHashMap<>();
+
+    /**
+     * Starts a new cycle. Every condition is evaluated again the next time it is checked.
+     */
+    public void nextCycle() {
+        cycle.incrementAndGet();
+    }
+
+    /**
+     * @return Returns the number of cycles started so far.
+     */
+    public long getCycle() {
+        return cycle.get();
+    }
+
+    /**
+     * Wraps a condition so its result is remembered for the rest of the cycle. The same condition always gets the same wrapper,
+     * which is what lets every transition that shares it share the result too.
+     * @param condition The condition to wrap. Timed conditions are returned as they are, since the StateMachine times them itself.
+     * @return Returns the memoized condition.
+     */
+    public synchronized TransitionCondition memoize(TransitionCondition condition) {
+        if (condition == null || condition instanceof TransitionTimed || condition instanceof Memoized) return condition;
+
+        Memoized memo = memoized.get(condition);
+        if (memo == null) {
+            memo = new Memoized(condition);
+            memoized.put(condition, memo);
+        }
+        return memo;
+    }
+
+    /**
+     * A condition whose result is kept until the next cycle.
+     */
+    private final class Memoized implements TransitionCondition {
+        private final TransitionCondition condition;
+        // the cycle of the result shifted left by one, with the result in the lowest bit
+        private volatile long result = -1;
+
+        Memoized(TransitionCondition condition) {
+            this.condition = condition;
+        }
+
+        /**
+         * Machines that share the condition and are updated at the same time on different threads may each evaluate it once.
+         */
+        @Override
+        public boolean shouldTransition() {
+            long current = cycle.get();
+            long last = result;
+            if (last >>> 1 == current) return (last & 1) != 0;
+
+            boolean value = condition.shouldTransition();
+            result = current << 1 | (value ? 1 : 0);
+            return value;
+        }
+    }
+}
@@ -7,6 +7,7 @@ public class TransitionData {
     private String pointerState;
     private CallbackBase exitAction;
     private TransitionCondition minimumTransition;
+    private Enum<?> event;
 
     /**
      * A class that holds 3 objects.
@@ -21,6 +22,17 @@ public class TransitionData {
         minimumTransition = null;
     }
 
+    /**
+     * A transition that is triggered by an event instead of a condition.
+     * @param event The event that triggers the transition.
+     * @param pointerState The pointer state.
+     * @param exitAction The exit action on transition.
+     */
+    public TransitionData(Enum<?> event, String pointerState, CallbackBase exitAction) {
+        this((TransitionCondition) null, pointerState, exitAction);
+        this.event = event;
+    }
+
     /**
      * Determines whether this transition should transition.
      * @return Return whether the state should transition.
@@ -31,27 +43,31 @@ public class TransitionData {
     }
 
     /**
-     * Starts the timer of the transition condition and/or the minimum transition.
+     * Starts the timer of the transition condition and/or the minimum transition, for evaluating shouldTransition() on its own.
+     * @deprecated StateMachines time their transitions themselves, see TransitionTimed.startTimer().
      */
+    @Deprecated
     public void runTimer() {
-        if(transitionCondition instanceof TransitionTimed && !((TransitionTimed) transitionCondition).timerStarted()) { // starting all timedTransitions
+        if(transitionCondition instanceof TransitionTimed && !((TransitionTimed) transitionCondition).timerStarted()) {
             ((TransitionTimed) transitionCondition).startTimer();
         }
 
-        if(minimumTransition != null && minimumTransition instanceof TransitionTimed && !((TransitionTimed) minimumTransition).timerStarted()) { // starting all timedTransitions
+        if(minimumTransition instanceof TransitionTimed && !((TransitionTimed) minimumTransition).timerStarted()) {
             ((TransitionTimed) minimumTransition).startTimer();
         }
     }
 
     /**
-     * Restarts the timer at the end of the state.
+     * Resets the timers started by runTimer().
+     * @deprecated See runTimer().
      */
+    @Deprecated
     public void resetTimer() {
-        if(transitionCondition instanceof TransitionTimed && ((TransitionTimed) transitionCondition).timerStarted()) { // starting all timedTransitions
+        if(transitionCondition instanceof TransitionTimed && ((TransitionTimed) transitionCondition).timerStarted()) {
             ((TransitionTimed) transitionCondition).resetTimer();
         }
 
-        if(minimumTransition != null && minimumTransition instanceof TransitionTimed && ((TransitionTimed) minimumTransition).timerStarted()) { // starting all timedTransitions
+        if(minimumTransition instanceof TransitionTimed && ((TransitionTimed) minimumTransition).timerStarted()) {
             ((TransitionTimed) minimumTransition).resetTimer();
         }
     }
@@ -60,7 +76,7 @@ public class TransitionData {
      * Getter for the transition condition.
      * @return Returns the first object that was passed into the constructor.
      */
-    protected TransitionCondition getTransitionCondition() {
+    public TransitionCondition getTransitionCondition() {
         return transitionCondition;
     }
 
@@ -80,11 +96,19 @@ public class TransitionData {
         return exitAction;
     }
 
+    /**
+     * Getter for the event.
+     * @return Returns the event that triggers the transition, or null if it is triggered by a condition.
+     */
+    public Enum<?> getEvent() {
+        return event;
+    }
+
     /**
      * Getter for the minimum transition/
      * @return Returns the minimum transition that will cause the state to transition.
      */
-    protected TransitionCondition getMinimumTransition() {
+    public TransitionCondition getMinimumTransition() {
         return minimumTransition;
     }
 
@@ -1,32 +1,89 @@
 package com.sfdev.assembly.transition;
 
 /**
- * Timed transition class for simple usage of time based transitions
+ * Timed transition class for simple usage of time based transitions.
+ * A StateMachine only reads the duration and times it from when the state's timers start, so one TransitionTimed can be shared by
+ * any number of machines. The timer methods below are kept for code that evaluates a TransitionTimed on its own; that timer belongs
+ * to the object, is never touched by a StateMachine, and must not be shared between threads.
  */
 public class TransitionTimed implements TransitionCondition {
-    private double startTime = 0;
-    private double time;
+    private final long nanos;
+    private long startTime = 0; // only used when the condition is evaluated on its own, see startTimer()
+
     public TransitionTimed(double time) {
-        this.time = time;
+        this((long) (time * 1e9));
+    }
+
+    private TransitionTimed(long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * Creates a timed transition with an exact duration.
+     * @param nanos The nanoseconds that must pass before the transition fires.
+     * @return Returns the transition.
+     */
+    public static TransitionTimed ofNanos(long nanos) {
+        return new TransitionTimed(nanos);
     }
 
+    /**
+     * Gets the duration of the transition.
+     * @return Returns the seconds that must pass before the transition fires.
+     */
+    public double getDuration() {
+        return nanos / 1e9;
+    }
+
+    /**
+     * Gets the duration of the transition.
+     * @return Returns the nanoseconds that must pass before the transition fires.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Starts the object's own timer.
+     * @deprecated StateMachines time their transitions themselves; only needed to evaluate the condition on its own.
+     */
+    @Deprecated
     public void startTimer() {
         startTime = System.nanoTime();
     }
 
+    /**
+     * @deprecated See startTimer().
+     */
+    @Deprecated
     public boolean timerStarted() {
         return startTime != 0;
     }
 
+    /**
+     * @deprecated See startTimer().
+     */
+    @Deprecated
     public void resetTimer() {
         startTime = 0;
     }
+
+    /**
+     * Gets the time on the object's own timer.
+     * @return Returns the seconds since startTimer().
+     * @deprecated See startTimer(). Use getDuration() for the duration of the transition.
+     */
+    @Deprecated
     public double getTime() {
         return (System.nanoTime() - startTime) / 1e9;
     }
 
+    /**
+     * Evaluates the condition on the object's own timer, see startTimer(). A StateMachine never calls this.
+     * @return Returns whether the duration has passed since startTimer().
+     */
     @Override
     public boolean shouldTransition() {
-        return (System.nanoTime() - startTime) / 1e9 > time;
+        return System.nanoTime() - startTime > nanos;
     }
 }